@@ -20,7 +20,8 @@ import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
  * The interface is relatively low-level for speed. Entries are accessed using
  * the integer index of the child class C (clsIndex). For the parents' states, a second index is
  * created, psi, an integer 0<=i<|S|^n, where representing each possible state of each parent.
- * i.e. psi = 0 means P1=0,Pn=0,...,Pn=0.
+ * i.e. psi = 0 means P1=0,Pn=0,...,Pn=0. Digit i of psi (base |S|) is the state
+ * of the i-th parent, in the order given by {@link #getParentIndices(int)}.
  * 
  * 
  * @author cjm
@@ -35,7 +36,7 @@ public interface ConditionalProbabilityIndex {
 	 * @param parentsStatesIndex - integer encoding P1=S1...Pn=Sn
 	 * @return Pr(C | P1=S1, P2=S2, ..., Pn=Sn)
 	 */
-	public Double getConditionalProbabilityChildIsOn(int clsIndex, int parentsStatesIndex);
+	public double getConditionalProbabilityChildIsOn(int clsIndex, int parentsStatesIndex);
 	
 	
 	/**
@@ -53,6 +54,13 @@ public interface ConditionalProbabilityIndex {
 	 * @return |S|<sup>|pa(ci)|</sup>
 	 */
 	public int getNumberOfParentStates(int childClassIndex);
+
+	/**
+	 * @param clsIndex
+	 * @return indices of the parents of C, in the order used to encode parent
+	 *         states; null if C has no parents. Must not be modified
+	 */
+	public int[] getParentIndices(int clsIndex);
 	
 	
 	/**
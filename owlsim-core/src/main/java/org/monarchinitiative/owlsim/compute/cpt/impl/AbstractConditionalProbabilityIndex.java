@@ -1,17 +1,25 @@
 package org.monarchinitiative.owlsim.compute.cpt.impl;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.ConditionalProbabilityIndex;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
 /**
+ * Packed storage for conditional probability tables.
  * 
- * Note: currently only used by 3-state implementation
+ * The parents of each class are held as an int array, in the order used to
+ * encode parent states: digit i (base |S|) of a parents state index is the
+ * state of parent i. The table for all classes is a single flat array; the
+ * row for a class starts at its offset and has |S|<sup>|pa(c)|</sup> entries,
+ * so lookups are plain arithmetic.
  * 
  * @author cjm
  *
@@ -20,10 +28,13 @@ public abstract class AbstractConditionalProbabilityIndex implements Conditional
 
 	private Logger LOG = Logger.getLogger(AbstractConditionalProbabilityIndex.class);
 	BMKnowledgeBase kb;
-	
+	int size;
+
+	// parents of each class; null for classes with no parents
+	int[][] parentIndicesByClass;
+	// row of each class in the flat tables is [offset[c], offset[c+1])
+	int[] offsetByClass;
 
-	Map<Integer,Character>[][] parentStateMapByIndex;
-	
 	/**
 	 * @param size
 	 */
@@ -39,28 +50,148 @@ public abstract class AbstractConditionalProbabilityIndex implements Conditional
 		this.kb = kb;
 		init(kb.getNumClassNodes());
 	}
-	protected abstract void init(int size);
-	
+
+	protected void init(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return possible states of a parent, indexed by the digit used to encode it
+	 */
+	protected abstract char[] getStates();
+
+	/**
+	 * Sets up parents and row offsets for every class in kb, and allocates
+	 * the flat tables
+	 * 
+	 * @param kb
+	 * @throws IncoherentStateException if the table is too large to be indexed
+	 */
+	protected void allocate(BMKnowledgeBase kb) throws IncoherentStateException {
+		this.kb = kb;
+		int numStateTypes = getStates().length;
+		parentIndicesByClass = new int[size][];
+		offsetByClass = new int[size + 1];
+		long offset = 0;
+		for (int cix = 0; cix < size; cix++) {
+			offsetByClass[cix] = (int) offset;
+			int[] pixs = kb.getDirectSuperClassesBM(cix).toArray(); // ASSUME STABLE ORDERING
+			if (pixs.length > 0) {
+				parentIndicesByClass[cix] = pixs;
+				offset += (long) Math.pow(numStateTypes, pixs.length);
+			}
+			if (offset > Integer.MAX_VALUE) {
+				throw new IncoherentStateException("Too many parent states for CPT at " + kb.getClassId(cix));
+			}
+		}
+		offsetByClass[size] = (int) offset;
+		allocateTables((int) offset);
+	}
+
+	/**
+	 * @param totalNumberOfStates - sum over all classes of the number of parent states
+	 */
+	protected abstract void allocateTables(int totalNumberOfStates);
+
+	public int[] getParentIndices(int clsIndex) {
+		return parentIndicesByClass[clsIndex];
+	}
+
 	public Map<Integer, Character> getParentsToStateMapping(int clsIndex, int parentsState) {
-		return parentStateMapByIndex[clsIndex][parentsState];
+		return calculateParentStateMapForIndex(parentsState, parentIndicesByClass[clsIndex], getStates());
 	}
+
 	public int getNumberOfParentStates(int clsIndex) {
-		return parentStateMapByIndex[clsIndex] == null ?
-				0 : parentStateMapByIndex[clsIndex].length;
+		return offsetByClass == null ?
+				0 : offsetByClass[clsIndex + 1] - offsetByClass[clsIndex];
 	}
-	
-
 
 	public abstract void calculateConditionalProbabilities(BMKnowledgeBase kb) throws IncoherentStateException;
 
+	/**
+	 * Calculation of the table rows of a single class
+	 */
+	protected interface ClassTask {
+		void run(int clsIndex) throws IncoherentStateException;
+	}
+
+	/**
+	 * Receives the individuals that instantiate every parent in a subset
+	 */
+	protected interface OnParentsVisitor {
+		/**
+		 * @param onParentsMask - bit i set if parent i is in the subset
+		 * @param individualsBM - individuals of all parents in the subset; null for the empty subset
+		 */
+		void visit(int onParentsMask, EWAHCompressedBitmap individualsBM);
+	}
+
+	/**
+	 * Runs task for every class with parents, in parallel. Each task must only
+	 * write to the rows of its own class.
+	 * 
+	 * @param task
+	 * @throws IncoherentStateException - the first thrown by any task
+	 */
+	protected void forEachClassWithParents(ClassTask task) throws IncoherentStateException {
+		AtomicReference<IncoherentStateException> error = new AtomicReference<>();
+		IntStream.range(0, size).parallel().forEach(cix -> {
+			if (parentIndicesByClass[cix] == null || error.get() != null)
+				return;
+			try {
+				task.run(cix);
+			} catch (IncoherentStateException e) {
+				error.compareAndSet(null, e);
+			}
+		});
+		if (error.get() != null)
+			throw error.get();
+	}
+
+	/**
+	 * Visits every subset of the parents of a class together with the
+	 * individuals common to all of them.
+	 * 
+	 * The individuals of each parent are fetched once, and subsets are
+	 * enumerated depth-first so that each intersection is a single AND with
+	 * the intersection of a smaller subset. Once an intersection is empty, it
+	 * is passed on to all supersets without further ANDs.
+	 * 
+	 * @param pixs - parents
+	 * @param visitor
+	 */
+	protected void forEachOnParentsSubset(int[] pixs, OnParentsVisitor visitor) {
+		EWAHCompressedBitmap[] parentIndividualsBMs = new EWAHCompressedBitmap[pixs.length];
+		for (int i = 0; i < pixs.length; i++) {
+			parentIndividualsBMs[i] = kb.getIndividualsBM(pixs[i]);
+		}
+		visitor.visit(0, null);
+		visitSupersets(parentIndividualsBMs, 0, 0, null, visitor);
+	}
+
+	private void visitSupersets(EWAHCompressedBitmap[] parentIndividualsBMs, int start, int mask,
+			EWAHCompressedBitmap bm, OnParentsVisitor visitor) {
+		for (int i = start; i < parentIndividualsBMs.length; i++) {
+			EWAHCompressedBitmap next;
+			if (bm == null)
+				next = parentIndividualsBMs[i];
+			else if (bm.cardinality() == 0)
+				next = bm;
+			else
+				next = bm.and(parentIndividualsBMs[i]);
+			int nextMask = mask | (1 << i);
+			visitor.visit(nextMask, next);
+			visitSupersets(parentIndividualsBMs, i + 1, nextMask, next, visitor);
+		}
+	}
+
 	protected Map<Integer,Character> calculateParentStateMapForIndex(int parentState, 
-			List<Integer> parentIxs, char[] STATES) {
+			int[] parentIxs, char[] STATES) {
 		int numStateTypes = STATES.length;
 		Map<Integer,Character> parentStateMap = new HashMap<Integer,Character>();
-		for (int i=0; i<parentIxs.size(); i++) {
+		for (int i=0; i<parentIxs.length; i++) {
 			int mod = parentState % numStateTypes;
-			Integer p = parentIxs.get(i);
-			parentStateMap.put(p, STATES[mod]);
+			parentStateMap.put(parentIxs[i], STATES[mod]);
 			parentState = parentState / numStateTypes;
 		}
 		
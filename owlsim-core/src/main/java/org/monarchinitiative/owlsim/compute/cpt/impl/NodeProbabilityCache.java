@@ -0,0 +1,102 @@
+package org.monarchinitiative.owlsim.compute.cpt.impl;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded, thread-safe cache of node probabilities, keyed by target
+ * profile, that persists across queries.
+ * 
+ * Values are tables indexed by class, filled in as queries touch each node.
+ * Each entry is weighed once, when it is added, as the estimated size of a
+ * full table; least recently used entries are evicted once the total exceeds
+ * the memory ceiling.
+ * 
+ * Tables are shared by all queries against the same target profile, and may
+ * be filled concurrently. This is safe as long as each slot is only ever set
+ * to the same deterministic value.
+ * 
+ * @author cjm
+ *
+ * @param <K> target profile
+ * @param <V> table of node probabilities
+ */
+public class NodeProbabilityCache<K, V> {
+
+	/**
+	 * default maximum number of bytes used by cached node probabilities
+	 */
+	public static final long DEFAULT_MEMORY_CEILING = 256L * 1024 * 1024;
+
+	private final long memoryCeiling;
+	private final Cache<K, V> cache;
+
+	/**
+	 * @param memoryCeiling - bytes available; 0 disables caching
+	 * @param bytesPerEntry - estimated size of a single table
+	 */
+	public NodeProbabilityCache(long memoryCeiling, int bytesPerEntry) {
+		Preconditions.checkArgument(memoryCeiling >= 0, "memory ceiling must be non-negative");
+		this.memoryCeiling = memoryCeiling;
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(memoryCeiling)
+				.weigher((K k, V v) -> bytesPerEntry)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param targetProfile
+	 * @param loader - creates an empty table
+	 * @return table for targetProfile, shared with other callers until evicted
+	 */
+	public V get(K targetProfile, Supplier<V> loader) {
+		try {
+			return cache.get(targetProfile, loader::get);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return hit/miss/eviction counts
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return number of target profiles currently cached
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return maximum number of bytes used
+	 */
+	public long getMemoryCeiling() {
+		return memoryCeiling;
+	}
+
+	/**
+	 * @return live view of cache
+	 */
+	public Map<K, V> asMap() {
+		return cache.asMap();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public String toString() {
+		return "NodeProbabilityCache size=" + size() + " ceiling=" + memoryCeiling + " " + getStats();
+	}
+}
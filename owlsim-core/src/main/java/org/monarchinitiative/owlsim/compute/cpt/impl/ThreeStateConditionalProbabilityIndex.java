@@ -1,8 +1,6 @@
 package org.monarchinitiative.owlsim.compute.cpt.impl;
 
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -31,15 +29,15 @@ extends AbstractConditionalProbabilityIndex
 implements ConditionalProbabilityIndex {
 
 	private Logger LOG = Logger.getLogger(ThreeStateConditionalProbabilityIndex.class);
-	BMKnowledgeBase kb;
 	private char UNKNOWN = 'u';
 	private char ON = 't';
 	private char OFF = 'f';
 	private char[] STATES = {OFF, UNKNOWN, ON};
 
-	//Double[][] conditionalProbabilityOnByChildParentState; // Pr(C=on|ParentsStateCombo)
-	//Double[][] conditionalProbabilityOffByChildParentState; // Pr(C=on|ParentsStateCombo)
-	NodeProbabilities[][] conditionalProbabilityDistributionByChildParentState; // Pr(C=on|ParentsStateCombo)
+	// Pr(C=on|ParentsStateCombo) and Pr(C=off|ParentsStateCombo), flat;
+	// see AbstractConditionalProbabilityIndex
+	double[] conditionalProbabilityOnByChildParentState;
+	double[] conditionalProbabilityOffByChildParentState;
 
 
 
@@ -73,25 +71,48 @@ implements ConditionalProbabilityIndex {
 		return new ThreeStateConditionalProbabilityIndex(size);
 	}
 
-	protected void init(int size) {
-		//conditionalProbabilityOnByChildParentState = new Double[size][];
-		//conditionalProbabilityOffByChildParentState = new Double[size][];
-		conditionalProbabilityDistributionByChildParentState = new NodeProbabilities[size][];
-		parentStateMapByIndex = 
-				(Map<Integer,Character>[][])new Map[size][];
+	@Override
+	protected char[] getStates() {
+		return STATES;
 	}
 
+	@Override
+	protected void allocateTables(int totalNumberOfStates) {
+		conditionalProbabilityOnByChildParentState = new double[totalNumberOfStates];
+		conditionalProbabilityOffByChildParentState = new double[totalNumberOfStates];
+	}
+
+	/**
+	 * @param clsIndex
+	 * @param parentsState
+	 * @return new object holding Pr(C=on|ParentsState) and Pr(C=off|ParentsState)
+	 */
 	public NodeProbabilities getConditionalProbabilityDistribution(int clsIndex, int parentsState) {
-		return conditionalProbabilityDistributionByChildParentState[clsIndex][parentsState];
+		return new NodeProbabilities(getConditionalProbabilityChildIsOn(clsIndex, parentsState),
+				getConditionalProbabilityChildIsOff(clsIndex, parentsState));
+	}
+
+	public double getConditionalProbabilityChildIsOn(int clsIndex, int parentsState) {
+		return conditionalProbabilityOnByChildParentState[offsetByClass[clsIndex] + parentsState];
+	}
+
+	/**
+	 * @param clsIndex
+	 * @param parentsState
+	 * @return Pr(C=off|ParentsState)
+	 */
+	public double getConditionalProbabilityChildIsOff(int clsIndex, int parentsState) {
+		return conditionalProbabilityOffByChildParentState[offsetByClass[clsIndex] + parentsState];
 	}
-	public void setConditionalProbabilityDistribution(int childClassIndex, int parentsState, int numStates, NodeProbabilities cp) throws IncoherentStateException {
-		if (conditionalProbabilityDistributionByChildParentState[childClassIndex] == null)
-			conditionalProbabilityDistributionByChildParentState[childClassIndex] = new NodeProbabilities[numStates];
-		conditionalProbabilityDistributionByChildParentState[childClassIndex][parentsState] = cp;
+
+	public void setConditionalProbabilityDistribution(int childClassIndex, int parentsState, NodeProbabilities cp) throws IncoherentStateException {
+		int ix = offsetByClass[childClassIndex] + parentsState;
+		conditionalProbabilityOnByChildParentState[ix] = cp.prOn;
+		conditionalProbabilityOffByChildParentState[ix] = cp.prOff;
 	}
 	
 	public void calculateConditionalProbabilities(BMKnowledgeBase kb) throws IncoherentStateException {
-		this.kb = kb;
+		allocate(kb);
 		int totalInds = kb.getIndividualsBM(kb.getRootIndex()).cardinality();
 
 		Set<String> individualsWithNegatedTypes = new HashSet<String>();
@@ -102,40 +123,64 @@ implements ConditionalProbabilityIndex {
 		}
 		long t1 = System.currentTimeMillis();
 		LOG.info("Calculating all CPTs... Time: "+t1);
-		for (String cid : kb.getClassIdsInSignature()) {
-			LOG.debug("   Calculating CPT for "+cid);
-			int cix = kb.getClassIndex(cid);
+		forEachClassWithParents(cix -> {
+			int[] pixs = parentIndicesByClass[cix];
+			LOG.debug("   Calculating CPT for "+kb.getClassId(cix));
 			int numIndividualsForChild = kb.getIndividualsBM(cix).cardinality();
+			EWAHCompressedBitmap cSupersBM = kb.getSuperClassesBM(cix);
+
+			// unless a parent is OFF, probabilities depend only on which
+			// parents are ON; calculate these once for each subset of parents
+			int numOnParentsMasks = 1 << pixs.length;
+			double[] cpOnByOnParentsMask = new double[numOnParentsMasks];
+			double[] cpOffByOnParentsMask = new double[numOnParentsMasks];
+			forEachOnParentsSubset(pixs, (onParentsMask, allIndsForOnParentsBM) -> {
+				int numIndividualsForOnParents = 
+						allIndsForOnParentsBM == null ? 
+								totalInds : allIndsForOnParentsBM.cardinality();
 
-			EWAHCompressedBitmap sups = kb.getDirectSuperClassesBM(cid);
-			List<Integer> pixs = sups.getPositions(); // ASSUME STABLE ORDERING
-			int numParents = pixs.size();
-
-			// assume two states for now: will be extendable to yes, no, unknown
-			int numStates = (int) Math.pow(3, numParents);
-
-			if (numParents == 0) {
-				LOG.debug("Root: "+cid);
-				continue;
-			}
-			if (parentStateMapByIndex[cix] == null)
-				parentStateMapByIndex[cix] = new Map[numStates];
+				double conditionalProbabilityChildIsOff;
+				int numOff = 0;
+				if (allIndsForOnParentsBM != null) {
+					// todo: check efficiency
+					for (int jix : allIndsForOnParentsBM.getPositions()) {
+						String j = kb.getIndividualId(jix);
+						if (kb.getDirectNegatedTypesBM(j).andCardinality(cSupersBM) > 0) {
+							numOff++;
+						}
+					}
+					//LOG.info("cp(OFF)="+numOff + " / "+numIndividualsForOnParents);
+					conditionalProbabilityChildIsOff = numOff / (double) numIndividualsForOnParents;
+				}
+				else {
+					// TODO: make this efficient; use a getDirectIndividuals method
+					for (String j : individualsWithNegatedTypes) {
+						if (kb.getDirectNegatedTypesBM(j).andCardinality(cSupersBM) > 0) {
+							numOff++;
+						}
+					}
+					//LOG.info("cp(OFF)="+numOff + " / "+numIndividualsForOnParents);
+					conditionalProbabilityChildIsOff = numOff / (double) totalInds;
+				}
+				double conditionalProbabilityChildIsOn = 
+						numIndividualsForChild / (double) numIndividualsForOnParents;
+				if (conditionalProbabilityChildIsOff + conditionalProbabilityChildIsOn > 1.0) {
+					LOG.error("OOPS:"+conditionalProbabilityChildIsOff + " + " + conditionalProbabilityChildIsOn);
+				}
+				cpOnByOnParentsMask[onParentsMask] = conditionalProbabilityChildIsOn;
+				cpOffByOnParentsMask[onParentsMask] = conditionalProbabilityChildIsOff;
+			});
 
+			int numStates = getNumberOfParentStates(cix);
 			for (int parentSetStateIx=0; parentSetStateIx<numStates; parentSetStateIx++) {
-				Map<Integer, Character> parentStateMap = 
-						calculateParentStateMapForIndex(parentSetStateIx, pixs, STATES);
-
-				EWAHCompressedBitmap allIndsForOnParentsBM = null;
 				boolean hasParentThatIsOff = false;
-				for (int pix : parentStateMap.keySet()) {
-					char stateOfParent = parentStateMap.get(pix);
+				int onParentsMask = 0;
+				int stateDigits = parentSetStateIx;
+				for (int i=0; i<pixs.length; i++) {
+					char stateOfParent = STATES[stateDigits % STATES.length];
+					stateDigits /= STATES.length;
 					if (stateOfParent == ON) {
-						// treat OFF as ON*Pr(FN)
-						EWAHCompressedBitmap indsBM = kb.getIndividualsBM(pix);
-						if (allIndsForOnParentsBM == null)
-							allIndsForOnParentsBM = indsBM;
-						else
-							allIndsForOnParentsBM = allIndsForOnParentsBM.and(indsBM);
+						onParentsMask |= 1 << i;
 					}
 					else if (stateOfParent == OFF) {
 						// if parent is OFF, then logically the child must be OFF,
@@ -143,79 +188,25 @@ implements ConditionalProbabilityIndex {
 						hasParentThatIsOff = true;
 						break;
 					}
-					else {
-						// UNKNOWN
-					}
-
-
 				}
 
-				double conditionalProbabilityChildIsOn;
-				double conditionalProbabilityChildIsOff;
+				NodeProbabilities prd;
 				if (hasParentThatIsOff) {
-					conditionalProbabilityChildIsOn = 0;
-					conditionalProbabilityChildIsOff = 1.0;
+					prd = new NodeProbabilities(0, 1.0);
 				}
 				else {
-					conditionalProbabilityChildIsOff = 0.0; // TODO
-
-					int numIndividualsForOnParents = 
-							allIndsForOnParentsBM == null ? 
-									totalInds : allIndsForOnParentsBM.cardinality();
-
-					int numOff = 0;
-					EWAHCompressedBitmap cSupersBM = kb.getSuperClassesBM(cix);
-					if (allIndsForOnParentsBM != null) {
-						// todo: check efficiency
-						for (int jix : allIndsForOnParentsBM.getPositions()) {
-							String j = kb.getIndividualId(jix);
-							if (kb.getDirectNegatedTypesBM(j).andCardinality(cSupersBM) > 0) {
-								numOff++;
-							}
-						}
-						//LOG.info("cp(OFF)="+numOff + " / "+numIndividualsForOnParents);
-						conditionalProbabilityChildIsOff = numOff / (double) numIndividualsForOnParents;
-					}
-					else {
-						// TODO: make this efficient; use a getDirectIndividuals method
-						for (String j : individualsWithNegatedTypes) {
-							if (kb.getDirectNegatedTypesBM(j).andCardinality(cSupersBM) > 0) {
-								numOff++;
-							}
-						}
-						//LOG.info("cp(OFF)="+numOff + " / "+numIndividualsForOnParents);
-						conditionalProbabilityChildIsOff = numOff / (double) totalInds;
-						
-					}
-					conditionalProbabilityChildIsOn = 
-							numIndividualsForChild / (double) numIndividualsForOnParents;
-					//LOG.info("  CP for "+parentStateMap+" = "+numIndividualsForChild+"/"+numIndividualsForOnParents+" = "+conditionalProbabilityChildIsOn);
-					if (conditionalProbabilityChildIsOff + conditionalProbabilityChildIsOn > 1.0) {
-						LOG.error("OOPS:"+conditionalProbabilityChildIsOff + " + " + conditionalProbabilityChildIsOn);
-					}
+					prd = new NodeProbabilities(cpOnByOnParentsMask[onParentsMask], 
+							cpOffByOnParentsMask[onParentsMask]);
 				}
-				
-				NodeProbabilities prd = new NodeProbabilities(conditionalProbabilityChildIsOn, 
-						conditionalProbabilityChildIsOff);
 				//LOG.info("Setting PRD="+prd+" for "+cid+" PComboIx="+parentSetStateIx);
-				setConditionalProbabilityDistribution(cix, parentSetStateIx, numStates, prd);
-				
-				parentStateMapByIndex[cix][parentSetStateIx] = parentStateMap;
+				setConditionalProbabilityDistribution(cix, parentSetStateIx, prd);
 			}
-
-		}
+		});
 		long t2 = System.currentTimeMillis();
 		long td = t2-t1;
 		LOG.info("DONE Calculating all CPTs. Time: "+td);
 
 	}
-	@Override
-	public Double getConditionalProbabilityChildIsOn(int clsIndex,
-			int parentsStatesIndex) {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
 	
 
 }
@@ -1,16 +1,10 @@
 package org.monarchinitiative.owlsim.compute.cpt.impl;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.ConditionalProbabilityIndex;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 
-import com.googlecode.javaewah.EWAHCompressedBitmap;
-
 /**
  * An implementation of {@link ConditionalProbabilityIndex} in which only two states are
  * possible:
@@ -18,42 +12,34 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
  *  0 = u (unknown/unobserved/off)
  *  1 = t (true/observed/on)
  *  
- * 
+ * A parents state index is therefore a bit mask, in which bit i is set if
+ * parent i is on.
  * 
  * @author cjm
  *
  */
-//TODO: Use Abstract parent class
-public class TwoStateConditionalProbabilityIndex implements ConditionalProbabilityIndex {
+public class TwoStateConditionalProbabilityIndex extends AbstractConditionalProbabilityIndex
+implements ConditionalProbabilityIndex {
 
 	private Logger LOG = Logger.getLogger(TwoStateConditionalProbabilityIndex.class);
-	BMKnowledgeBase kb;
 	private char UNKNOWN = 'u';
 	private char ON = 't';
 	private char[] STATES = { UNKNOWN, ON };
 
-	Double[][] conditionalProbabilityByChildParentState;
-	Map<Integer,Character>[][] parentStateMapByIndex;
+	// Pr(C=on|ParentsState), flat; see AbstractConditionalProbabilityIndex
+	double[] conditionalProbabilityByChildParentState;
 	
 	/**
 	 * @param size
 	 */
 	public TwoStateConditionalProbabilityIndex(int size) {
-		super();
-		init(size);
+		super(size);
 	}
 	/**
 	 * @param kb
 	 */
 	public TwoStateConditionalProbabilityIndex(BMKnowledgeBase kb) {
-		super();
-		this.kb = kb;
-		init(kb.getNumClassNodes());
-	}
-	private void init(int size) {
-		conditionalProbabilityByChildParentState = new Double[size][];
-		parentStateMapByIndex = 
-				 (Map<Integer,Character>[][])new Map[size][];
+		super(kb);
 	}
 	
 	/**
@@ -72,102 +58,63 @@ public class TwoStateConditionalProbabilityIndex implements ConditionalProbabili
 		return new TwoStateConditionalProbabilityIndex(size);
 	}
 
-	public Double getConditionalProbabilityChildIsOn(int clsIndex, int parentsState) {
-		return conditionalProbabilityByChildParentState[clsIndex][parentsState];
+	@Override
+	protected char[] getStates() {
+		return STATES;
 	}
-	public Map<Integer, Character> getParentsToStateMapping(int clsIndex, int parentsState) {
-		return parentStateMapByIndex[clsIndex][parentsState];
+
+	@Override
+	protected void allocateTables(int totalNumberOfStates) {
+		conditionalProbabilityByChildParentState = new double[totalNumberOfStates];
 	}
-	public int getNumberOfParentStates(int clsIndex) {
-		return parentStateMapByIndex[clsIndex] == null ?
-				0 : parentStateMapByIndex[clsIndex].length;
+
+	public double getConditionalProbabilityChildIsOn(int clsIndex, int parentsState) {
+		return conditionalProbabilityByChildParentState[offsetByClass[clsIndex] + parentsState];
 	}
 	
-	public void setConditionalProbabilityChildIsOn(int childClassIndex, int parentsState, int numStates, double cp) throws IncoherentStateException {
-		if (conditionalProbabilityByChildParentState[childClassIndex] == null)
-			conditionalProbabilityByChildParentState[childClassIndex] = new Double[numStates];
+	public void setConditionalProbabilityChildIsOn(int childClassIndex, int parentsState, double cp) throws IncoherentStateException {
 		if (cp < 0.0) {
 			throw new IncoherentStateException("Pr(C|Parents)="+cp);
 		}
 		if (cp > 1.0) {
 			throw new IncoherentStateException("Pr(C|Parents)="+cp);
 		}
-		conditionalProbabilityByChildParentState[childClassIndex][parentsState] = cp;
+		conditionalProbabilityByChildParentState[offsetByClass[childClassIndex] + parentsState] = cp;
 	}
 
 	public void calculateConditionalProbabilities(BMKnowledgeBase kb) throws IncoherentStateException {
-		this.kb = kb;
+		allocate(kb);
 		//int[] icpca = kb.getIndividualCountPerClassArray();
 		int totalInds = kb.getIndividualsBM(kb.getRootIndex()).cardinality();
 
 		LOG.info("Calculating entire CPT...");
-		for (String cid : kb.getClassIdsInSignature()) {
-			LOG.debug("   Calculating CPT for "+cid);
-			int cix = kb.getClassIndex(cid);
+		long t1 = System.currentTimeMillis();
+		forEachClassWithParents(cix -> {
+			int[] pixs = parentIndicesByClass[cix];
+			LOG.debug("   Calculating CPT for "+kb.getClassId(cix));
 			int numIndividualsForChild = kb.getIndividualsBM(cix).cardinality();
 
-			EWAHCompressedBitmap sups = kb.getDirectSuperClassesBM(cid);
-			List<Integer> pixs = sups.getPositions(); // ASSUME STABLE ORDERING
-			int numParents = pixs.size();
-			
-			// assume two states for now: will be extendable to yes, no, unknown
-			int numStates = (int) Math.pow(2, numParents);
-
-			if (numParents == 0) {
-				LOG.debug("Root: "+cid);
-				continue;
-			}
-			if (parentStateMapByIndex[cix] == null)
-				parentStateMapByIndex[cix] = new Map[numStates];
+			// the parents state index is the mask of parents that are on
+			int[] numIndividualsForOnParentsByState = new int[getNumberOfParentStates(cix)];
+			forEachOnParentsSubset(pixs, (parentState, allIndsForOnParentsBM) -> {
+				numIndividualsForOnParentsByState[parentState] = 
+						allIndsForOnParentsBM == null ? 
+								totalInds : allIndsForOnParentsBM.cardinality();
+			});
 
-			for (int parentState=0; parentState<numStates; parentState++) {
+			for (int parentState=0; parentState<numIndividualsForOnParentsByState.length; parentState++) {
 				
 				// Pr(C=on | P1=P1_s, ..., Pn=Pn_s) = |C| / |{ p : p in P & p=on } |
-				
-				Map<Integer, Character> parentStateMap = calculateParentStateMapForIndex(parentState, pixs);
-
-				EWAHCompressedBitmap allIndsForOnParentsBM = null;
-				for (int pix : parentStateMap.keySet()) {
-					char state = parentStateMap.get(pix);
-					if (state == ON) {
-						EWAHCompressedBitmap indsBM = kb.getIndividualsBM(pix);
-						if (allIndsForOnParentsBM == null)
-							allIndsForOnParentsBM = indsBM;
-						else
-							allIndsForOnParentsBM = allIndsForOnParentsBM.and(indsBM);
-					}
-					
-				}
-
-				int numIndividualsForOnParents = 
-						allIndsForOnParentsBM == null ? 
-								totalInds : allIndsForOnParentsBM.cardinality();
+				int numIndividualsForOnParents = numIndividualsForOnParentsByState[parentState];
 				// in any given corpus, there may be unseen classes, which can lead to 0/0=Nan
 				// we therefore boost the population by making 9 additional 'clones' of any 
 				double conditionalProbability = 
 						(10*numIndividualsForChild+1) / (double) (10*numIndividualsForOnParents+1);
-				LOG.debug("  CP for "+parentStateMap+" = "+numIndividualsForChild+"/"+numIndividualsForOnParents+" = "+conditionalProbability);
-				setConditionalProbabilityChildIsOn(cix, parentState, 
-						numStates, conditionalProbability);
-				parentStateMapByIndex[cix][parentState] = parentStateMap;
+				LOG.debug("  CP for "+parentState+" = "+numIndividualsForChild+"/"+numIndividualsForOnParents+" = "+conditionalProbability);
+				setConditionalProbabilityChildIsOn(cix, parentState, conditionalProbability);
 			}
-			
-		}
-		LOG.info("DONE Calculating CPT");
+		});
+		LOG.info("DONE Calculating CPT. Time: "+(System.currentTimeMillis()-t1));
 
 	}
-	
-	private Map<Integer,Character> calculateParentStateMapForIndex(int parentState, 
-			List<Integer> parentIxs) {
-		int numStateTypes = STATES.length;
-		Map<Integer,Character> parentStateMap = new HashMap<Integer,Character>();
-		for (int i=0; i<parentIxs.size(); i++) {
-			int mod = parentState % numStateTypes;
-			Integer p = parentIxs.get(i);
-			parentStateMap.put(p, STATES[mod]);
-			parentState = parentState / numStateTypes;
-		}
-		
-		return parentStateMap;
-	}
 }
@@ -4,9 +4,15 @@ public class EnrichmentConfig {
     
     public enum AnalysisType {OVER, UNDER, BOTH};
     
+    public enum CorrectionMethod {BONFERRONI, HOLM, BENJAMINI_HOCHBERG};
+    
     public Double overThreshold = null;
     public Double underThreshold = null;
     
     public AnalysisType analysisType = AnalysisType.BOTH;
+    
+    // Holm and Benjamini-Hochberg apply to enrichment against a set of classes;
+    // single class enrichment is always Bonferroni corrected
+    public CorrectionMethod correctionMethod = CorrectionMethod.BONFERRONI;
 
 }
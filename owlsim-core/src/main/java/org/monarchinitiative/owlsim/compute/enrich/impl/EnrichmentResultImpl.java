@@ -6,6 +6,7 @@ public class EnrichmentResultImpl implements EnrichmentResult {
     
     private final double p;
     private final double pCorrected;
+    private final double pUnderRepresented;
     private final double pUnderRepresentedCorrected;
     private final String enrichedClassId;
     private final int numShared;
@@ -13,21 +14,25 @@ public class EnrichmentResultImpl implements EnrichmentResult {
     private final int sampleCardinality;
     Integer rank = null;
 
-    public static EnrichmentResult create(double p, double pCorrected, double pUnderRepresentedCorrected,
+    public static EnrichmentResult create(double p, double pCorrected, 
+            double pUnderRepresented, double pUnderRepresentedCorrected,
             String enrichedClassId, int numShared, int enrichedCardinality, int sampleCardinality) {
-        return new EnrichmentResultImpl(p, pCorrected, pUnderRepresentedCorrected, enrichedClassId, numShared,
+        return new EnrichmentResultImpl(p, pCorrected, pUnderRepresented, pUnderRepresentedCorrected, 
+                enrichedClassId, numShared,
                 enrichedCardinality,
                 sampleCardinality);
     }
   
 
    
-    public EnrichmentResultImpl(double p, double pCorrected, double pUnderRepresentedCorrected,
+    public EnrichmentResultImpl(double p, double pCorrected, 
+            double pUnderRepresented, double pUnderRepresentedCorrected,
             String enrichedClassId, int numShared, int enrichedCardinality,
             int sampleCardinality) {
         super();
         this.p = p;
         this.pCorrected = pCorrected;
+        this.pUnderRepresented = pUnderRepresented;
         this.pUnderRepresentedCorrected = pUnderRepresentedCorrected;
         this.enrichedClassId = enrichedClassId;
         this.numShared = numShared;
@@ -54,6 +59,13 @@ public class EnrichmentResultImpl implements EnrichmentResult {
     
     
 
+    /**
+     * @return the pUnderRepresented
+     */
+    public double getpUnderRepresented() {
+        return pUnderRepresented;
+    }
+
     /**
      * @return the pUnderRepresentedCorrected
      */
@@ -63,6 +75,27 @@ public class EnrichmentResultImpl implements EnrichmentResult {
 
 
 
+    /**
+     * @return the numShared
+     */
+    public int getNumShared() {
+        return numShared;
+    }
+
+    /**
+     * @return the enrichedCardinality
+     */
+    public int getEnrichedCardinality() {
+        return enrichedCardinality;
+    }
+
+    /**
+     * @return the sampleCardinality
+     */
+    public int getSampleCardinality() {
+        return sampleCardinality;
+    }
+
     /**
      * @return the rank
      */
@@ -100,6 +133,7 @@ public class EnrichmentResultImpl implements EnrichmentResult {
     @Override
     public String toString() {
         return "EnrichmentResultImpl [p=" + p + ", pCorrected=" + pCorrected
+                + ", pUnderRepresented=" + pUnderRepresented
                 + ", pUnderRepresentedCorrected=" + pUnderRepresentedCorrected
                 + ", enrichedClassId=" + enrichedClassId + ", numShared="
                 + numShared + ", enrichedCardinality=" + enrichedCardinality
@@ -0,0 +1,128 @@
+package org.monarchinitiative.owlsim.compute.enrich.impl;
+
+/**
+ * Hypergeometric probabilities calculated from a table of log factorials,
+ * sized to the largest population that will be tested.
+ *
+ * Tails are summed directly, starting from the observed value and stepping
+ * away from the mode using the ratio of successive terms, so that each tail
+ * costs a single exp. Tails that include the mode are calculated as the
+ * complement of the opposite tail.
+ *
+ * Arguments follow commons-math HypergeometricDistribution: N is the
+ * population size, K the number of successes in the population and n
+ * the sample size.
+ *
+ * @author cjm
+ *
+ */
+public class HypergeometricCalculator {
+
+    // terms smaller than this relative to the running sum are ignored
+    private static final double EPSILON = 1e-17;
+
+    private final double[] logFactorial;
+
+    /**
+     * @param maxPopulationSize
+     */
+    public HypergeometricCalculator(int maxPopulationSize) {
+        logFactorial = new double[maxPopulationSize + 1];
+        for (int i = 2; i <= maxPopulationSize; i++) {
+            logFactorial[i] = logFactorial[i-1] + Math.log(i);
+        }
+    }
+
+    /**
+     * @return largest population size supported
+     */
+    public int getMaxPopulationSize() {
+        return logFactorial.length - 1;
+    }
+
+    /**
+     * @param N - population size
+     * @param K - number of successes in population
+     * @param n - sample size
+     * @param k - number of successes in sample
+     * @return Pr(X = k)
+     */
+    public double probability(int N, int K, int n, int k) {
+        if (k < getSupportLowerBound(N, K, n) || k > getSupportUpperBound(K, n)) {
+            return 0.0;
+        }
+        return Math.exp(logBinomial(K, k) + logBinomial(N - K, n - k) - logBinomial(N, n));
+    }
+
+    /**
+     * @param N - population size
+     * @param K - number of successes in population
+     * @param n - sample size
+     * @param k - number of successes in sample
+     * @return Pr(X &gt;= k)
+     */
+    public double upperCumulativeProbability(int N, int K, int n, int k) {
+        if (k <= getSupportLowerBound(N, K, n)) {
+            return 1.0;
+        }
+        int hi = getSupportUpperBound(K, n);
+        if (k > hi) {
+            return 0.0;
+        }
+        if (k <= getMode(N, K, n)) {
+            return 1.0 - cumulativeProbability(N, K, n, k - 1);
+        }
+        double term = probability(N, K, n, k);
+        double sum = term;
+        for (int x = k; x < hi && term > sum * EPSILON; x++) {
+            // Pr(x+1) / Pr(x)
+            term *= (double) (K - x) * (n - x) / ((double) (x + 1) * (N - K - n + x + 1));
+            sum += term;
+        }
+        return Math.min(sum, 1.0);
+    }
+
+    /**
+     * @param N - population size
+     * @param K - number of successes in population
+     * @param n - sample size
+     * @param k - number of successes in sample
+     * @return Pr(X &lt;= k)
+     */
+    public double cumulativeProbability(int N, int K, int n, int k) {
+        int lo = getSupportLowerBound(N, K, n);
+        if (k < lo) {
+            return 0.0;
+        }
+        if (k >= getSupportUpperBound(K, n)) {
+            return 1.0;
+        }
+        if (k >= getMode(N, K, n)) {
+            return 1.0 - upperCumulativeProbability(N, K, n, k + 1);
+        }
+        double term = probability(N, K, n, k);
+        double sum = term;
+        for (int x = k; x > lo && term > sum * EPSILON; x--) {
+            // Pr(x-1) / Pr(x)
+            term *= (double) x * (N - K - n + x) / ((double) (K - x + 1) * (n - x + 1));
+            sum += term;
+        }
+        return Math.min(sum, 1.0);
+    }
+
+    private double logBinomial(int n, int k) {
+        return logFactorial[n] - logFactorial[k] - logFactorial[n - k];
+    }
+
+    private int getSupportLowerBound(int N, int K, int n) {
+        return Math.max(0, n + K - N);
+    }
+
+    private int getSupportUpperBound(int K, int n) {
+        return Math.min(K, n);
+    }
+
+    private int getMode(int N, int K, int n) {
+        return (int) (((long) n + 1) * (K + 1) / (N + 2));
+    }
+}
@@ -2,14 +2,16 @@ package org.monarchinitiative.owlsim.compute.enrich.impl;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import org.apache.commons.math3.distribution.HypergeometricDistribution;
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.enrich.EnrichmentConfig;
 import org.monarchinitiative.owlsim.compute.enrich.EnrichmentConfig.AnalysisType;
+import org.monarchinitiative.owlsim.compute.enrich.EnrichmentConfig.CorrectionMethod;
 import org.monarchinitiative.owlsim.compute.enrich.EnrichmentEngine;
 import org.monarchinitiative.owlsim.compute.enrich.EnrichmentQuery;
 import org.monarchinitiative.owlsim.compute.enrich.EnrichmentResult;
@@ -31,20 +33,22 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
 
     private Logger LOG = Logger.getLogger(HypergeometricEnrichmentEngine.class);
 
-    long totalctime = 0;
-    long totalptime = 0;
-    
     BMKnowledgeBase kb;
 
-    // caches
-    List<Integer> numHypothesesByFilter = new ArrayList<>();
-    Integer numHypothesesGlobal;
+    // log-factorials sized to the kb population
+    private final HypergeometricCalculator hypergeometric;
+
+    // caches, keyed by id of type filter
+    private Map<String, Integer> numHypothesesByFilter = new ConcurrentHashMap<>();
+    private volatile Integer numHypothesesGlobal;
+    private Map<String, int[]> classCardinalitiesByFilter = new ConcurrentHashMap<>();
 
     protected EnrichmentConfig enrichmentConfig = new EnrichmentConfig();
 
     public HypergeometricEnrichmentEngine(BMKnowledgeBase kb) {
         super();
         this.kb = kb;
+        hypergeometric = new HypergeometricCalculator(kb.getIndividualIdsInSignature().size());
     }
 
     @Override
@@ -70,6 +74,7 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
 
     @Override
     public void precompute() {
+        getNumHypotheses(null, getClassCardinalities(null, null));
     }
     
     
@@ -81,51 +86,52 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
         return kb;
     }
 
-    private int getNumHypotheses(String tid) {
-
-        // check cache
+    /**
+     * For multiple testing correction, each class with &gt;1 individual in the filter
+     * counts as a distinct hypothesis. Calculated once per filter.
+     * 
+     * @param tid - id of type filter, or null
+     * @param classCardinalities - population count by class index, for tid
+     * @return number of hypotheses
+     */
+    private int getNumHypotheses(String tid, int[] classCardinalities) {
         if (tid == null) {
-            if (numHypothesesGlobal != null) {
-                return numHypothesesGlobal;
+            Integer n = numHypothesesGlobal;
+            if (n == null) {
+                n = countHypotheses(classCardinalities);
+                numHypothesesGlobal = n;
             }
+            return n;
         }
-        else {
-            int cix = kb.getClassIndex(tid);
-            if (numHypothesesByFilter.get(cix) != null) {
-                return numHypothesesByFilter.get(cix);
-            }
-
-        }
-        LOG.info("  1st time calculating NumHypothesis for "+tid);
-
-        // for bonferoni correction, each class with >1 individual in the filter
-        // counts as a distinct hypothesis
-        EWAHCompressedBitmap filteredIndividualsBM = tid == null ? null : kb.getIndividualsBM(tid);
-        int n=0;
-        for (String cid : kb.getClassIdsInSignature()) {
-            LOG.info("CID="+cid);
-            int cix = kb.getClassIndex(cid);
-            if (filteredIndividualsBM != null) {
-                if (kb.getIndividualsBM(cix).andCardinality(filteredIndividualsBM) < 2)
-                    continue;
+        return numHypothesesByFilter.computeIfAbsent(tid, k -> countHypotheses(classCardinalities));
+    }
 
+    private int countHypotheses(int[] classCardinalities) {
+        int n = 0;
+        for (int c : classCardinalities) {
+            if (c >= 2) {
+                n++;
             }
-            else if (kb.getIndividualsBM(cix).cardinality() < 2)
-                continue;
-            n++;
         }
+        return n;
+    }
 
-        // populate cache
+    /**
+     * Number of individuals in each class, restricted to the filter if set.
+     * Calculated once per filter.
+     * 
+     * @param tid - id of type filter, or null
+     * @param filteredIndividualsBM - individuals of tid
+     * @return population count by class index
+     */
+    private int[] getClassCardinalities(String tid, EWAHCompressedBitmap filteredIndividualsBM) {
         if (tid == null) {
-            numHypothesesGlobal = n;
+            return kb.getIndividualCountPerClassArray();
         }
-        else {
-            int cix = kb.getClassIndex(tid);
-            numHypothesesByFilter.set(cix, n);
-        }
-        LOG.info("  Done calculating NumHypothesis for "+tid+" = "+n);
-
-        return n;
+        return classCardinalitiesByFilter.computeIfAbsent(tid, k -> 
+            IntStream.range(0, kb.getNumClassNodes()).parallel().
+            map(cix -> kb.getIndividualsBM(cix).andCardinality(filteredIndividualsBM)).
+            toArray());
     }
 
     @Override
@@ -134,22 +140,19 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
         int popSize = kb.getIndividualIdsInSignature().size();
         EWAHCompressedBitmap sampleBM = getIndividualsBM(query);
         Filter filter = query.getFilter();
+        String tid = null;
         EWAHCompressedBitmap filteredIndividualsBM = null;
-        int numHypotheses = 0;
         if (filter != null && filter instanceof TypeFilter) {
             
             // e.g. a taxon class
-            String tid = ((TypeFilter)filter).getTypeId();
+            tid = ((TypeFilter)filter).getTypeId();
             filteredIndividualsBM = kb.getIndividualsBM(tid);
             popSize = filteredIndividualsBM.cardinality();
-            numHypotheses = getNumHypotheses(tid);
-        }
-        else {
-            numHypotheses = getNumHypotheses(null);
         }
         if (popSize < 2) {
             return null;
         }
+        int numHypotheses = getNumHypotheses(tid, getClassCardinalities(tid, filteredIndividualsBM));
         return calculateEnrichmentAgainstClass(query, sampleBM, enrichedClassId, 
                 popSize, numHypotheses, 
                 filteredIndividualsBM);
@@ -162,7 +165,6 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
             int popSize,
             int numHypotheses,
             EWAHCompressedBitmap filteredIndividualsBM) {
-        long t1 = System.currentTimeMillis();
 
         EWAHCompressedBitmap enrichedBM;
 
@@ -173,10 +175,22 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
         else
             enrichedBM = kb.getIndividualsBM(enrichedClassId).and(filteredIndividualsBM);
 
-        if (enrichedBM.cardinality() < 2) {
+        int enrichedCardinality = enrichedBM.cardinality();
+        if (enrichedCardinality < 2) {
             return null;
         }
         int numShared = sampleBM.andCardinality(enrichedBM);
+        return calculateEnrichment(enrichedClassId, numShared, enrichedCardinality, 
+                sampleBM.cardinality(), popSize, numHypotheses);
+    }
+
+    private EnrichmentResult calculateEnrichment(
+            String enrichedClassId,
+            int numShared,
+            int enrichedCardinality,
+            int sampleCardinality,
+            int popSize,
+            int numHypotheses) {
         
         // TODO - make configurable
         // while it is possible to get a statistically significant result
@@ -191,38 +205,22 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
             return null;
         }
         
-        int enrichedCardinality = enrichedBM.cardinality();
-        int sampleCardinality = sampleBM.cardinality();
-        
         // TODO - make configurable
         if (enrichmentConfig.analysisType == AnalysisType.UNDER && 
                 (enrichedCardinality < 5 || sampleCardinality < 5)) {
             return null;
         }
-        long t2 = System.currentTimeMillis();
  
-        HypergeometricDistribution hg = new HypergeometricDistribution(
-                popSize, enrichedCardinality, sampleCardinality);
-        int min = Math.min(enrichedCardinality, sampleCardinality);
-        //double p = hg.cumulativeProbability(numShared, min);
-        double p = hg.upperCumulativeProbability(numShared);
+        double p = hypergeometric.upperCumulativeProbability(
+                popSize, enrichedCardinality, sampleCardinality, numShared);
         double pCorrected = p * numHypotheses;
-        double pUnderRepresented = hg.cumulativeProbability(numShared);
+        double pUnderRepresented = hypergeometric.cumulativeProbability(
+                popSize, enrichedCardinality, sampleCardinality, numShared);
         double pUnderRepresentedCorrected = pUnderRepresented * numHypotheses;
 
-        long t3 = System.currentTimeMillis();
-        
-        long ctime = (t2-t1);
-        long ptime = (t3-t2);
-        totalctime += ctime;
-        totalptime += ptime;
-        if (new Random().nextInt(1000) == 0) {
-            LOG.info("TOTAL TIME: c="+totalctime +" p="+totalptime);
-        }
-        
-
         return EnrichmentResultImpl.create(p, 
                 pCorrected,
+                pUnderRepresented,
                 pUnderRepresentedCorrected,
                 enrichedClassId,
                 numShared,
@@ -241,19 +239,48 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
     public EnrichmentResultSet calculateEnrichmentAgainstKb(
             EnrichmentQuery query, Set<String> targetClassIds) {
 
+        int popSize = kb.getIndividualIdsInSignature().size();
+        EWAHCompressedBitmap sampleBM = getIndividualsBM(query);
+        Filter filter = query.getFilter();
+        String tid = null;
+        EWAHCompressedBitmap filteredSampleBM = sampleBM;
+        EWAHCompressedBitmap filteredIndividualsBM = null;
+        if (filter != null && filter instanceof TypeFilter) {
+            // e.g. a taxon class
+            tid = ((TypeFilter)filter).getTypeId();
+            filteredIndividualsBM = kb.getIndividualsBM(tid);
+            popSize = filteredIndividualsBM.cardinality();
+            filteredSampleBM = sampleBM.and(filteredIndividualsBM);
+        }
         List<EnrichmentResult> results = new ArrayList<>();
-        for (String cid : targetClassIds) {
-            EnrichmentResult r = calculateEnrichmentAgainstClass(query, cid);
-            if (enrichmentConfig.overThreshold != null &&
-                    r.getpCorrected() > enrichmentConfig.overThreshold) {
-                continue;
-            }
-            if (enrichmentConfig.underThreshold != null && 
-                    r.getpUnderRepresentedCorrected() > enrichmentConfig.underThreshold) {
-                continue;
-            }
-            if (r != null)
-                results.add(r);
+        if (popSize >= 2) {
+            int[] classCardinalities = getClassCardinalities(tid, filteredIndividualsBM);
+            int numHypotheses = getNumHypotheses(tid, classCardinalities);
+            int sampleCardinality = sampleBM.cardinality();
+            EWAHCompressedBitmap fsbm = filteredSampleBM;
+            int fPopSize = popSize;
+
+            // classes are independent; counts of the sample in each class
+            // are taken from the (filtered) sample, without materializing
+            // the filtered class
+            List<EnrichmentResultImpl> uncorrected = targetClassIds.parallelStream().map(cid -> {
+                int cix = kb.getClassIndex(cid);
+                int enrichedCardinality = classCardinalities[cix];
+                if (enrichedCardinality < 2) {
+                    return null;
+                }
+                int numShared = fsbm.andCardinality(kb.getIndividualsBM(cix));
+                return (EnrichmentResultImpl) calculateEnrichment(cid, numShared, enrichedCardinality, 
+                        sampleCardinality, fPopSize, numHypotheses);
+            }).
+            filter(r -> r != null).
+            collect(Collectors.toList());
+            results = correct(uncorrected, numHypotheses).stream().
+            filter(r -> enrichmentConfig.overThreshold == null ||
+                    r.getpCorrected() <= enrichmentConfig.overThreshold).
+            filter(r -> enrichmentConfig.underThreshold == null ||
+                    r.getpUnderRepresentedCorrected() <= enrichmentConfig.underThreshold).
+            collect(Collectors.toList());
         }
         EnrichmentResultSet rs = new EnrichmentResultSetImpl(query, results);
         
@@ -282,6 +309,43 @@ public class HypergeometricEnrichmentEngine implements EnrichmentEngine {
 
     }
 
+    /**
+     * Replaces the default Bonferroni-corrected p-values, if another correction
+     * method is configured. The method is applied separately to over- and
+     * under-representation p-values, each in a single sorted pass.
+     * 
+     * @param results - Bonferroni-corrected results
+     * @param numHypotheses
+     * @return results corrected using configured method
+     */
+    private List<EnrichmentResult> correct(List<EnrichmentResultImpl> results, int numHypotheses) {
+        CorrectionMethod method = enrichmentConfig.correctionMethod;
+        if (method == null || method == CorrectionMethod.BONFERRONI) {
+            return new ArrayList<>(results);
+        }
+        int n = results.size();
+        double[] ps = new double[n];
+        double[] pUnders = new double[n];
+        for (int i = 0; i < n; i++) {
+            ps[i] = results.get(i).getP();
+            pUnders[i] = results.get(i).getpUnderRepresented();
+        }
+        // hypotheses without a result are treated as having p=1,
+        // which leaves the adjusted p-values of the others unchanged
+        int m = Math.max(numHypotheses, n);
+        double[] pCorrecteds = MultipleTestingCorrection.correct(ps, m, method);
+        double[] pUnderCorrecteds = MultipleTestingCorrection.correct(pUnders, m, method);
+        List<EnrichmentResult> corrected = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            EnrichmentResultImpl r = results.get(i);
+            corrected.add(EnrichmentResultImpl.create(r.getP(), pCorrecteds[i], 
+                    r.getpUnderRepresented(), pUnderCorrecteds[i],
+                    r.getEnrichedClassId(), r.getNumShared(), 
+                    r.getEnrichedCardinality(), r.getSampleCardinality()));
+        }
+        return corrected;
+    }
+
     public EnrichmentResultSet calculateAllByAll(
             EnrichmentQuery query) {
 
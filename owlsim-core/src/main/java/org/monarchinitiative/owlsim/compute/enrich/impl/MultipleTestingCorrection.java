@@ -0,0 +1,67 @@
+package org.monarchinitiative.owlsim.compute.enrich.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.monarchinitiative.owlsim.compute.enrich.EnrichmentConfig.CorrectionMethod;
+
+/**
+ * Adjusts p-values for multiple testing.
+ *
+ * Holm and Benjamini-Hochberg are calculated in a single pass over the
+ * p-values in sorted order. Unlike these, Bonferroni-adjusted values are
+ * not capped at 1, for consistency with existing enrichment scores.
+ *
+ * @author cjm
+ *
+ */
+public class MultipleTestingCorrection {
+
+    /**
+     * @param ps - unadjusted p-values
+     * @param numHypotheses - total number of hypotheses tested; hypotheses
+     *   beyond ps.length are assumed to have p=1
+     * @param method
+     * @return adjusted p-values, in the same order as ps
+     */
+    public static double[] correct(double[] ps, int numHypotheses, CorrectionMethod method) {
+        int n = ps.length;
+        double[] adjusted = new double[n];
+        if (method == CorrectionMethod.BONFERRONI) {
+            for (int i = 0; i < n; i++) {
+                adjusted[i] = ps[i] * numHypotheses;
+            }
+            return adjusted;
+        }
+
+        // indices of ps, smallest p first
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> ps[i]));
+
+        if (method == CorrectionMethod.HOLM) {
+            // step-down: p(i) * (m - i), made monotone increasing
+            double max = 0.0;
+            for (int rank = 0; rank < n; rank++) {
+                int i = order[rank];
+                max = Math.max(max, Math.min(1.0, ps[i] * (numHypotheses - rank)));
+                adjusted[i] = max;
+            }
+        }
+        else if (method == CorrectionMethod.BENJAMINI_HOCHBERG) {
+            // step-up: p(i) * m / (i + 1), made monotone increasing
+            double min = 1.0;
+            for (int rank = n - 1; rank >= 0; rank--) {
+                int i = order[rank];
+                min = Math.min(min, ps[i] * numHypotheses / (rank + 1));
+                adjusted[i] = min;
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Unknown correction method: " + method);
+        }
+        return adjusted;
+    }
+}
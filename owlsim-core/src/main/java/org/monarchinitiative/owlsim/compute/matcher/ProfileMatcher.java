@@ -1,6 +1,7 @@
 package org.monarchinitiative.owlsim.compute.matcher;
 
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
@@ -9,6 +10,8 @@ import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
 /**
  * methods for finding a scored set of candidates given a class query profile
  * 
@@ -31,7 +34,27 @@ public interface ProfileMatcher {
 	 * this after initialization of the matcher object
 	 */
 	public void precompute();
-	
+
+	/**
+	 * Supply an executor used to score partitions of the candidate individuals
+	 * concurrently. If null (the default), candidates are scored sequentially.
+	 *
+	 * Results are identical to the sequential path. The caller retains
+	 * ownership of the executor and is responsible for shutting it down.
+	 *
+	 * @param executorService
+	 */
+	public void setExecutorService(ExecutorService executorService);
+
+	/**
+	 * A matcher is symmetric if comparing the profile of i against j always
+	 * yields the same score as comparing j against i. All-by-all comparisons
+	 * need only compute half of the pairs for symmetric matchers
+	 * 
+	 * @return true if scores are symmetric
+	 */
+	public boolean isSymmetric();
+
 	/**
 	 * Translate the phenotype profile of an individual to a ProfileQuery object
 	 * 
@@ -95,6 +118,36 @@ public interface ProfileMatcher {
      */
     public Match compareProfilePair(ProfileQuery q, ProfileQuery t) throws UnknownFilterException, IncoherentStateException;
 
+	/**
+	 * Scores q against a single target profile, without searching the kb.
+	 * Cost is proportional to the size of the two profiles.
+	 * 
+	 * The target need not be an individual in the kb; the returned match
+	 * has an id that is local to this comparison.
+	 * 
+	 * Note that for probabilistic matchers, scores are normalized over the
+	 * candidates, of which there is only one
+	 * 
+	 * @param q
+	 * @param targetDirectTypesBM - direct types of the target
+	 * @param targetDirectNegatedTypesBM - direct negated types of the target; may be null
+	 * @return scored match, or null if the matcher does not score the target
+	 * @throws IncoherentStateException
+	 */
+	public Match compareProfilePair(ProfileQuery q, EWAHCompressedBitmap targetDirectTypesBM,
+			EWAHCompressedBitmap targetDirectNegatedTypesBM) throws IncoherentStateException;
+
+	/**
+	 * As {@link #compareProfilePair(ProfileQuery, EWAHCompressedBitmap, EWAHCompressedBitmap)},
+	 * for a target that is an individual in the kb
+	 * 
+	 * @param q
+	 * @param individualId
+	 * @return scored match, or null if the matcher does not score the target
+	 * @throws IncoherentStateException
+	 */
+	public Match compareProfileToIndividual(ProfileQuery q, String individualId) throws IncoherentStateException;
+
 	/**
 	 * 
 	 * 
@@ -1,8 +1,17 @@
 package org.monarchinitiative.owlsim.compute.matcher.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.inference.TestUtils;
@@ -20,14 +29,17 @@ import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.QueryWithNegation;
+import org.monarchinitiative.owlsim.model.match.WeightedQuery;
 import org.monarchinitiative.owlsim.model.match.impl.ExecutionMetadataImpl;
 import org.monarchinitiative.owlsim.model.match.impl.MatchImpl;
 import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 import org.monarchinitiative.owlsim.model.match.impl.ProfileQueryImpl;
 import org.monarchinitiative.owlsim.model.match.impl.QueryWithNegationImpl;
+import org.monarchinitiative.owlsim.model.match.impl.WeightedQueryImpl;
 
 import com.google.common.base.Preconditions;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
 
 /**
  * common methods and variables for all ProfileMatchers
@@ -39,9 +51,24 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 
 	private Logger LOG = Logger.getLogger(AbstractProfileMatcher.class);
 
+	/**
+	 * Number of matches returned if the query does not specify a limit
+	 */
+	public static final int DEFAULT_LIMIT = 200;
+
 	protected BMKnowledgeBase knowledgeBase;
 	private FilterEngine filterEngine;
 
+	// targets of pairwise comparisons that are not individuals in the kb, keyed by a transient id
+	private static final String PAIRWISE_TARGET_PREFIX = "_:pairwise-target-";
+	private final Map<String, TargetProfile> pairwiseTargets = new ConcurrentHashMap<>();
+	private final AtomicLong pairwiseTargetCounter = new AtomicLong();
+
+	// if null, targets are scored sequentially
+	private ExecutorService executorService;
+	private int numPartitions = Runtime.getRuntime().availableProcessors();
+	private int minPartitionSize = 500;
+
 	/**
 	 * @param knowledgeBase
 	 */
@@ -65,6 +92,60 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 	public void precompute() {
 	}
 
+	/**
+	 * Defaults to false; override for matchers whose score is symmetric
+	 */
+	public boolean isSymmetric() {
+		return false;
+	}
+
+	/**
+	 * @return executor used for scoring partitions of targets, or null if sequential
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	/**
+	 * @return maximum number of partitions the targets are split into
+	 */
+	public int getNumPartitions() {
+		return numPartitions;
+	}
+
+	/**
+	 * Defaults to the number of available processors
+	 * 
+	 * @param numPartitions
+	 */
+	public void setNumPartitions(int numPartitions) {
+		Preconditions.checkArgument(numPartitions > 0);
+		this.numPartitions = numPartitions;
+	}
+
+	/**
+	 * @return minimum number of targets in a partition
+	 */
+	public int getMinPartitionSize() {
+		return minPartitionSize;
+	}
+
+	/**
+	 * Searches over fewer than twice this number of targets are
+	 * always performed sequentially, as the overhead of dispatching
+	 * would outweigh the gain
+	 * 
+	 * @param minPartitionSize
+	 */
+	public void setMinPartitionSize(int minPartitionSize) {
+		Preconditions.checkArgument(minPartitionSize > 0);
+		this.minPartitionSize = minPartitionSize;
+	}
+
 	/**
 	 * all positive nodes in query plus their ancestors
 	 * 
@@ -83,6 +164,54 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 		return EWAHUtils.convertIndexSetToBitmap(positions);
 	}
 
+	/**
+	 * Extends the query profile - for every node c, if all the direct parents of c are in
+	 * the query profile, then add c to the query profile.
+	 * 
+	 * Only children of query nodes (and the root) can qualify, so this is proportional
+	 * to the size of the blanket rather than the number of classes
+	 * 
+	 * @param onQueryNodesBM - query nodes, closed under superclass
+	 * @return query nodes plus nodes with all parents on
+	 */
+	protected EWAHCompressedBitmap getQueryBlanketBM(EWAHCompressedBitmap onQueryNodesBM) {
+		int[][] subClassIndices = knowledgeBase.getDirectSubClassIndicesPerClassArray();
+		int[] numParents = knowledgeBase.getDirectSuperClassCountPerClassArray();
+		int[] qixs = onQueryNodesBM.toArray();
+
+		// each child of a query node appears once per on parent
+		int n = 0;
+		for (int qix : qixs) {
+			n += subClassIndices[qix].length;
+		}
+		int[] children = new int[n];
+		n = 0;
+		for (int qix : qixs) {
+			int[] cixs = subClassIndices[qix];
+			System.arraycopy(cixs, 0, children, n, cixs.length);
+			n += cixs.length;
+		}
+		Arrays.sort(children);
+
+		EWAHCompressedBitmap nodesWithOnParentsBM = new EWAHCompressedBitmap();
+		for (int i = 0; i < n; ) {
+			int cix = children[i];
+			int j = i;
+			while (j < n && children[j] == cix) {
+				j++;
+			}
+			if (j - i == numParents[cix]) {
+				nodesWithOnParentsBM.set(cix);
+			}
+			i = j;
+		}
+		// the root has no parents, all of which are trivially on
+		EWAHCompressedBitmap rootBM = new EWAHCompressedBitmap();
+		rootBM.set(knowledgeBase.getRootIndex());
+
+		return onQueryNodesBM.or(nodesWithOnParentsBM).or(rootBM);
+	}
+
 	// given an array of class IDs c1...cn, return an array S1...Sn,
 	// where Si is the set of superclasses (direct and indirect) of ci,
 	// stored as a bitmap
@@ -125,15 +254,162 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 		return MatchImpl.create(matchId, matchLabel, s);
 	}
 
+	/**
+	 * @param q
+	 * @return maximum number of matches to return for q, or -1 for all
+	 */
+	protected int getLimit(ProfileQuery q) {
+		return q.getLimit() == null ? DEFAULT_LIMIT : q.getLimit();
+	}
+
+	/**
+	 * Creates the match set that an implementing class populates;
+	 * only the top matches up to the query limit are retained
+	 * 
+	 * @param q
+	 * @return new match set
+	 */
+	protected MatchSet createMatchSet(ProfileQuery q) {
+		return MatchSetImpl.create(q, getLimit(q));
+	}
+
 	/**
 	 * @param filter
 	 * @return list of individuals that satisfy filter
 	 * @throws UnknownFilterException
 	 */
 	protected List<String> getFilteredIndividualIds(Filter filter) throws UnknownFilterException {
+		if (filter instanceof PairwiseTargetFilter) {
+			return Collections.singletonList(((PairwiseTargetFilter) filter).targetId);
+		}
 		return filterEngine.applyFilter(filter);
 	}
 
+	/**
+	 * Scores a single target individual. Implementations may be called
+	 * concurrently for different targets, so must not modify shared state
+	 */
+	protected interface TargetMatcher {
+		Match createMatch(String itemId) throws IncoherentStateException;
+	}
+
+	/**
+	 * As {@link TargetMatcher}, for matchers that need the raw scores of all
+	 * targets (e.g. for normalization) before creating matches
+	 */
+	protected interface TargetScorer {
+		double getScore(String itemId) throws IncoherentStateException;
+	}
+
+	private interface PartitionTask<T> {
+		T run(int from, int to) throws IncoherentStateException;
+	}
+
+	/**
+	 * Creates a match for every target and adds it to mp.
+	 * 
+	 * If an executor is set, targets are split into contiguous partitions, each
+	 * partition builds a partial match set, and the partial sets are merged
+	 * in partition order. The resulting order is therefore identical to
+	 * the sequential path, which is important as sorting is stable.
+	 * 
+	 * Partial match sets are bounded by the same limit as mp, as any match
+	 * in the overall top n is also in the top n of its partition. The exception
+	 * is queries with reference individuals, as these are ranked against
+	 * the scores of all matches.
+	 * 
+	 * @param mp
+	 * @param indIds
+	 * @param targetMatcher
+	 * @throws IncoherentStateException
+	 */
+	protected void addMatches(MatchSet mp, List<String> indIds, TargetMatcher targetMatcher)
+			throws IncoherentStateException {
+		ProfileQuery q = mp.getQuery();
+		int partialLimit = q.getReferenceIndividualIds() == null ? getLimit(q) : -1;
+		List<MatchSet> partials = runPartitioned(indIds.size(), (from, to) -> {
+			MatchSet partial = MatchSetImpl.create(q, partialLimit);
+			for (int i = from; i < to; i++) {
+				partial.add(targetMatcher.createMatch(indIds.get(i)));
+			}
+			return partial;
+		});
+		for (MatchSet partial : partials) {
+			for (Match m : partial.getMatches()) {
+				mp.add(m);
+			}
+		}
+	}
+
+	/**
+	 * Calculates a score for every target; partitioned as for
+	 * {@link #addMatches(MatchSet, List, TargetMatcher)}
+	 * 
+	 * @param indIds
+	 * @param targetScorer
+	 * @return scores, in the same order as indIds
+	 * @throws IncoherentStateException
+	 */
+	protected double[] getScores(List<String> indIds, TargetScorer targetScorer)
+			throws IncoherentStateException {
+		double[] scores = new double[indIds.size()];
+		runPartitioned(indIds.size(), (from, to) -> {
+			for (int i = from; i < to; i++) {
+				scores[i] = targetScorer.getScore(indIds.get(i));
+			}
+			return null;
+		});
+		return scores;
+	}
+
+	/**
+	 * Runs task over partitions of [0,n), returning results in partition order.
+	 * 
+	 * Partitions are handed to the executor, but the calling thread also runs
+	 * any partition not yet started, so a search never blocks waiting on a
+	 * saturated executor (e.g. when searches are themselves run in the same pool)
+	 */
+	private <T> List<T> runPartitioned(int n, PartitionTask<T> task) throws IncoherentStateException {
+		List<T> results = new ArrayList<>();
+		int k = Math.min(numPartitions, n / minPartitionSize);
+		if (executorService == null || k < 2) {
+			results.add(task.run(0, n));
+			return results;
+		}
+		List<FutureTask<T>> futures = new ArrayList<>(k);
+		for (int p = 0; p < k; p++) {
+			int from = (int) ((long) n * p / k);
+			int to = (int) ((long) n * (p + 1) / k);
+			FutureTask<T> f = new FutureTask<>(() -> task.run(from, to));
+			futures.add(f);
+			executorService.execute(f);
+		}
+		try {
+			for (FutureTask<T> f : futures) {
+				// no-op if already started by the executor
+				f.run();
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IncoherentStateException)
+				throw (IncoherentStateException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			for (FutureTask<T> f : futures) {
+				f.cancel(false);
+			}
+		}
+		return results;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -192,15 +468,24 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 
 	public MatchSet findMatchProfile(ProfileQuery q) throws IncoherentStateException {
 		MatchSet ms = findMatchProfileAll(q);
-		int limit = q.getLimit() == null ? 200 : q.getLimit();
+		int limit = getLimit(q);
 		if (limit > -1) {
 			ms.truncate(limit);
 		}
 		return ms;
 	}
 
+	/**
+	 * The background distribution is formed from the scores of all targets,
+	 * whatever the query limit, so all targets are retained
+	 */
 	public MatchSet findMatchProfile(ProfileQuery q, double alpha) throws IncoherentStateException {
-		MatchSet ms = findMatchProfileAll(q);
+		ProfileQuery allq = copyQuery(q);
+		allq.setFilter(q.getFilter());
+		allq.setLimit(-1);
+		MatchSet ms = findMatchProfileAll(allq);
+		if (ms instanceof MatchSetImpl)
+			((MatchSetImpl) ms).setQuery(q);
 
 		// use all matches as "background"
 		// TODO this is a naive assumption, needs refactor
@@ -232,19 +517,122 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 
 	public Match compareProfilePair(ProfileQuery q, ProfileQuery t)
 			throws UnknownFilterException, IncoherentStateException {
-		AnonIndividualFilter filter = new AnonIndividualFilter(t);
-		q.setFilter(filter);
-		MatchSet matchSet = findMatchProfile(q);
+		EWAHCompressedBitmap negatedBM = null;
+		if (t instanceof QueryWithNegation) {
+			// a query with negation may still have no negated classes
+			Set<String> negatedIds = ((QueryWithNegation) t).getQueryNegatedClassIds();
+			if (negatedIds != null)
+				negatedBM = knowledgeBase.getClassesBM(negatedIds);
+		}
+		return compareProfilePair(q, knowledgeBase.getClassesBM(t.getQueryClassIds()), negatedBM);
+	}
+
+	public Match compareProfilePair(ProfileQuery q, EWAHCompressedBitmap targetDirectTypesBM,
+			EWAHCompressedBitmap targetDirectNegatedTypesBM) throws IncoherentStateException {
+		String targetId = PAIRWISE_TARGET_PREFIX + pairwiseTargetCounter.incrementAndGet();
+		pairwiseTargets.put(targetId, new TargetProfile(targetDirectTypesBM, targetDirectNegatedTypesBM));
+		try {
+			return compareToTarget(q, targetId);
+		} finally {
+			pairwiseTargets.remove(targetId);
+		}
+	}
+
+	public Match compareProfileToIndividual(ProfileQuery q, String individualId) throws IncoherentStateException {
+		Preconditions.checkNotNull(individualId);
+		return compareToTarget(q, individualId);
+	}
+
+	// scores q against a single target, bypassing the filter engine and search metadata;
+	// q itself is left untouched, as it may be shared between concurrent comparisons
+	private Match compareToTarget(ProfileQuery q, String targetId) throws IncoherentStateException {
+		ProfileQuery tq = copyQuery(q);
+		tq.setFilter(new PairwiseTargetFilter(targetId));
+		// the caller's limit applies to searches, not to a single comparison
+		tq.setLimit(-1);
+		MatchSet matchSet = findMatchProfileImpl(tq);
+		if (matchSet.getMatches().isEmpty())
+			return null;
 		return matchSet.getMatches().get(0);
 	}
 
+	// shallow copy preserving the query type, so that matchers see the same negation and weights
+	private static ProfileQuery copyQuery(ProfileQuery q) {
+		Set<String> negatedIds = q instanceof QueryWithNegation ?
+				((QueryWithNegation) q).getQueryNegatedClassIds() : null;
+		ProfileQuery copy;
+		if (q instanceof WeightedQuery) {
+			copy = WeightedQueryImpl.create(q.getQueryClassIds(), negatedIds,
+					((WeightedQuery) q).getQueryClassWeightMap());
+		}
+		else if (q instanceof QueryWithNegation) {
+			copy = QueryWithNegationImpl.create(q.getQueryClassIds(), negatedIds);
+		}
+		else {
+			copy = ProfileQueryImpl.create(q.getQueryClassIds());
+		}
+		copy.setLimit(q.getLimit());
+		copy.setReferenceIndividualIds(q.getReferenceIndividualIds());
+		return copy;
+	}
+
+	/**
+	 * Restricts a search to a single target
+	 */
+	private static class PairwiseTargetFilter implements Filter {
+		private final String targetId;
+
+		PairwiseTargetFilter(String targetId) {
+			this.targetId = targetId;
+		}
+	}
+
+	/**
+	 * A pairwise target described directly by bitmaps; closures are computed once per comparison
+	 */
+	private class TargetProfile {
+		private final EWAHCompressedBitmap directTypesBM;
+		private final EWAHCompressedBitmap typesBM;
+		private final EWAHCompressedBitmap directNegatedTypesBM;
+		private final EWAHCompressedBitmap negatedTypesBM;
+
+		TargetProfile(EWAHCompressedBitmap directTypesBM, EWAHCompressedBitmap directNegatedTypesBM) {
+			if (directNegatedTypesBM == null) {
+				directNegatedTypesBM = new EWAHCompressedBitmap();
+			}
+			this.directTypesBM = directTypesBM;
+			this.typesBM = knowledgeBase.getSuperClassesBM(directTypesBM);
+			this.directNegatedTypesBM = directNegatedTypesBM;
+			EWAHCompressedBitmap negatedTypesBM = new EWAHCompressedBitmap();
+			IntIterator it = directNegatedTypesBM.intIterator();
+			while (it.hasNext()) {
+				negatedTypesBM = negatedTypesBM.or(knowledgeBase.getSubClasses(it.next()));
+			}
+			this.negatedTypesBM = negatedTypesBM;
+		}
+	}
+
+	/**
+	 * @param individualId
+	 * @return true if individualId is the target of a pairwise comparison, rather than an individual in the kb
+	 */
+	protected boolean isPairwiseTarget(String individualId) {
+		return individualId.startsWith(PAIRWISE_TARGET_PREFIX);
+	}
+
 	// handling of anonymous individuals
 
 	private boolean isAnonymousIndividual(String individualId) {
 		return individualId.startsWith(AnonIndividualFilter.PREFIX);
 	}
 
+	// target accessors: matchers should use these rather than the kb, so that
+	// pairwise and anonymous targets can be scored
+
 	protected EWAHCompressedBitmap getDirectTypesBM(String individualId) {
+		if (isPairwiseTarget(individualId)) {
+			return pairwiseTargets.get(individualId).directTypesBM;
+		}
 		if (isAnonymousIndividual(individualId)) {
 			Set<String> cids = AnonIndividualFilter.getClassIdsFromExpression(individualId);
 			return knowledgeBase.getClassesBM(cids);
@@ -253,6 +641,9 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 	}
 
 	protected EWAHCompressedBitmap getTypesBM(String individualId) {
+		if (isPairwiseTarget(individualId)) {
+			return pairwiseTargets.get(individualId).typesBM;
+		}
 		if (isAnonymousIndividual(individualId)) {
 			Set<String> cids = AnonIndividualFilter.getClassIdsFromExpression(individualId);
 			return knowledgeBase.getSuperClassesBM(cids);
@@ -260,5 +651,19 @@ public abstract class AbstractProfileMatcher implements ProfileMatcher {
 			return knowledgeBase.getTypesBM(individualId);
 	}
 
+	protected EWAHCompressedBitmap getDirectNegatedTypesBM(String individualId) {
+		if (isPairwiseTarget(individualId)) {
+			return pairwiseTargets.get(individualId).directNegatedTypesBM;
+		}
+		return knowledgeBase.getDirectNegatedTypesBM(individualId);
+	}
+
+	protected EWAHCompressedBitmap getNegatedTypesBM(String individualId) {
+		if (isPairwiseTarget(individualId)) {
+			return pairwiseTargets.get(individualId).negatedTypesBM;
+		}
+		return knowledgeBase.getNegatedTypesBM(individualId);
+	}
+
 	protected abstract MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException;
 }
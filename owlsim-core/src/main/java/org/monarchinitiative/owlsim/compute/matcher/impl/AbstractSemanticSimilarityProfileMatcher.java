@@ -2,6 +2,7 @@ package org.monarchinitiative.owlsim.compute.matcher.impl;
 
 import javax.inject.Inject;
 
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
 import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
 import org.monarchinitiative.owlsim.compute.mica.impl.MostInformativeCommonAncestorCalculatorImpl;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
@@ -25,6 +26,7 @@ public abstract class AbstractSemanticSimilarityProfileMatcher extends AbstractP
 	 */
 	public AbstractSemanticSimilarityProfileMatcher(BMKnowledgeBase knowledgeBase) {
 		super(knowledgeBase);
+		// cheap: IC and frequency arrays are shared per kb; only the MICA store is per matcher
 		micaCalculator = new MostInformativeCommonAncestorCalculatorImpl(knowledgeBase);
 	}
 
@@ -35,6 +37,23 @@ public abstract class AbstractSemanticSimilarityProfileMatcher extends AbstractP
 		return micaCalculator;
 	}
 
+	/**
+	 * @return precomputed MICAs, or null if MICAs are calculated from bitmaps
+	 */
+	public MICAStore getMICAStore() {
+		return micaCalculator.getMICAStore();
+	}
+
+	/**
+	 * If set, MICAs between pairs of classes are looked up rather than
+	 * calculated by intersecting superclass bitmaps
+	 * 
+	 * @param micaStore - may be null
+	 */
+	public void setMICAStore(MICAStore micaStore) {
+		micaCalculator.setMICAStore(micaStore);
+	}
+
 	/**
 	 * @param micaCalculator
 	 */
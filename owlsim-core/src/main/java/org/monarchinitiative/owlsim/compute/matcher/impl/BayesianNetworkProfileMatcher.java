@@ -1,8 +1,7 @@
 package org.monarchinitiative.owlsim.compute.matcher.impl;
 
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -10,13 +9,13 @@ import javax.inject.Inject;
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.ConditionalProbabilityIndex;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
+import org.monarchinitiative.owlsim.compute.cpt.impl.NodeProbabilityCache;
 import org.monarchinitiative.owlsim.compute.cpt.impl.TwoStateConditionalProbabilityIndex;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.QueryWithNegation;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -82,8 +81,8 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
  * Currently this method is too slow to be used for dynamic queries, taking 1-5s
  * per query. Some efficiency could be gained by calculating with log-probs.
  * 
- * If we cache probabilities per-node for every target, we would gain a lot of
- * speed, space = NumClasses x NumTargets
+ * Probabilities per-node are cached for each target profile, up to a memory
+ * ceiling; see {@link #setCacheMemoryCeiling(long)}
  * 
  * 
  * @author cjm
@@ -96,22 +95,16 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 	double falseNegativeRate = 0.01; // TODO - do not hardcode
 	double falsePositiveRate = 0.01; // TODO - do not hardcode
 
-	ConditionalProbabilityIndex cpi = null; // index of
-											// Pr(Node={on,off}|ParentsState)
+	volatile ConditionalProbabilityIndex cpi = null; // index of
+													// Pr(Node={on,off}|ParentsState)
 
-	@Deprecated
-	private Calculator[] calculatorCache;
-	private Double[][] targetClassProbabilityCache;
+	// Pr(node=on|T) by target profile T
+	private NodeProbabilityCache<EWAHCompressedBitmap, double[]> targetClassProbabilityCache;
 
     @Inject
 	private BayesianNetworkProfileMatcher(BMKnowledgeBase kb) {
 		super(kb);
-		int N = kb.getIndividualIdsInSignature().size();
-		calculatorCache = new Calculator[N];
-		for (int i = 0; i < N; i++) {
-			calculatorCache[i] = null;
-		}
-		targetClassProbabilityCache = new Double[N][];
+		setCacheMemoryCeiling(NodeProbabilityCache.DEFAULT_MEMORY_CEILING);
 	}
 
 	/**
@@ -127,14 +120,37 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 		return "bayesian-network";
 	}
 
+	/**
+	 * Sets the number of bytes available for caching node probabilities
+	 * across queries, and clears the cache
+	 * 
+	 * @param memoryCeiling - 0 to disable caching
+	 */
+	public void setCacheMemoryCeiling(long memoryCeiling) {
+		targetClassProbabilityCache = new NodeProbabilityCache<>(memoryCeiling,
+				16 + 8 * knowledgeBase.getNumClassNodes());
+	}
+
+	/**
+	 * @return cache of node probabilities per target profile, e.g. for hit/miss statistics
+	 */
+	public NodeProbabilityCache<EWAHCompressedBitmap, double[]> getNodeProbabilityCache() {
+		return targetClassProbabilityCache;
+	}
+
 	public void precompute() {
 		if (cpi != null)
 			return;
-		try {
-			calculateConditionalProbabilities(knowledgeBase);
-		} catch (IncoherentStateException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// queries may run concurrently; only one of them builds the index
+		synchronized (this) {
+			if (cpi != null)
+				return;
+			try {
+				calculateConditionalProbabilities(knowledgeBase);
+			} catch (IncoherentStateException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -143,22 +159,24 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 	 * @throws IncoherentStateException
 	 */
 	public void calculateConditionalProbabilities(BMKnowledgeBase kb) throws IncoherentStateException {
-		cpi = TwoStateConditionalProbabilityIndex.create(kb);
+		ConditionalProbabilityIndex cpi = TwoStateConditionalProbabilityIndex.create(kb);
 		cpi.calculateConditionalProbabilities(kb);
+		// published only once filled in
+		this.cpi = cpi;
 	}
 
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 		precompute();
 		boolean isUseNegation = q instanceof QueryWithNegation;
 
 		double sumOfProbs = 0.0;
-		EWAHCompressedBitmap negatedQueryProfileBM = null;
-		Set<String> negatedQueryClassIds = null;
+		final EWAHCompressedBitmap negatedQueryProfileBM;
+		final Set<String> negatedQueryClassIds;
 		if (isUseNegation) {
 			LOG.info("Using QueryWithNegation");
 			QueryWithNegation nq = (QueryWithNegation) q;
@@ -167,54 +185,24 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 			LOG.info("nqp=" + negatedQueryProfileBM + " // " + negatedQueryClassIds);
 		} else {
 			LOG.info("Not using QueryWithNegation");
+			negatedQueryProfileBM = null;
+			negatedQueryClassIds = null;
 		}
 
 		Set<String> queryClassIds = q.getQueryClassIds();
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
 
-		double pvector[] = new double[indIds.size()];
-		String indArr[] = new String[indIds.size()];
-		int n = 0;
-
-		// TODO - FOR DEBUGGING ONLY
-		// int nc=0;
-		// for (String itemId : indIds) {
-		// int indIx = knowledgeBase.getIndividualIndex(itemId);
-		// if (targetClassProbabilityCache[indIx] != null) {
-		// Double[] a = targetClassProbabilityCache[indIx];
-		// for (int i=0; i<a.length; i++) {
-		// if (a[i] != null) {
-		// nc++;
-		// }
-		// }
-		// }
-		// }
-		// System.out.println("NUM_CACHED:"+nc);
-
-		double debugMaxP = 0.0;
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
-			EWAHCompressedBitmap negatedTargetProfileBM = knowledgeBase.getNegatedTypesBM(itemId);
+		double pvector[] = getScores(indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
+			EWAHCompressedBitmap negatedTargetProfileBM = getNegatedTypesBM(itemId);
 
-			int indIx = knowledgeBase.getIndividualIndex(itemId);
-			// we create a new calculator for every target;
-			// TODO: investigate speedup from cacheing this <-- doing this now
+			// node probabilities are shared by all queries against the same
+			// target profile, for as long as they stay in the cache
 			Calculator calc = new Calculator(targetProfileBM, negatedTargetProfileBM);
 
-			if (false) {
-				if (targetClassProbabilityCache[indIx] == null) {
-					LOG.info("Assigning cached probs for " + itemId);
-					targetClassProbabilityCache[indIx] = calc.probCache;
-				} else {
-					calc.probCache = targetClassProbabilityCache[indIx];
-				}
-			}
 			double p = calc.calculateProbability(queryClassIds);
-			if (p > debugMaxP) {
-				debugMaxP = p;
-			}
 
 			if (Double.isNaN(p)) {
 				LOG.error("NaN for tgt " + itemId);
@@ -226,12 +214,16 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 				// LOG.info("Combined Probability = (POS) "+p+" * (NEG) "+np);
 				p = p * np;
 			}
+			// LOG.info("p for "+itemId+" = "+p);
+			return p;
+		});
 
-			pvector[n] = p;
-			indArr[n] = itemId;
+		double debugMaxP = 0.0;
+		for (double p : pvector) {
+			if (p > debugMaxP) {
+				debugMaxP = p;
+			}
 			sumOfProbs += p;
-			n++;
-			// LOG.info("p for "+itemId+" = "+p);
 		}
 		if (sumOfProbs == 0.0) {
 			LOG.error("sumOfProds=0.0");
@@ -241,13 +233,13 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 		}
 
 		int tempNumNans = 0;
-		for (n = 0; n < pvector.length; n++) {
+		for (int n = 0; n < pvector.length; n++) {
 			double p = pvector[n] / sumOfProbs;
 			if (Double.isNaN(p)) {
 				tempNumNans++;
 			}
 
-			String id = indArr[n];
+			String id = indIds.get(n);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(id);
 			mp.add(createMatch(id, label, p));
 		}
@@ -269,13 +261,20 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 	public class Calculator {
 		EWAHCompressedBitmap targetProfileBM;
 		EWAHCompressedBitmap negatedTargetProfileBM;
-		Double[] probCache;
+		// Pr(Qi=on|T) by class index; NaN if not yet calculated.
+		// Depends only on targetProfileBM, so is shared with other
+		// calculators for the same profile
+		double[] probCache;
 
 		public Calculator(EWAHCompressedBitmap targetProfileBM, EWAHCompressedBitmap negatedTargetProfileBM) {
 			super();
 			this.targetProfileBM = targetProfileBM;
 			this.negatedTargetProfileBM = negatedTargetProfileBM;
-			probCache = new Double[getKnowledgeBase().getNumClassNodes()];
+			probCache = targetClassProbabilityCache.get(targetProfileBM, () -> {
+				double[] a = new double[getKnowledgeBase().getNumClassNodes()];
+				Arrays.fill(a, Double.NaN);
+				return a;
+			});
 		}
 
 		/**
@@ -355,14 +354,10 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 		 * @return Pr(Qi=on|T)
 		 */
 		private double calculateProbability(int qcix) {
-			if (probCache[qcix] != null) {
-				LOG.debug("Using cached for " + qcix);
+			if (!Double.isNaN(probCache[qcix])) {
 				return probCache[qcix];
 			}
 
-			BMKnowledgeBase kb = getKnowledgeBase();
-			LOG.debug("Calculating probability for " + qcix + " ie " + kb.getClassId(qcix));
-
 			double probQiGivenT;
 
 			// TODO - optimization: determine efficiency of using get(ix) vs
@@ -374,46 +369,38 @@ public class BayesianNetworkProfileMatcher extends AbstractProfileMatcher implem
 				// Qi is NOT in target profile;
 				// Pr(Qi=on | T) = Pr(QiP1=on, QiP2=on, ..|T)Pr(on on...) +
 				// Pr(QiP1=off, ...)
-				List<Integer> pixs = kb.getDirectSuperClassesBM(qcix).getPositions();
-				double[] parentProbs = new double[pixs.size()];
-				LOG.debug("calculating probabilities for parents");
-				for (int i = 0; i < pixs.size(); i++) {
-					// recursive call; cache prevents repeated calculations
-					parentProbs[i] = calculateProbability(pixs.get(i));
+				int[] pixs = cpi.getParentIndices(qcix);
+				if (pixs == null) {
+					// root; in practice the root is always in the target profile
+					probQiGivenT = 1.0;
 				}
+				else {
+					for (int pix : pixs) {
+						// recursive call; cache prevents repeated calculations;
+						// results are read back from the cache below
+						calculateProbability(pix);
+					}
+
+					// parents state is a bit mask: bit i set if parent i is on
+					int numStateCombinations = cpi.getNumberOfParentStates(qcix);
 
-				int numParents = pixs.size();
-				// assume two states for now: will be extendable to yes, no,
-				// unknown
-				int numStateCombinations = (int) Math.pow(2, numParents);
-
-				// sum of probabilities
-				double sump = 0; // TODO: use logs
-
-				// Pr(Q | Parents) = sum of { Pr(Q | off, off, ..., off), ... }
-				for (int parentsStateComboIx = 0; parentsStateComboIx < numStateCombinations; parentsStateComboIx++) {
-					double cp = cpi.getConditionalProbabilityChildIsOn(qcix, parentsStateComboIx);
-					LOG.debug(" cp=" + cp + " for states=" + parentsStateComboIx);
-					Map<Integer, Character> psm = cpi.getParentsToStateMapping(qcix, parentsStateComboIx);
-					Set<Integer> onPixs = new HashSet<Integer>();
-					for (int pix : psm.keySet()) {
-						if (psm.get(pix) == 't') {
-							onPixs.add(pix);
+					// sum of probabilities
+					double sump = 0; // TODO: use logs
+
+					// Pr(Q | Parents) = sum of { Pr(Q | off, off, ..., off), ... }
+					for (int parentsStateComboIx = 0; parentsStateComboIx < numStateCombinations; parentsStateComboIx++) {
+						double cp = cpi.getConditionalProbabilityChildIsOn(qcix, parentsStateComboIx);
+						double p = 1.0; // probability of ParentSetStateCombo
+						for (int i = 0; i < pixs.length; i++) {
+							double pp = probCache[pixs[i]];
+							p *= (parentsStateComboIx & (1 << i)) != 0 ? pp : 1 - pp;
 						}
+						// final probability is sum of probability of all
+						// combinations
+						sump += cp * p;
 					}
-					LOG.debug("   onPixs=" + onPixs);
-					double p = 1.0; // probability of ParentSetStateCombo
-					for (int i = 0; i < pixs.size(); i++) {
-						int pix = pixs.get(i);
-						p *= onPixs.contains(pix) ? parentProbs[i] : 1 - parentProbs[i];
-					}
-					// final probability is sum of probability of all
-					// combinations
-					sump += cp * p;
+					probQiGivenT = sump;
 				}
-				LOG.debug("Calculated probability for " + qcix + " ie " + kb.getClassId(qcix) + " = " + sump);
-
-				probQiGivenT = sump;
 			}
 			probCache[qcix] = probQiGivenT;
 			return probQiGivenT;
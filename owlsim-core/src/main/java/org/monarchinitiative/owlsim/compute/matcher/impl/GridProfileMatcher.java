@@ -6,14 +6,15 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
-import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
+import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.impl.GridMatchImpl;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -29,7 +30,6 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
 public class GridProfileMatcher extends AbstractSemanticSimilarityProfileMatcher implements ProfileMatcher {
 
 	private Logger LOG = Logger.getLogger(GridProfileMatcher.class);
-	private String[] queryClassArray;
 
 	/**
 	 * @param kb
@@ -47,6 +47,17 @@ public class GridProfileMatcher extends AbstractSemanticSimilarityProfileMatcher
 		return new GridProfileMatcher(kb);
 	}
 
+	/**
+	 * @param kb
+	 * @param micaStore - precomputed MICAs; may be null
+	 * @return new instance
+	 */
+	public static ProfileMatcher create(BMKnowledgeBase kb, MICAStore micaStore) {
+		GridProfileMatcher pm = new GridProfileMatcher(kb);
+		pm.setMICAStore(micaStore);
+		return pm;
+	}
+
 	@Override
 	public String getShortName() {
 		return "grid";
@@ -56,47 +67,63 @@ public class GridProfileMatcher extends AbstractSemanticSimilarityProfileMatcher
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 		Set<String> qClassIds = q.getQueryClassIds();
 		int qsize = qClassIds.size();
-		queryClassArray = qClassIds.toArray(new String[qsize]);
+		String[] queryClassArray = qClassIds.toArray(new String[qsize]);
 		EWAHCompressedBitmap queryProfileBMArr[] = getProfileSetBM(queryClassArray);
 
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
+
+		MostInformativeCommonAncestorCalculator micaCalculator = getMicaCalculator();
+		boolean useMICAStore = micaCalculator.getMICAStore() != null;
+		int[] queryClassIndices = new int[qsize];
+		for (int j = 0; j < qsize; j++) {
+			queryClassIndices[j] = knowledgeBase.getClassIndex(queryClassArray[j]);
+		}
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = useMICAStore ? null : getTypesBM(itemId);
+			int[] targetDirectTypeArr = useMICAStore ? getDirectTypesBM(itemId).toArray() : null;
 			// LOG.debug("TARGET PROFILE for "+itemId+" "+targetProfileBM);
 
 			double score = 0;
-			ClassInformationContentPair[] qmatchArr = new ClassInformationContentPair[qsize];
+			// MICAs are only resolved to CURIEs for matches that are reported
+			int[] qmatchArr = new int[qsize];
 			for (int j = 0; j < qsize; j++) {
-				EWAHCompressedBitmap queryProfileBM = queryProfileBMArr[j];
-				// LOG.info(" QUERY PROFILE for "+queryClassArray[j]+"
-				// "+queryProfileBM);
-				ClassInformationContentPair mica = getMicaCalculator()
-						.getMostInformativeCommonAncestorWithIC(queryProfileBM, targetProfileBM);
+				int a;
+				if (useMICAStore) {
+					a = micaCalculator.getMostInformativeCommonAncestorIndex(queryClassIndices[j],
+							targetDirectTypeArr);
+				}
+				else {
+					a = micaCalculator.getMostInformativeCommonAncestorIndex(queryProfileBMArr[j], targetProfileBM);
+				}
 
 				// Scores are summed.
 				// Equivalent to naive assumption of independence
 				// p1 * p2 * ... p_n
-				score += mica.ic;
-				qmatchArr[j] = mica;
+				if (a >= 0)
+					score += micaCalculator.getInformationContent(a);
+				qmatchArr[j] = a;
 
 			}
 			// penalize targets with multiple annotations
 			// TODO - allow weighting
 			// Note directTypes should be pre-filtered for redundancy, if
 			// calculated using an owl reasoner
-			score /= Math.sqrt(knowledgeBase.getDirectTypesBM(itemId).cardinality());
+			score /= Math.sqrt(getDirectTypesBM(itemId).cardinality());
 
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			Match m = GridMatchImpl.create(itemId, label, score, qmatchArr);
-			mp.add(m);
-		}
+			return GridMatchImpl.create(itemId, label, score, qmatchArr, micaCalculator);
+		});
 		mp.sortMatches();
+		// resolve MICAs of retained matches, so they serialize directly
+		for (Match m : mp.getMatches()) {
+			((GridMatchImpl) m).resolveQueryMatchArray();
+		}
 		return mp;
 	}
 
@@ -5,12 +5,12 @@ import java.util.List;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -46,29 +46,37 @@ public class JaccardSimilarityProfileMatcher extends AbstractProfileMatcher impl
 		return "jaccard";
 	}
 
+	/**
+	 * |q &cap; t| / |q &cup; t| is symmetric in q and t
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
+
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 * @throws UnknownFilterException
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException, IncoherentStateException {
 
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 
 		// TODO
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
 
 			// LOG.info("TARGET PROFILE for "+itemId+" "+targetProfileBM);
 			int numInQueryAndInTarget = queryProfileBM.andCardinality(targetProfileBM);
 			int numInQueryOrInTarget = queryProfileBM.orCardinality(targetProfileBM);
 			double j = numInQueryAndInTarget / (double) numInQueryOrInTarget;
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			mp.add(createMatch(itemId, label, j));
-		}
+			return createMatch(itemId, label, j);
+		});
 		mp.sortMatches();
 		return mp;
 	}
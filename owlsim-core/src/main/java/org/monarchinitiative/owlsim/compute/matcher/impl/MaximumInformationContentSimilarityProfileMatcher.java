@@ -5,12 +5,11 @@ import java.util.List;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
-import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -48,28 +47,38 @@ public class MaximumInformationContentSimilarityProfileMatcher extends AbstractS
 		return "max-information";
 	}
 
+	/**
+	 * the MICA of q and t is the MICA of t and q
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
+
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 		// LOG.info("QUERY PROFILE for "+q+" "+queryProfileBM.getPositions());
 
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
 
 			// LOG.info("TARGET PROFILE for "+itemId+" "+targetProfileBM);
-			ClassInformationContentPair mica = getMicaCalculator()
-					.getMostInformativeCommonAncestorWithIC(queryProfileBM, targetProfileBM);
-			// LOG.info("mica="+mica);
+			double ic = getMicaCalculator()
+					.getInformationContentOfMostInformativeCommonAncestor(queryProfileBM, targetProfileBM);
+			if (Double.isNaN(ic))
+				ic = 0;
+			// LOG.info("mica IC="+ic);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			mp.add(createMatch(itemId, label, mica.ic));
-		}
+			return createMatch(itemId, label, ic);
+		});
 		mp.sortMatches();
 		return mp;
 	}
@@ -7,12 +7,12 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.ewah.EWAHUtils;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -30,6 +30,8 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
 
     private Logger LOG = Logger.getLogger(NaiveBayesFixedWeightThreeStateProfileMatcher.class);
 
+    private volatile EWAHCompressedBitmap allClassesBM;
+
 
     @Inject
     private NaiveBayesFixedWeightThreeStateProfileMatcher(BMKnowledgeBase kb) {
@@ -49,22 +51,16 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
         return "naive-bayes-fixed-weight-three-state";
     }
 
-    private EWAHCompressedBitmap getQueryBlanketBM(ProfileQuery q) {
-        EWAHCompressedBitmap onQueryNodesBM = getProfileBM(q);
-        Set<Integer> nodesWithOnParents = new HashSet<Integer>();
-
-        // there may be more efficient ways of doing this, but this is
-        // called once at the start of the search...
-        for (String cid : knowledgeBase.getClassIdsInSignature()) {
-            int cix = knowledgeBase.getClassIndex(cid);
-            EWAHCompressedBitmap supsBM = knowledgeBase.getDirectSuperClassesBM(cid);
-            int nParents = supsBM.cardinality();
-            if (supsBM.andCardinality(onQueryNodesBM) == nParents) {
-                nodesWithOnParents.add(cix);
+    // all classes in the kb; used to complement query node sets
+    private EWAHCompressedBitmap getAllClassesBM() {
+        if (allClassesBM == null) {
+            EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+            for (int cix = 0; cix < knowledgeBase.getNumClassNodes(); cix++) {
+                bm.set(cix);
             }
+            allClassesBM = bm;
         }
-
-        return onQueryNodesBM.or(EWAHUtils.convertIndexSetToBitmap(nodesWithOnParents));
+        return allClassesBM;
     }
 
     // any negated query node that has at least one negated parent;
@@ -90,7 +86,7 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
      * @param q
      * @return match profile containing probabilities of each individual
      */
-    public MatchSet findMatchProfileImpl(ProfileQuery q) {
+    public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 
         //double fpr = getFalsePositiveRate();
@@ -106,18 +102,6 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
         // nomenclature: QUERY {unk,true,false} PARENTS {unk,true,false}+
         // multiple values taken as union
 
-        // uncommitted nodes with a true parent (trans)
-        Set<Integer> nodesQuPt = new HashSet<Integer>();
-
-        // uncommitted nodes with an uncommitted parent (no trans)
-        Set<Integer> nodesQuPu = new HashSet<Integer>();
-
-        // off nodes with on or uncommitted parent (trans)
-        Set<Integer> nodesQfPtu = new HashSet<Integer>();
-
-        // off nodes with uncommitted parent
-        Set<Integer> nodesQfPu = new HashSet<Integer>();
-
         // calculate transitions for all query nodes
         /*
 		   if Q=t, then ALL parents MUST be t  (NO transitions)
@@ -130,58 +114,35 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
    			  ALL parents ARE t : TRANSITION T->F
    		 	  ELSE : TRANSITION U->F
          */
-        for (String cid : knowledgeBase.getClassIdsInSignature()) {
-            int cix = knowledgeBase.getClassIndex(cid);
-            if (nodesQtBM.getPositions().contains(cix)) {
-                // state T, transition must be T->T
-                continue;
-            }
-            EWAHCompressedBitmap parentsBM = knowledgeBase.getDirectSuperClassesBM(cix);
-            if (nodesQfBM.getPositions().contains(cix)) {
-                // state = F
-                if (parentsBM.andCardinality(nodesQfBM) == 0) {
-                    // transition T,U -> F
-                    nodesQfPtu.add(cix);
-                }
-                else {
-                    // F->F
-                }
-            }
-            else {
-                // state = U
-                if (parentsBM.andCardinality(nodesQtBM) < parentsBM.cardinality()) {
-                    // transition T -> U  ( F->U is impossible )
-                    nodesQuPt.add(cix);
-                }
-                else {
-                    // U->U
-                    nodesQuPu.add(cix);
-                }
-            }
-
-        }
-        EWAHCompressedBitmap nodesQuPtBM = EWAHUtils.convertIndexSetToBitmap(nodesQuPt);
-        EWAHCompressedBitmap nodesQuPuBM = EWAHUtils.convertIndexSetToBitmap(nodesQuPu);
-        EWAHCompressedBitmap nodesQfPtBM = EWAHUtils.convertIndexSetToBitmap(nodesQfPtu);
-        EWAHCompressedBitmap nodesQfPuBM = EWAHUtils.convertIndexSetToBitmap(nodesQfPu);
-
-
-        // include subclasses
+        // these are derived from the blanket of the query and the negated query nodes,
+        // rather than by testing the parents of every class in the kb
 
+        // nodes with all parents true (includes nodesQtBM)
+        EWAHCompressedBitmap queryBlanketBM = getQueryBlanketBM(nodesQtBM);
 
+        // any negated query node that has at least one negated parent;
+        // these are counted as no-transition
         EWAHCompressedBitmap queryNegatedNoTransitionBM =
                 getQueryNegatedNoTransition(nodesQfBM);
         EWAHCompressedBitmap queryNegatedWithTransitionBM =
                 nodesQfBM.andNot(queryNegatedNoTransitionBM);
 
-        MatchSet mp = MatchSetImpl.create(q);
+        // uncommitted nodes with a parent that is not true
+        EWAHCompressedBitmap nodesQuPtBM = getAllClassesBM().andNot(queryBlanketBM.or(nodesQfBM));
+
+        // uncommitted nodes with all parents true
+        EWAHCompressedBitmap nodesQuPuBM = queryBlanketBM.andNot(nodesQtBM).andNot(nodesQfBM);
+
+        // off nodes with no off parent (trans)
+        EWAHCompressedBitmap nodesQfPtBM = queryNegatedWithTransitionBM.andNot(nodesQtBM);
+
+        // off nodes with uncommitted parent
+        EWAHCompressedBitmap nodesQfPuBM = new EWAHCompressedBitmap();
+
+        MatchSet mp = createMatchSet(q);
 
         List<String> indIds = getFilteredIndividualIds(q.getFilter());
 
-        double pvector[] = new double[indIds.size()];
-        String indArr[] = new String[indIds.size()];
-        int n=0;
-        
         // pr(Q=f | H=t)
         double prFalseNegative = 0.000001;
         
@@ -203,12 +164,12 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
 
         //double prWeakTrueMiss = prTrueMiss * 2;  // failure to make a call when hidden is non-obvious false
         double prWeakTrueMiss = 0.85;
-        for (String itemId : indIds) {
-            EWAHCompressedBitmap nodesHtBM = knowledgeBase.getTypesBM(itemId);
+        double pvector[] = getScores(indIds, itemId -> {
+            EWAHCompressedBitmap nodesHtBM = getTypesBM(itemId);
 
-            //EWAHCompressedBitmap nodesHfBM = knowledgeBase.getNegatedTypesBM(itemId);
+            //EWAHCompressedBitmap nodesHfBM = getNegatedTypesBM(itemId);
             // TODO: consider propagating down
-            EWAHCompressedBitmap nodesHfBM = knowledgeBase.getDirectNegatedTypesBM(itemId);
+            EWAHCompressedBitmap nodesHfBM = getDirectNegatedTypesBM(itemId);
 
             // any node which has an off query parent is discounted
             //EWAHCompressedBitmap maskedTargetProfileBM = nodesHtBM.and(queryBlanketProfileBM);
@@ -393,16 +354,15 @@ public class NaiveBayesFixedWeightThreeStateProfileMatcher extends AbstractProfi
             }
 
 
-            double p = Math.exp(logp);
-            pvector[n] = p;
-            indArr[n] = itemId;
+            //LOG.info("logp for "+itemId+" = "+logp);
+            return Math.exp(logp);
+        });
+        for (double p : pvector) {
             sumOfProbs += p;
-            n++;
-            //LOG.info("logp for "+itemId+" = "+logp+"   sumOfLogProbs="+sumOfProbs);
         }
-        for (n = 0; n<pvector.length; n++) {
+        for (int n = 0; n<pvector.length; n++) {
             double p = pvector[n] / sumOfProbs;
-            String id = indArr[n];
+            String id = indIds.get(n);
             String label = knowledgeBase.getLabelMapper().getArbitraryLabel(id);
             mp.add(createMatch(id, label, p));
         }
@@ -1,22 +1,22 @@
 package org.monarchinitiative.owlsim.compute.matcher.impl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
 
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
-import org.monarchinitiative.owlsim.kb.ewah.EWAHUtils;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
 /**
@@ -29,9 +29,10 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
  * Where p(Ci=ci) takes on one of 4 possibilities, depending on state
  * of query and state of target, corresponding to probability of misclassification.
  * 
- * 
- * 
- * 
+ * The false positive and false negative rates are unknown, so the likelihood
+ * is summed over a fixed grid of (fnr, fpr) cells. This sum is done in log space,
+ * see {@link #getLogLikelihood(int, int, int, int)}, and targets are compared by
+ * log likelihood, so that large profiles do not underflow to 0
  * 
  * @author cjm
  *
@@ -52,21 +53,75 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
 	private double defaultFalseNegativeRate = 0.10; // beta
 	
 	/**
-	 * A tuple of (weight, Classes)
+	 * default maximum number of interpretations (summed over all individuals) to cache
+	 */
+	public static final long DEFAULT_MAX_CACHED_INTERPRETATIONS = 100000;
+
+	// remaining interpretations are skipped once they can change a target's likelihood
+	// by at most this fraction
+	private double interpretationEpsilon = 0.0;
+
+	private long maxCachedInterpretations = DEFAULT_MAX_CACHED_INTERPRETATIONS;
+
+	/**
+	 * The 2^k interpretations of the k least frequent types of an individual,
+	 * where interpretation n includes the i-th least frequent type iff bit i of n is set
 	 *
 	 */
-	private class WeightedTypesBM {
-	    // bitmap representing a set of classes assumed to be on
-	    final EWAHCompressedBitmap typesBM;
-	    
-	    // probability of the state in which all such classes are on
-	    final double weight;
-	    
-        public WeightedTypesBM(EWAHCompressedBitmap typesBM, Double weight) {
-            super();
-            this.typesBM = typesBM;
-            this.weight = weight;
-        }
+	private class Interpretations {
+	    // superclasses of the types that are on in every interpretation
+	    final EWAHCompressedBitmap baseTypesBM;
+
+	    // superclasses of each of the k least frequent types
+	    final EWAHCompressedBitmap[] optionalTypesBMs;
+
+	    // probability of each interpretation; sums to 1
+	    final double[] weights;
+
+	    // log of each weight
+	    final double[] logWeights;
+
+	    // interpretation indices, most probable first
+	    final int[] interpretationsByWeight;
+
+	    // inferred types of each interpretation; filled on demand
+	    final EWAHCompressedBitmap[] typesBMs;
+
+	    public Interpretations(EWAHCompressedBitmap baseTypesBM, EWAHCompressedBitmap[] optionalTypesBMs,
+	            double[] weights) {
+	        super();
+	        this.baseTypesBM = baseTypesBM;
+	        this.optionalTypesBMs = optionalTypesBMs;
+	        this.weights = weights;
+	        logWeights = new double[weights.length];
+	        for (int n = 0; n < weights.length; n++) {
+	            logWeights[n] = Math.log(weights[n]);
+	        }
+	        interpretationsByWeight = IntStream.range(0, weights.length).boxed().
+	                sorted((i, j) -> Double.compare(weights[j], weights[i])).
+	                mapToInt(i -> i).toArray();
+	        typesBMs = new EWAHCompressedBitmap[weights.length];
+	    }
+
+	    /**
+	     * Derived from the interpretation without the highest type in n, so
+	     * that each bitmap costs a single OR
+	     * 
+	     * @param n
+	     * @return inferred types of interpretation n
+	     */
+	    synchronized EWAHCompressedBitmap getTypesBM(int n) {
+	        if (typesBMs[n] == null) {
+	            if (n == 0) {
+	                typesBMs[n] = baseTypesBM;
+	            }
+	            else {
+	                int i = 31 - Integer.numberOfLeadingZeros(n);
+	                typesBMs[n] = getTypesBM(n ^ (1 << i)).or(optionalTypesBMs[i]);
+	            }
+	        }
+	        return typesBMs[n];
+	    }
 	}
 
 	// TODO - replace when tetsing is over
@@ -74,13 +129,40 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
 	//private double[] defaultFalseNegativeRateArr = new double[] {0.10};
 	private double[] defaultFalsePositiveRateArr =  new double[]{1e-10,0.0005,0.001,0.005,0.01};
 	private double[] defaultFalseNegativeRateArr = new double[] {1e-10,0.005,0.01,0.05,0.1,0.2,0.4,0.8,0.9};
+
+	// log Pr of a single node being in each (query, target) state, by (fnr, fpr) grid cell.
+	// log Pr(n nodes) = n * log Pr(1 node), so these are all that is needed per target
+	private final double[] logPrQ1T1ByCell;
+	private final double[] logPrQ0T1ByCell;
+	private final double[] logPrQ1T0ByCell;
+	private final double[] logPrQ0T0ByCell;
+
+	// grid cells whose log likelihood is this much below that of the most likely cell
+	// are not summed; each contributes less than e^-40 (4e-18) of the total
+	private static final double LOG_SUM_CUTOFF = 40;
 	
-	// for maps a pair of (Individual, InterpretationIndex) to a set of inferred (self, direct, indirect) types
-	private Map<Integer,Map<Integer,WeightedTypesBM>> individualToInterpretationToTypesBM = new HashMap<>();
+	// maps an individual index to its interpretations, each with a set of inferred (self, direct, indirect) types
+	// (targets may be scored concurrently)
+	private Cache<Integer,Interpretations> individualToInterpretations = createInterpretationCache();
 
     @Inject
 	protected NaiveBayesFixedWeightTwoStateProfileMatcher(BMKnowledgeBase kb) {
 		super(kb);
+		int numCells = defaultFalseNegativeRateArr.length * defaultFalsePositiveRateArr.length;
+		logPrQ1T1ByCell = new double[numCells];
+		logPrQ0T1ByCell = new double[numCells];
+		logPrQ1T0ByCell = new double[numCells];
+		logPrQ0T0ByCell = new double[numCells];
+		int cell = 0;
+		for (double fnr : defaultFalseNegativeRateArr) {
+			for (double fpr : defaultFalsePositiveRateArr) {
+				logPrQ1T1ByCell[cell] = Math.log(1-fnr);
+				logPrQ0T1ByCell[cell] = Math.log(fnr);
+				logPrQ1T0ByCell[cell] = Math.log(fpr);
+				logPrQ0T0ByCell[cell] = Math.log(1-fpr);
+				cell++;
+			}
+		}
 	}
 
 	/**
@@ -118,49 +200,62 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
      * @param kLeastFrequent the kLeastFrequent to set
      */
     public void setkLeastFrequent(int kLeastFrequent) {
-        // reset cache
-        individualToInterpretationToTypesBM = new HashMap<>();
         this.kLeastFrequent = kLeastFrequent;
+        // reset cache
+        individualToInterpretations = createInterpretationCache();
     }
 
     /**
-	 * Extends the query profile - for every node c, all the direct parents of c are in
-	 * the query profile, then add c to the query profile.
-	 * 
-	 * We use this to reduce the size of the network when testing for probabilities
-	 * 
-	 * TODO: fully evaluate the consequences of using this method
-	 * 
-	 * @param q
-	 * @return
-	 */
-	private EWAHCompressedBitmap getQueryBlanketBM(ProfileQuery q) {
-		EWAHCompressedBitmap onQueryNodesBM = getProfileBM(q);
-		Set<Integer> nodesWithOnParents = new HashSet<Integer>();
-
-		// there may be more efficient ways of doing this, but this is
-		// called once at the start of the search...
-		for (String cid : knowledgeBase.getClassIdsInSignature()) {
-			int cix = knowledgeBase.getClassIndex(cid);
-			EWAHCompressedBitmap supsBM = knowledgeBase.getDirectSuperClassesBM(cid);
-			int nParents = supsBM.cardinality();
-			if (supsBM.andCardinality(onQueryNodesBM) == nParents) {
-				nodesWithOnParents.add(cix);
-			}
-		}
+     * @return the interpretationEpsilon
+     */
+    public double getInterpretationEpsilon() {
+        return interpretationEpsilon;
+    }
 
-		return onQueryNodesBM.or(EWAHUtils.convertIndexSetToBitmap(nodesWithOnParents));
+    /**
+     * In frequency-aware mode, interpretations of a target are visited most probable first.
+     * The remaining interpretations are skipped once their prior probability, times an upper
+     * bound on the likelihood of any interpretation of the target, is at most epsilon times the
+     * likelihood summed so far. Each target's likelihood, and so its probability, then changes
+     * by a factor of at most 1+epsilon.
+     * 
+     * The default of 0 visits every interpretation
+     * 
+     * @param interpretationEpsilon the interpretationEpsilon to set
+     */
+    public void setInterpretationEpsilon(double interpretationEpsilon) {
+        this.interpretationEpsilon = interpretationEpsilon;
+    }
+
+    /**
+     * Bounds memory used in frequency-aware mode; the least recently used individuals are evicted first
+     * 
+     * @param maxCachedInterpretations - maximum number of interpretations, summed over all individuals
+     */
+    public void setMaxCachedInterpretations(long maxCachedInterpretations) {
+        this.maxCachedInterpretations = maxCachedInterpretations;
+        individualToInterpretations = createInterpretationCache();
+    }
+
+    private Cache<Integer,Interpretations> createInterpretationCache() {
+        return CacheBuilder.newBuilder().
+                maximumWeight(maxCachedInterpretations).
+                weigher((Integer iix, Interpretations interps) -> interps.weights.length).
+                build();
+    }
+
+	private EWAHCompressedBitmap getQueryBlanketBM(ProfileQuery q) {
+		return getQueryBlanketBM(getProfileBM(q));
 	}
 
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 		//double fpr = getFalsePositiveRate();
 		//double fnr = getFalseNegativeRate();
-		double sumOfProbs = 0.0;
 
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 		EWAHCompressedBitmap queryBlanketProfileBM = getQueryBlanketBM(q);
@@ -177,100 +272,188 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
 			numClassesConsidered = knowledgeBase.getClassIdsInSignature().size();
 		}
 
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
 
-		double pvector[] = new double[indIds.size()];
-		String indArr[] = new String[indIds.size()];
-		int n=0;
-		
-		
-		for (String itemId : indIds) {
+		// log likelihood of each target
+		double logPrs[] = getScores(indIds, itemId -> {
 		    
-		    int effectiveK = kLeastFrequent;
-	        int twoToTheK = (int) Math.pow(2, kLeastFrequent);
-	        int numWeightedTypes = knowledgeBase.getDirectWeightedTypes(itemId).size();
-	        if (numWeightedTypes < kLeastFrequent) {
-	            twoToTheK = (int) Math.pow(2, numWeightedTypes);
-	            effectiveK = numWeightedTypes;
-	        }
-		    
-		    double cumulativePr = 0;
-		    for (int comboIndex = 0; comboIndex < twoToTheK; comboIndex++) {
-		        
-		        Double comboPr = null;
-		        EWAHCompressedBitmap targetProfileBM;
-		        if (kLeastFrequent == 0) {
-		            targetProfileBM = knowledgeBase.getTypesBM(itemId);
+		    // pairwise targets carry no frequency annotations
+		    if (kLeastFrequent == 0 || isPairwiseTarget(itemId)) {
+		        double logPr = getLogLikelihood(getTypesBM(itemId), 
+		                queryProfileBM, queryBlanketProfileBM, numClassesConsidered);
+		        LOG.debug("log p for "+itemId+" = "+logPr);
+		        return logPr;
+		    }
+
+		    // log SUM[interpretation] { weight * likelihood }, accumulated as
+		    // maxLogPr + log(sum), where sum is relative to exp(maxLogPr)
+		    Interpretations interps = getInterpretations(itemId);
+		    double logMaxLikelihood = interpretationEpsilon > 0 ? getMaxLogLikelihood(interps,
+		            queryProfileBM, queryBlanketProfileBM, numClassesConsidered) : 0;
+		    double maxLogPr = Double.NEGATIVE_INFINITY;
+		    double sum = 0;
+		    double remainingWeight = 1.0;
+		    for (int comboIndex : interps.interpretationsByWeight) {
+		        // remainingWeight * maxLikelihood <= epsilon * cumulativePr
+		        if (interpretationEpsilon > 0 && sum > 0 && (remainingWeight <= 0 ||
+		                Math.log(remainingWeight) + logMaxLikelihood <= 
+		                Math.log(interpretationEpsilon) + maxLogPr + Math.log(sum))) {
+		            break;
 		        }
-		        else {
-		            WeightedTypesBM wtbm = getTypesFrequencyAware(itemId, comboIndex, effectiveK);
-		            comboPr = wtbm.weight;
-		            targetProfileBM = wtbm.typesBM;
+		        double comboPr = interps.weights[comboIndex];
+		        remainingWeight -= comboPr;
+		        if (comboPr == 0) {
+		            continue;
 		        }
-		    
-		        // any node which has an off query parent is discounted
-		        targetProfileBM = targetProfileBM.and(queryBlanketProfileBM);
-		        LOG.debug("TARGET PROFILE for "+itemId+" "+targetProfileBM);
-
-
-		        // two state model.
-		        // mapping to Bauer et al: these correspond to mxy1, x=Q, y=H/T
-		        int numInQueryAndInTarget = queryProfileBM.andCardinality(targetProfileBM);
-		        int numInQueryAndNOTInTarget = queryProfileBM.andNotCardinality(targetProfileBM);
-		        int numNOTInQueryAndInTarget = targetProfileBM.andNotCardinality(queryProfileBM);
-		        int numNOTInQueryAndNOTInTarget = 
-		                numClassesConsidered - (numInQueryAndInTarget + numInQueryAndNOTInTarget + numNOTInQueryAndInTarget);
-
-		        double p = 0.0;
-		        // TODO: optimize this
-		        // integrate over a Dirichlet prior for alpha & beta, rather than gridsearch
-		        // this can be done closed-form
-		        for (double fnr : defaultFalseNegativeRateArr) {
-		            for (double fpr : defaultFalsePositiveRateArr) {
-
-		                double pQ1T1 = Math.pow(1-fnr,  numInQueryAndInTarget);
-		                double pQ0T1 = Math.pow(fnr,  numNOTInQueryAndInTarget);
-		                double pQ1T0 = Math.pow(fpr,  numInQueryAndNOTInTarget);
-		                double pQ0T0 = Math.pow(1-fpr,  numNOTInQueryAndNOTInTarget);
-
-
-
-		                //LOG.debug("pQ1T1 = "+(1-fnr)+" ^ "+ numInQueryAndInTarget+" = "+pQ1T1);
-		                //LOG.debug("pQ0T1 = "+(fnr)+" ^ "+ numNOTInQueryAndInTarget+" = "+pQ0T1);
-		                //LOG.debug("pQ1T0 = "+(fpr)+" ^ "+ numInQueryAndNOTInTarget+" = "+pQ1T0);
-		                //LOG.debug("pQ0T0 = "+(1-fpr)+" ^ "+ numNOTInQueryAndNOTInTarget+" = "+pQ0T0);
-		                //TODO: optimization. We can precalculate the logs for different integers
-		                p += 
-		                        Math.exp(Math.log(pQ1T1) + Math.log(pQ0T1) + Math.log(pQ1T0) + Math.log(pQ0T0));
-
-		            }
+		        double logPr = interps.logWeights[comboIndex] + getLogLikelihood(interps.getTypesBM(comboIndex), 
+		                queryProfileBM, queryBlanketProfileBM, numClassesConsidered);
+		        if (logPr > maxLogPr) {
+		            sum = sum * Math.exp(maxLogPr - logPr) + 1;
+		            maxLogPr = logPr;
 		        }
-		        
-		        if (comboPr != null) {
-		            p *= comboPr;
+		        else {
+		            sum += Math.exp(logPr - maxLogPr);
 		        }
-		        cumulativePr += p;
 		    }
-		    pvector[n] = cumulativePr;
-		    indArr[n] = itemId;
-		    
-			sumOfProbs += cumulativePr;
-			n++;
-			LOG.debug("p for "+itemId+" = "+cumulativePr);
-		    
+		    double cumulativeLogPr = maxLogPr + Math.log(sum);
+			LOG.debug("log p for "+itemId+" = "+cumulativeLogPr);
+			return cumulativeLogPr;
+		});
+
+		// normalize relative to the most likely target, so that the largest term is 1
+		double maxLogPr = Double.NEGATIVE_INFINITY;
+		for (double logPr : logPrs) {
+			if (logPr > maxLogPr) {
+				maxLogPr = logPr;
+			}
 		}
-		for (n = 0; n<pvector.length; n++) {
-			double p = pvector[n] / sumOfProbs;
-			String id = indArr[n];
+		double pvector[] = new double[logPrs.length];
+		double sumOfProbs = 0.0;
+		if (maxLogPr > Double.NEGATIVE_INFINITY) {
+			for (int n = 0; n<logPrs.length; n++) {
+				pvector[n] = Math.exp(logPrs[n] - maxLogPr);
+				sumOfProbs += pvector[n];
+			}
+		}
+		for (int n = 0; n<pvector.length; n++) {
+			// no target is possible if every likelihood is 0
+			double p = sumOfProbs > 0 ? pvector[n] / sumOfProbs : 0;
+			String id = indIds.get(n);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(id);
 			mp.add(createMatch(id, label, p));
 		}
 		mp.sortMatches();
 		return mp;
 	}
-	
+
+	/**
+	 * @param targetProfileBM - inferred types of target
+	 * @param queryProfileBM
+	 * @param queryBlanketProfileBM
+	 * @param numClassesConsidered
+	 * @return log likelihood of query given target, summed over the (fnr, fpr) grid
+	 */
+	private double getLogLikelihood(EWAHCompressedBitmap targetProfileBM, EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap queryBlanketProfileBM, int numClassesConsidered) {
+		// any node which has an off query parent is discounted
+		targetProfileBM = targetProfileBM.and(queryBlanketProfileBM);
+		LOG.debug("TARGET PROFILE "+targetProfileBM);
+
+		// two state model.
+		// mapping to Bauer et al: these correspond to mxy1, x=Q, y=H/T
+		int numInQueryAndInTarget = queryProfileBM.andCardinality(targetProfileBM);
+		int numInQueryAndNOTInTarget = queryProfileBM.andNotCardinality(targetProfileBM);
+		int numNOTInQueryAndInTarget = targetProfileBM.andNotCardinality(queryProfileBM);
+		int numNOTInQueryAndNOTInTarget = 
+				numClassesConsidered - (numInQueryAndInTarget + numInQueryAndNOTInTarget + numNOTInQueryAndInTarget);
+
+		// TODO: integrate over a Dirichlet prior for alpha & beta, rather than gridsearch
+		// this can be done closed-form
+		return getLogLikelihood(numInQueryAndInTarget, numNOTInQueryAndInTarget,
+				numInQueryAndNOTInTarget, numNOTInQueryAndNOTInTarget);
+	}
+
+	/**
+	 * Upper bound on the log likelihood of any interpretation of a target. Every
+	 * interpretation has at least the types of interpretation 0 and at most those
+	 * of the interpretation with all optional types. The log likelihood of each cell
+	 * is linear in the counts, so is largest at one of these extremes.
+	 */
+	private double getMaxLogLikelihood(Interpretations interps, EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap queryBlanketProfileBM, int numClassesConsidered) {
+		EWAHCompressedBitmap minBM = interps.getTypesBM(0).and(queryBlanketProfileBM);
+		EWAHCompressedBitmap maxBM = interps.getTypesBM(interps.weights.length - 1).and(queryBlanketProfileBM);
+		int nQ1 = queryProfileBM.cardinality();
+		int nQ0 = numClassesConsidered - nQ1;
+		int[] nQ1T1s = { queryProfileBM.andCardinality(minBM), queryProfileBM.andCardinality(maxBM) };
+		int[] nQ0T1s = { minBM.andNotCardinality(queryProfileBM), maxBM.andNotCardinality(queryProfileBM) };
+		int numCells = logPrQ1T1ByCell.length;
+		double[] logPrByCell = new double[numCells];
+		double maxLogPr = Double.NEGATIVE_INFINITY;
+		for (int cell = 0; cell < numCells; cell++) {
+			double logPr = Double.NEGATIVE_INFINITY;
+			for (int nQ1T1 : nQ1T1s) {
+				for (int nQ0T1 : nQ0T1s) {
+					logPr = Math.max(logPr, getLogLikelihood(cell, nQ1T1, nQ0T1, nQ1 - nQ1T1, nQ0 - nQ0T1));
+				}
+			}
+			logPrByCell[cell] = logPr;
+			maxLogPr = Math.max(maxLogPr, logPr);
+		}
+		double sum = 0.0;
+		for (int cell = 0; cell < numCells; cell++) {
+			sum += Math.exp(logPrByCell[cell] - maxLogPr);
+		}
+		return maxLogPr + Math.log(sum);
+	}
+
+	/**
+	 * log of the likelihood summed over all (fnr, fpr) grid cells, i.e.
+	 * 
+	 * log SUM[cell] { (1-fnr)^nQ1T1 * fnr^nQ0T1 * fpr^nQ1T0 * (1-fpr)^nQ0T0 }
+	 * 
+	 * The log of each term is a weighted sum of precomputed per-cell logs. Terms
+	 * are combined using log-sum-exp relative to the largest term, so this does not
+	 * underflow for large profiles; terms more than e^40 times smaller than the largest
+	 * are skipped. Relative to summing the terms directly, results agree to within
+	 * 1e-12 wherever the direct sum is not itself subject to underflow.
+	 * 
+	 * This costs one exp per summed cell plus one log.
+	 * 
+	 * @param nQ1T1 - number of nodes on in query and target
+	 * @param nQ0T1 - number of nodes off in query, on in target
+	 * @param nQ1T0 - number of nodes on in query, off in target
+	 * @param nQ0T0 - number of nodes off in query and target
+	 * @return log likelihood
+	 */
+	public double getLogLikelihood(int nQ1T1, int nQ0T1, int nQ1T0, int nQ0T0) {
+		int numCells = logPrQ1T1ByCell.length;
+		// the per-cell logs are cheap to recompute, so they are computed
+		// twice rather than held in an array allocated per call
+		double maxLogPr = Double.NEGATIVE_INFINITY;
+		for (int cell = 0; cell < numCells; cell++) {
+			double logPr = getLogLikelihood(cell, nQ1T1, nQ0T1, nQ1T0, nQ0T0);
+			if (logPr > maxLogPr) {
+				maxLogPr = logPr;
+			}
+		}
+		double sum = 0.0;
+		for (int cell = 0; cell < numCells; cell++) {
+			double d = getLogLikelihood(cell, nQ1T1, nQ0T1, nQ1T0, nQ0T0) - maxLogPr;
+			if (d > -LOG_SUM_CUTOFF) {
+				sum += Math.exp(d);
+			}
+		}
+		return maxLogPr + Math.log(sum);
+	}
+
+	private double getLogLikelihood(int cell, int nQ1T1, int nQ0T1, int nQ1T0, int nQ0T0) {
+		return nQ1T1 * logPrQ1T1ByCell[cell] + nQ0T1 * logPrQ0T1ByCell[cell] +
+				nQ1T0 * logPrQ1T0ByCell[cell] + nQ0T0 * logPrQ0T0ByCell[cell];
+	}
+
 	// for a value of n such that: 0 <= n < 2^k
 	// where n represents a particular combination of k boolean values, t1, ..., tk,
 	// each representing the truth value for whether the class t_i  is indexed for a
@@ -279,17 +462,16 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
 	// t1..tk will be the k least frequent annotations for this individual
 	//
 	// uses caching
-	private WeightedTypesBM getTypesFrequencyAware(String itemId, int n, int effectiveK) {
+	private Interpretations getInterpretations(String itemId) {
 	    Integer iix = knowledgeBase.getIndividualIndex(itemId);
-	    if (!individualToInterpretationToTypesBM.containsKey(iix)) {
-	        individualToInterpretationToTypesBM.put(iix, new HashMap<>());
+	    try {
+	        return individualToInterpretations.get(iix, () -> createInterpretations(itemId));
+	    } catch (ExecutionException e) {
+	        throw new RuntimeException(e.getCause());
 	    }
-	    Map<Integer, WeightedTypesBM> m = individualToInterpretationToTypesBM.get(iix);
- 	    if (m.containsKey(n)) {
-	        // use cached value
-	        return m.get(n);
-	    }
-	    
+	}
+
+	private Interpretations createInterpretations(String itemId) {
 	    // default direct type map.
 	    // note that associations with frequency annotations are includes here alongside
 	    // normal associations
@@ -302,28 +484,26 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcher extends AbstractProfile
         // sort with least frequent first
 	    List<Integer> sortedTypeIndices = new ArrayList<>(wmap.keySet());
 	    sortedTypeIndices.sort( (Integer i, Integer j) -> wmap.get(i) - wmap.get(j));
+	    int effectiveK = Math.min(kLeastFrequent, sortedTypeIndices.size());
 	    
+	    int numInterpretations = 1 << effectiveK;
+	    double[] weights = new double[numInterpretations];
+	    weights[0] = 1.0;
+	    EWAHCompressedBitmap[] optionalTypesBMs = new EWAHCompressedBitmap[effectiveK];
 	    EWAHCompressedBitmap mask = new EWAHCompressedBitmap();
-	    double pr = 1.0;
 	    for (int i=0; i< effectiveK; i++) {
 	        Integer iClassIx = sortedTypeIndices.get(i);
-	        Double w = wmap.get(iClassIx) / 100.0;
-	        //LOG.info("Class "+iClassIx +" which is "+i+"-least frequent has weight "+w+" for individual "+itemId+" in combo "+n);
-	        if ( (n >> i) % 2 == 0) {
-	            mask.set(iClassIx);            
-	            pr *= 1-w;
-	        }
-	        else {
-	            pr *= w;
+	        double w = wmap.get(iClassIx) / 100.0;
+	        mask.set(iClassIx);
+	        optionalTypesBMs[i] = knowledgeBase.getSuperClassesBM(iClassIx);
+	        // interpretations 0..2^i-1 are those without t_i; 2^i..2^(i+1)-1 add t_i
+	        for (int n = 0; n < (1 << i); n++) {
+	            weights[n | (1 << i)] = weights[n] * w;
+	            weights[n] *= 1-w;
 	        }
 	    }
-        //LOG.info("Instance "+itemId+" in combo "+n+" has Pr = "+pr);
-
-	    EWAHCompressedBitmap dtmapMasked = dtmap.xor(mask);
-	    EWAHCompressedBitmap inferredTypesBM = knowledgeBase.getSuperClassesBM(dtmapMasked);
-	    WeightedTypesBM wtbm = new WeightedTypesBM(inferredTypesBM, pr);
-	    m.put(n, wtbm);
-	    return wtbm;
+	    EWAHCompressedBitmap baseTypesBM = knowledgeBase.getSuperClassesBM(dtmap.andNot(mask));
+	    return new Interpretations(baseTypesBM, optionalTypesBMs, weights);
 	}
 
 	/**
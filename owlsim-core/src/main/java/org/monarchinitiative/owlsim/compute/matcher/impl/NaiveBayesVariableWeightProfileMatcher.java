@@ -6,11 +6,11 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -58,29 +58,30 @@ public class NaiveBayesVariableWeightProfileMatcher extends AbstractProfileMatch
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 		int[] qvector = bmToVector(queryProfileBM, knowledgeBase.getNumClassNodes());
 
 		// LOG.info("QUERY PROFILE for "+q+" "+queryProfileBM.getPositions());
 
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
 
-		double sumOfProbs = 0;
-		double[] pvector = new double[indIds.size()];
-		String[] indIdsVector = new String[indIds.size()];
-
-		int localItemIndex = 0;
-		for (String itemId : indIds) {
+		double[] pvector = getScores(indIds, itemId -> {
 			LOG.info(itemId);
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
 			// TODO - should not need this; tvector already used to calculate
 			// likelihoods
 			int[] tvector = bmToVector(targetProfileBM, knowledgeBase.getNumClassNodes());
-			int j = knowledgeBase.getIndividualIndex(itemId);
-			double[] likelihoodsForItem = likelihoods[j];
+			double[] likelihoodsForItem;
+			if (isPairwiseTarget(itemId)) {
+				// not trained; calculated in the same way as in train()
+				likelihoodsForItem = getLikelihoods(tvector);
+			}
+			else {
+				likelihoodsForItem = likelihoods[knowledgeBase.getIndividualIndex(itemId)];
+			}
 			double logpsum = 0;
 			for (int i = 0; i < likelihoodsForItem.length; i++) {
 				double prob;
@@ -98,15 +99,15 @@ public class NaiveBayesVariableWeightProfileMatcher extends AbstractProfileMatch
 				logpsum += Math.log(prob);
 
 			}
-			double p = Math.exp(logpsum);
-			pvector[localItemIndex] = p;
-			indIdsVector[localItemIndex] = itemId;
-			localItemIndex++;
+			return Math.exp(logpsum);
+		});
+		double sumOfProbs = 0;
+		for (double p : pvector) {
 			sumOfProbs += p;
 		}
 		for (int j = 0; j < pvector.length; j++) {
 			pvector[j] /= sumOfProbs;
-			String id = indIdsVector[j];
+			String id = indIds.get(j);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(id);
 			mp.add(createMatch(id, label, pvector[j]));
 
@@ -134,35 +135,38 @@ public class NaiveBayesVariableWeightProfileMatcher extends AbstractProfileMatch
 			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
 			int[] tvector = bmToVector(targetProfileBM, knowledgeBase.getNumClassNodes());
 			int j = knowledgeBase.getIndividualIndex(itemId);
-			for (int i = 0; i < knowledgeBase.getNumClassNodes(); i++) {
-				String classId = knowledgeBase.getClassId(i);
-				// p ( feature | label, all parentOf(feature) = true)
-				// EWAHCompressedBitmap parentsBM =
-				// knowledgeBase.getSuperClassesBM(classId);
-				// EWAHCompressedBitmap indsFeatureBM =
-				// knowledgeBase.getIndividualsByType(classId);
-				// EWAHCompressedBitmap indsParemtsFeatureBM =
-				// knowledgeBase.getIndividualsByTypes(classIds);
-				double pFeatGivenLabel = 0.0;
-				double prob;
-				double nprob;
-				if (tvector[i] == 1) {
-					// disease has feature.
-					// if observations are infallible then p(feature|disease) =
-					// 1,
-					// but in practice there are false negatives (not in query,
-					// in disease)
-					prob = 0.99; // 1-FNR
-				} else {
-					// disease does not have feature
-					// if observations are infallible p(feature|disease) = 0
-					// but in practice there are false positives (in query, not
-					// in disease)
-					prob = 0.05; // FPR
-				}
-				likelihoods[j][i] = prob;
+			likelihoods[j] = getLikelihoods(tvector);
+		}
+	}
+
+	private double[] getLikelihoods(int[] tvector) {
+		double[] likelihoodsForItem = new double[tvector.length];
+		for (int i = 0; i < tvector.length; i++) {
+			// p ( feature | label, all parentOf(feature) = true)
+			// EWAHCompressedBitmap parentsBM =
+			// knowledgeBase.getSuperClassesBM(classId);
+			// EWAHCompressedBitmap indsFeatureBM =
+			// knowledgeBase.getIndividualsByType(classId);
+			// EWAHCompressedBitmap indsParemtsFeatureBM =
+			// knowledgeBase.getIndividualsByTypes(classIds);
+			double prob;
+			if (tvector[i] == 1) {
+				// disease has feature.
+				// if observations are infallible then p(feature|disease) =
+				// 1,
+				// but in practice there are false negatives (not in query,
+				// in disease)
+				prob = 0.99; // 1-FNR
+			} else {
+				// disease does not have feature
+				// if observations are infallible p(feature|disease) = 0
+				// but in practice there are false positives (in query, not
+				// in disease)
+				prob = 0.05; // FPR
 			}
+			likelihoodsForItem[i] = prob;
 		}
+		return likelihoodsForItem;
 	}
 
 }
@@ -1,19 +1,21 @@
 package org.monarchinitiative.owlsim.compute.matcher.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
-import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
-import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.impl.MatchImpl;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -29,7 +31,6 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
 public class PhenodigmICProfileMatcher extends AbstractSemanticSimilarityProfileMatcher implements ProfileMatcher {
 
 	private Logger LOG = Logger.getLogger(PhenodigmICProfileMatcher.class);
-	private String[] queryClassArray;
 
 	/**
 	 * @param kb
@@ -47,6 +48,17 @@ public class PhenodigmICProfileMatcher extends AbstractSemanticSimilarityProfile
 		return new PhenodigmICProfileMatcher(kb);
 	}
 
+	/**
+	 * @param kb
+	 * @param micaStore - precomputed MICAs; may be null
+	 * @return new instance
+	 */
+	public static ProfileMatcher create(BMKnowledgeBase kb, MICAStore micaStore) {
+		PhenodigmICProfileMatcher pm = new PhenodigmICProfileMatcher(kb);
+		pm.setMICAStore(micaStore);
+		return pm;
+	}
+
 	@Override
 	public String getShortName() {
 		return "phenodigm";
@@ -57,19 +69,19 @@ public class PhenodigmICProfileMatcher extends AbstractSemanticSimilarityProfile
 	 * @return match profile containing probabilities of each individual
 	 */
 	@Override
-	public MatchSet findMatchProfileImpl(ProfileQuery q) {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws IncoherentStateException {
 
 		// input query profile
 		Set<String> qClassIds = q.getQueryClassIds();
 		int qsize = qClassIds.size();
-		queryClassArray = qClassIds.toArray(new String[qsize]);
+		String[] queryClassArray = qClassIds.toArray(new String[qsize]);
 
 		// array (in same order as queryClassArray) in which each element
 		// is the set of superclasses of the indexed class
 		EWAHCompressedBitmap queryProfileBMArr[] = getProfileSetBM(queryClassArray);
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 
-		MatchSet mp = MatchSetImpl.create(q);
+		MatchSet mp = createMatchSet(q);
 
 		// ---
 		// calculate optimal match, based on matching of profile to itself;
@@ -83,56 +95,103 @@ public class PhenodigmICProfileMatcher extends AbstractSemanticSimilarityProfile
 			avgScoreOfOptimalTarget += getScore(queryBM, queryBM);
 		}
 		avgScoreOfOptimalTarget /= (double) qsize;
+		double optimalAvgScore = avgScoreOfOptimalTarget;
 		// end of optimal target score calculation
 		// ---
 
-		// obtain target set and iterate through each one
-		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
-
-			// calculate maximum IC
-			double maxScore = getScore(queryProfileBM, targetProfileBM);
+		// if present, MICAs are looked up for each (query class, target
+		// direct type) pair rather than calculated by intersecting bitmaps
+		MICAStore micaStore = getMICAStore();
+		int[] queryClassIndices = new int[qsize];
+		for (int j = 0; j < qsize; j++) {
+			queryClassIndices[j] = knowledgeBase.getClassIndex(queryClassArray[j]);
+		}
+		// per query class, the number of targets with no MICA in the store;
+		// targets are scored concurrently, and misses are logged once per query
+		AtomicIntegerArray misses = new AtomicIntegerArray(qsize);
 
+		// obtain target set and score each one
+		List<String> indIds = getFilteredIndividualIds(q.getFilter());
+		addMatches(mp, indIds, itemId -> {
 			EWAHCompressedBitmap targetProfileDirectBM = getDirectTypesBM(itemId);
 			int tsize = targetProfileDirectBM.cardinality();
+			int[] targetDirectTypeArr = targetProfileDirectBM.toArray();
 
-			// note: this is an experimental implementation that
-			// does not make use of a MICA cache; it may be replaced by
-			// a version that uses a cache later.
+			double maxScore;
 			double score = 0;
-
-			// find best match for every class j in query profile
-			for (int j = 0; j < qsize; j++) {
-				EWAHCompressedBitmap queryBM = queryProfileBMArr[j];
-				// find best match for Qj; we can optimize here;
-				// rather than iterating through all Ti in T, we can
-				// take the profile as a whole, as this is guaranteed the same
-				// for maxIC
-				// (note this optimization would not work for other metrics)
-				// TODO: include the matching phenotypes plus LCS in the
-				// results;
-				// note this won't work with the existing optimization
-				score += getScore(queryBM, targetProfileBM);
-
+			if (micaStore != null) {
+				// lower index is more informative, so the MICA of a class
+				// and a profile is the minimum of the pairwise MICAs
+				int[] bestForTarget = new int[tsize];
+				Arrays.fill(bestForTarget, Integer.MAX_VALUE);
+				int best = Integer.MAX_VALUE;
+				for (int j = 0; j < qsize; j++) {
+					int bestForQuery = Integer.MAX_VALUE;
+					for (int k = 0; k < tsize; k++) {
+						int a = micaStore.getMICAIndex(queryClassIndices[j], targetDirectTypeArr[k]);
+						if (a < 0)
+							continue;
+						if (a < bestForQuery)
+							bestForQuery = a;
+						if (a < bestForTarget[k])
+							bestForTarget[k] = a;
+					}
+					if (bestForQuery == Integer.MAX_VALUE)
+						misses.incrementAndGet(j);
+					score += getScore(bestForQuery);
+					if (bestForQuery < best)
+						best = bestForQuery;
+				}
+				for (int k = 0; k < tsize; k++) {
+					score += getScore(bestForTarget[k]);
+				}
+				maxScore = getScore(best);
 			}
-			// find best match for every t in target profile
-			int[] targetDirectTypeArr = targetProfileDirectBM.toArray();
-			for (int j = 0; j < tsize; j++) {
-				EWAHCompressedBitmap targetBM = knowledgeBase.getSuperClassesBM(targetDirectTypeArr[j]);
-				// see notes above
-				score += getScore(targetBM, queryProfileBM);
+			else {
+				EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
+
+				// calculate maximum IC
+				maxScore = getScore(queryProfileBM, targetProfileBM);
+
+				// find best match for every class j in query profile
+				for (int j = 0; j < qsize; j++) {
+					EWAHCompressedBitmap queryBM = queryProfileBMArr[j];
+					// find best match for Qj; we can optimize here;
+					// rather than iterating through all Ti in T, we can
+					// take the profile as a whole, as this is guaranteed the same
+					// for maxIC
+					// (note this optimization would not work for other metrics)
+					// TODO: include the matching phenotypes plus LCS in the
+					// results;
+					// note this won't work with the existing optimization
+					score += getScore(queryBM, targetProfileBM);
+
+				}
+				// find best match for every t in target profile
+				for (int j = 0; j < tsize; j++) {
+					EWAHCompressedBitmap targetBM = knowledgeBase.getSuperClassesBM(targetDirectTypeArr[j]);
+					// see notes above
+					score += getScore(targetBM, queryProfileBM);
+				}
 			}
 
 			// calculate average for all comparisons
 			score = score / (qsize + tsize);
 
 			double combinedPercentageScore = ((100 * (maxScore / maxScoreOfOptimalTarget))
-					+ (100 * (score / avgScoreOfOptimalTarget))) / 2;
+					+ (100 * (score / optimalAvgScore))) / 2;
 
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			Match m = MatchImpl.create(itemId, label, combinedPercentageScore);
-			mp.add(m);
+			return MatchImpl.create(itemId, label, combinedPercentageScore);
+		});
+		if (micaStore != null && LOG.isDebugEnabled()) {
+			List<String> missed = new ArrayList<>();
+			for (int j = 0; j < qsize; j++) {
+				if (misses.get(j) > 0)
+					missed.add(queryClassArray[j] + " (" + misses.get(j) + " targets)");
+			}
+			if (!missed.isEmpty())
+				LOG.debug("No MICA in store for query classes: " + missed);
 		}
 		mp.sortMatches();
 		return mp;
@@ -142,12 +201,20 @@ public class PhenodigmICProfileMatcher extends AbstractSemanticSimilarityProfile
 	//
 	// TODO - use the phenodigm score, which is the
 	double getScore(EWAHCompressedBitmap qbm, EWAHCompressedBitmap tbm) {
-		ClassInformationContentPair mica = getMicaCalculator().getMostInformativeCommonAncestorWithIC(qbm, tbm);
-		if (mica == null) {
+		int micaIndex = getMicaCalculator().getMostInformativeCommonAncestorIndex(qbm, tbm);
+		if (micaIndex < 0) {
 			LOG.error("No MICA between " + qbm + " -vs- " + tbm);
 			return 0;
 		}
-		return mica.ic;
+		return getMicaCalculator().getInformationContent(micaIndex);
+	}
+
+	// IC of a MICA looked up in the MICA store; misses are counted and
+	// logged by the caller
+	double getScore(int micaIndex) {
+		if (micaIndex == Integer.MAX_VALUE)
+			return 0;
+		return getMicaCalculator().getInformationContent(micaIndex);
 	}
 
 }
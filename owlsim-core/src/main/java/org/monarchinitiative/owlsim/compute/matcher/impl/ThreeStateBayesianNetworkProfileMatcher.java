@@ -1,7 +1,5 @@
 package org.monarchinitiative.owlsim.compute.matcher.impl;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,13 +9,13 @@ import javax.inject.Inject;
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.cpt.impl.NodeProbabilities;
+import org.monarchinitiative.owlsim.compute.cpt.impl.NodeProbabilityCache;
 import org.monarchinitiative.owlsim.compute.cpt.impl.ThreeStateConditionalProbabilityIndex;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.QueryWithNegation;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -34,8 +32,10 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 
 	private Logger LOG = Logger.getLogger(ThreeStateBayesianNetworkProfileMatcher.class);
 
-	private ThreeStateConditionalProbabilityIndex cpi = null;
-	private Map<BitMapPair,NodeProbabilities[]> targetToQueryCache;
+	private volatile ThreeStateConditionalProbabilityIndex cpi = null;
+	// set last by precompute(), so a non-null cache implies the index is set
+	private volatile NodeProbabilityCache<BitMapPair,NodeProbabilities[]> targetToQueryCache;
+	private long cacheMemoryCeiling = NodeProbabilityCache.DEFAULT_MEMORY_CEILING;
 
     @Inject
 	private ThreeStateBayesianNetworkProfileMatcher(BMKnowledgeBase kb) {
@@ -56,15 +56,39 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 	}
 
 	public void precompute() {
-		if (cpi != null)
+		if (targetToQueryCache != null)
 			return;
-		try {
-			calculateConditionalProbabilities(knowledgeBase);
-		} catch (IncoherentStateException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// queries may run concurrently; only one of them builds the index
+		synchronized (this) {
+			if (targetToQueryCache != null)
+				return;
+			if (cpi == null) {
+				try {
+					calculateConditionalProbabilities(knowledgeBase);
+				} catch (IncoherentStateException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+			// each entry is an array of references to NodeProbabilities objects
+			// (two doubles plus header) that are filled in lazily
+			targetToQueryCache = new NodeProbabilityCache<>(cacheMemoryCeiling,
+					16 + 40 * knowledgeBase.getNumClassNodes());
+		}
+	}
+
+	/**
+	 * Sets the number of bytes available for caching node probabilities
+	 * across queries; takes effect on the next call to {@link #precompute()}
+	 * 
+	 * @param memoryCeiling - 0 to disable caching
+	 */
+	public void setCacheMemoryCeiling(long memoryCeiling) {
+		this.cacheMemoryCeiling = memoryCeiling;
+		if (targetToQueryCache != null) {
+			targetToQueryCache = new NodeProbabilityCache<>(memoryCeiling,
+					16 + 40 * knowledgeBase.getNumClassNodes());
 		}
-		targetToQueryCache = new HashMap<BitMapPair, NodeProbabilities[]>();
 	}
 	
 	public class BitMapPair {
@@ -120,9 +144,16 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 	/**
 	 * note that this is exposed primarily for debugging purposes
 	 * 
-	 * @return cache
+	 * @return view of cached entries
 	 */
 	public Map<BitMapPair, NodeProbabilities[]> getTargetToQueryCache() {
+		return targetToQueryCache.asMap();
+	}
+
+	/**
+	 * @return cache of node probabilities per target profile, e.g. for hit/miss statistics
+	 */
+	public NodeProbabilityCache<BitMapPair, NodeProbabilities[]> getNodeProbabilityCache() {
 		return targetToQueryCache;
 	}
 
@@ -133,8 +164,10 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 	 * @throws IncoherentStateException
 	 */
 	public void calculateConditionalProbabilities(BMKnowledgeBase kb) throws IncoherentStateException {
-		cpi = ThreeStateConditionalProbabilityIndex.create(kb);
+		ThreeStateConditionalProbabilityIndex cpi = ThreeStateConditionalProbabilityIndex.create(kb);
 		cpi.calculateConditionalProbabilities(kb);
+		// published only once filled in
+		this.cpi = cpi;
 	}
 
 	/**
@@ -150,7 +183,7 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 			LOG.error("Consider using TwoState BN, this will be inefficient");
 		}
 		EWAHCompressedBitmap negatedQueryProfileBM = null;
-		Set<String> negatedQueryClassIds = null;
+		final Set<String> negatedQueryClassIds;
 
 		//double fpr = getFalsePositiveRate();
 		//double fnr = getFalseNegativeRate();
@@ -167,35 +200,31 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 		}
 		else {
 			LOG.info("Not using QueryWithNegation");
+			negatedQueryClassIds = null;
 		}
 
 		Set<String> queryClassIds = q.getQueryClassIds();
-		MatchSet mp = MatchSetImpl.create(q); // TODO
+		MatchSet mp = createMatchSet(q); // TODO
 
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
 
-		double pvector[] = new double[indIds.size()];
-		String indArr[] = new String[indIds.size()];
-		int n=0;
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
-			EWAHCompressedBitmap negatedTargetProfileBM = knowledgeBase.getNegatedTypesBM(itemId);
+		double pvector[] = getScores(indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
+			EWAHCompressedBitmap negatedTargetProfileBM = getNegatedTypesBM(itemId);
 
 			LOG.debug("TARGET PROFILE for "+itemId+" "+targetProfileBM);
 
 			Calculator calc = new Calculator(targetProfileBM, negatedTargetProfileBM);
 			//double p = calculateProbability(queryClassIds, targetProfileBM);
-			double p = calc.calculateProbability(queryClassIds, negatedQueryClassIds);
-
-			pvector[n] = p;
-			indArr[n] = itemId;
-			sumOfProbs += p;
-			n++;
 			//LOG.info("p for "+itemId+" = "+p);
+			return calc.calculateProbability(queryClassIds, negatedQueryClassIds);
+		});
+		for (double p : pvector) {
+			sumOfProbs += p;
 		}
-		for (n = 0; n<pvector.length; n++) {
+		for (int n = 0; n<pvector.length; n++) {
 			double p = pvector[n] / sumOfProbs;
-			String id = indArr[n];
+			String id = indIds.get(n);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(id);
 			mp.add(createMatch(id, label, p));
 		}
@@ -216,19 +245,17 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 		EWAHCompressedBitmap negatedTargetProfileBM;
 		BitMapPair targetProfilePair;
 		
-		// cache that is local to a particular candidate target
-		//NodeProbabilities[] probCache;
+		// node probabilities for this target; shared with other calculators
+		// for the same target while the entry stays in the cache
+		NodeProbabilities[] probCache;
 
 		public Calculator(EWAHCompressedBitmap targetProfileBM, EWAHCompressedBitmap negatedTargetProfileBM) {
 			super();
 			this.targetProfileBM = targetProfileBM;
 			this.negatedTargetProfileBM = negatedTargetProfileBM;
 			targetProfilePair = new BitMapPair(targetProfileBM, negatedTargetProfileBM);
-			if (!targetToQueryCache.containsKey(targetProfilePair)) {
-				targetToQueryCache.put(targetProfilePair, 
-						new NodeProbabilities[knowledgeBase.getNumClassNodes()]);
-			}
-			//probCache = new NodeProbabilities[getKnowledgeBase().getNumClassNodes()];
+			probCache = targetToQueryCache.get(targetProfilePair,
+					() -> new NodeProbabilities[knowledgeBase.getNumClassNodes()]);
 		}
 
 		/**
@@ -296,9 +323,6 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 		 * @throws IncoherentStateException 
 		 */
 		private NodeProbabilities calculateProbability(int qcix) throws IncoherentStateException {
-			
-			NodeProbabilities[] probCache = targetToQueryCache.get(targetProfilePair);
-				
 			if (probCache[qcix] != null) {
 				LOG.debug("Using cached for "+qcix);
 				return probCache[qcix];
@@ -319,55 +343,41 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 				prdChild = new NodeProbabilities(0.01, 0.99); // TODO - do not hardcode
 			}
 			else {
-				List<Integer> pixs = kb.getDirectSuperClassesBM(qcix).getPositions();
-				NodeProbabilities[] parentOnProbs = new NodeProbabilities[pixs.size()];
+				int[] pixs = cpi.getParentIndices(qcix);
+				NodeProbabilities[] parentOnProbs = new NodeProbabilities[pixs.length];
 				LOG.debug("calculating for parents");
-				for (int i=0; i<pixs.size(); i++) {
-					// TODO - cache, to avoid repeated calculations
+				for (int i=0; i<pixs.length; i++) {
 					// recursive call
 					parentOnProbs[i] = 
-							calculateProbability(pixs.get(i));
+							calculateProbability(pixs[i]);
 				}
 
-				int numParents = pixs.size();
-				int numStates = (int) Math.pow(3, numParents);
+				int numStates = cpi.getNumberOfParentStates(qcix);
 
 				// sum of probabilities
 				double sumParentOnProbs = 0; // TODO: use logs
 				double sumParentOffProbs = 0; // TODO: use logs
 
 				// Pr(Q | Parents) = sum of { Pr(Q | off, off, ..., off), ... } 
+				// parents state is base-3: digit i is 0=off, 1=unknown, 2=on for parent i
 				for (int parentsStateComboIx=0; parentsStateComboIx<numStates; parentsStateComboIx++) {
-					NodeProbabilities cprd = 
-							cpi.getConditionalProbabilityDistribution(qcix, parentsStateComboIx);
-					//LOG.debug(" cp="+cpOn+" for states="+parentsStateComboIx);
-					Map<Integer, Character> psm = cpi.getParentsToStateMapping(qcix, parentsStateComboIx);
-					Set<Integer> onPixs = new HashSet<Integer>(); // set of parents in On state
-					for (int pix : psm.keySet()) {
-						if (psm.get(pix) == 't') {
-							onPixs.add(pix);
-						}
-					}
-					LOG.debug("   onPixs="+onPixs);
 					double prParentStateCombo = 1.0;
-					for (int i=0; i<pixs.size(); i++) {
-						int pix = pixs.get(i);
-						Character parentState = psm.get(pix);
+					int stateDigits = parentsStateComboIx;
+					for (int i=0; i<pixs.length; i++) {
 						NodeProbabilities prdParent = parentOnProbs[i];
+						int parentState = stateDigits % 3;
+						stateDigits /= 3;
 
 						// TODO - fix this for 3-state
 						double prParentInState;
-						if (parentState == 't') {
+						if (parentState == 2) {
 							prParentInState = prdParent.prOn;
 						}
-						else if (parentState == 'f') {
+						else if (parentState == 0) {
 							prParentInState = prdParent.prOff;
 						}
-						else if (parentState == 'u') {
-							prParentInState = prdParent.prUnknown;
-						}
 						else {
-							throw new IncoherentStateException("Invalid state: "+parentState);
+							prParentInState = prdParent.prUnknown;
 						}
 						if (prParentInState < 0) {
 							throw new IncoherentStateException("Invalid probability of "+
@@ -376,8 +386,8 @@ public class ThreeStateBayesianNetworkProfileMatcher extends AbstractProfileMatc
 
 						prParentStateCombo *= prParentInState;
 					}
-					sumParentOnProbs += prParentStateCombo * cprd.prOn;
-					sumParentOffProbs += prParentStateCombo * cprd.prOff;
+					sumParentOnProbs += prParentStateCombo * cpi.getConditionalProbabilityChildIsOn(qcix, parentsStateComboIx);
+					sumParentOffProbs += prParentStateCombo * cpi.getConditionalProbabilityChildIsOff(qcix, parentsStateComboIx);
 				}
 				LOG.info("Calculated probability for "+qcix+" ie "+kb.getClassId(qcix)+
 						" On= "+sumParentOnProbs+" Off= "+sumParentOffProbs);
@@ -3,13 +3,13 @@ package org.monarchinitiative.owlsim.compute.matcher.impl.cosine;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -47,12 +47,20 @@ public class CosineNegativeSimilarityProfileMatcher extends CosineSimilarityProf
 		return "cosine-negative";
 	}
 
+	/**
+	 * negated query classes are scored against target types, not vice versa
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
+	}
+
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 * @throws UnknownFilterException 
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException, IncoherentStateException {
 		
         final int SCALE=1000;
 		final int SCALE_SQ=SCALE*SCALE;
@@ -61,16 +69,16 @@ public class CosineNegativeSimilarityProfileMatcher extends CosineSimilarityProf
 		EWAHCompressedBitmap qn = getNegatedProfileBM(q);
 		
 		// TODO
-		MatchSet mp =  MatchSetImpl.create(q);
+		MatchSet mp =  createMatchSet(q);
 		
 		int sqrtQC = getScaledSqrt(qp.cardinality() + qn.cardinality());
 		EWAHCompressedBitmap onQueryNodesBM = getProfileBM(q);
 
 		
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap tp = knowledgeBase.getTypesBM(itemId);
-			EWAHCompressedBitmap tn = knowledgeBase.getDirectNegatedTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap tp = getTypesBM(itemId);
+			EWAHCompressedBitmap tn = getDirectNegatedTypesBM(itemId);
 			
 			
 			// dot product of vector of {0,1} equivalent to cardinality of intersection
@@ -79,8 +87,8 @@ public class CosineNegativeSimilarityProfileMatcher extends CosineSimilarityProf
 
 			double j = sumOfVectorProduct / (double) ((sqrtQC * sqrtTC) / SCALE_SQ);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			mp.add(createMatch(itemId, label, j));
-		}
+			return createMatch(itemId, label, j);
+		});
 		mp.sortMatches();
 		return mp;
 	}
@@ -3,13 +3,13 @@ package org.monarchinitiative.owlsim.compute.matcher.impl.cosine;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.impl.AbstractProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -47,24 +47,32 @@ public class CosineSimilarityProfileMatcher extends AbstractProfileMatcher imple
 		return "cosine";
 	}
 
+	/**
+	 * the dot product is symmetric in q and t
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
+
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 * @throws UnknownFilterException 
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException, IncoherentStateException {
 		
 		final int SCALE_SQ=SCALE*SCALE;
 		EWAHCompressedBitmap queryProfileBM = getProfileBM(q);
 		
 		// TODO
-		MatchSet mp =  MatchSetImpl.create(q);
+		MatchSet mp =  createMatchSet(q);
 		
 		int sqrtQC = getScaledSqrt(queryProfileBM.cardinality());
 		
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap targetProfileBM = knowledgeBase.getTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap targetProfileBM = getTypesBM(itemId);
 			
 			//LOG.info("TARGET PROFILE for "+itemId+" "+targetProfileBM);
 			
@@ -74,8 +82,8 @@ public class CosineSimilarityProfileMatcher extends AbstractProfileMatcher imple
 
 			double j = sumOfVectorProduct / (double) ((sqrtQC * sqrtTC) / SCALE_SQ);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			mp.add(createMatch(itemId, label, j));
-		}
+			return createMatch(itemId, label, j);
+		});
 		mp.sortMatches();
 		return mp;
 	}
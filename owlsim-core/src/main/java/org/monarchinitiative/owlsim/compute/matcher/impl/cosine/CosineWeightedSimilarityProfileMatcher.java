@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
@@ -12,7 +13,6 @@ import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.WeightedQuery;
-import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
@@ -50,12 +50,20 @@ public class CosineWeightedSimilarityProfileMatcher extends CosineSimilarityProf
 		return "cosine-negative";
 	}
 
+	/**
+	 * negated query classes are scored against target types, not vice versa
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
+	}
+
 	/**
 	 * @param q
 	 * @return match profile containing probabilities of each individual
 	 * @throws UnknownFilterException 
 	 */
-	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException {
+	public MatchSet findMatchProfileImpl(ProfileQuery q) throws UnknownFilterException, IncoherentStateException {
 		
 		// TODO
 		WeightedQuery wpq = (WeightedQuery)q;
@@ -66,16 +74,16 @@ public class CosineWeightedSimilarityProfileMatcher extends CosineSimilarityProf
 		EWAHCompressedBitmap qn = getNegatedProfileBM(q);
 		
 		// TODO
-		MatchSet mp =  MatchSetImpl.create(q);
+		MatchSet mp =  createMatchSet(q);
 		
 		final int SCALE=1000;
 		int sqrtQC = getScaledSqrt(qp.cardinality() + qn.cardinality());
 		EWAHCompressedBitmap onQueryNodesBM = getProfileBM(q);
 		
 		List<String> indIds = getFilteredIndividualIds(q.getFilter());
-		for (String itemId : indIds) {
-			EWAHCompressedBitmap tp = knowledgeBase.getTypesBM(itemId);
-			EWAHCompressedBitmap tn = knowledgeBase.getDirectNegatedTypesBM(itemId);
+		addMatches(mp, indIds, itemId -> {
+			EWAHCompressedBitmap tp = getTypesBM(itemId);
+			EWAHCompressedBitmap tn = getDirectNegatedTypesBM(itemId);
 
 			// TODO: methods for weights for target
 			Map<String, Double> twmap = new HashMap<String, Double>();
@@ -88,8 +96,8 @@ public class CosineWeightedSimilarityProfileMatcher extends CosineSimilarityProf
 			// TODO
 			double j = sumOfVectorProduct / (double) ((sqrtQC * sqrtTC) / SCALE_SQ);
 			String label = knowledgeBase.getLabelMapper().getArbitraryLabel(itemId);
-			mp.add(createMatch(itemId, label, j));
-		}
+			return createMatch(itemId, label, j);
+		});
 		mp.sortMatches();
 		return mp;
 	}
@@ -15,7 +15,7 @@ public interface MICAStore {
 	/**
 	 * @param i
 	 * @param j
-	 * @return index of MICA
+	 * @return index of MICA, or -1 if i and j have no common ancestor
 	 */
 	public abstract int getMICAIndex(int i, int j);
 
@@ -26,4 +26,9 @@ public interface MICAStore {
 	 */
 	public abstract String getMICAClass(int i, int j);
 
+	/**
+	 * @return approximate number of bytes used by the store
+	 */
+	public abstract long getMemoryFootprint();
+
 }
\ No newline at end of file
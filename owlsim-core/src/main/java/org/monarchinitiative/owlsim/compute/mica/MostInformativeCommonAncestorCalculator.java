@@ -87,6 +87,26 @@ public interface MostInformativeCommonAncestorCalculator {
 	// least frequent
 	// or joint least frequent
 
+	/**
+	 * Note closure assumed for BM. Does not resolve the MICA to a CURIE
+	 * 
+	 * @param queryProfileBM
+	 * @param targetProfileBM
+	 * @return index of MICA, or -1 if there is no common ancestor
+	 */
+	public int getMostInformativeCommonAncestorIndex(EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap targetProfileBM);
+
+	/**
+	 * Note closure assumed for BM. Does not resolve the MICA to a CURIE
+	 * 
+	 * @param queryProfileBM
+	 * @param targetProfileBM
+	 * @return IC of MICA, or NaN if there is no common ancestor
+	 */
+	public double getInformationContentOfMostInformativeCommonAncestor(EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap targetProfileBM);
+
 	/**
 	 * @param queryProfileBM
 	 * @param targetProfileBM
@@ -122,4 +142,43 @@ public interface MostInformativeCommonAncestorCalculator {
 	 */
 	public ClassInformationContentPair getMostInformativeCommonAncestorWithIC(Set<String> queryClassIds,
 			Set<String> targetClassIds);
+
+	/**
+	 * @return store used to look up MICAs by class index, or null if MICAs are
+	 *         always calculated from bitmaps
+	 */
+	public MICAStore getMICAStore();
+
+	/**
+	 * @param micaStore
+	 *            - optional; if null, MICAs are calculated from bitmaps
+	 */
+	public void setMICAStore(MICAStore micaStore);
+
+	/**
+	 * MICA between a single class and a set of classes; equivalent to using
+	 * the superclass closure of both, but uses the MICA store if present
+	 * 
+	 * @param queryClassIndex
+	 * @param targetClassIndices
+	 *            - e.g. direct types of an individual
+	 * @return index of MICA, or -1 if there is no common ancestor
+	 */
+	public int getMostInformativeCommonAncestorIndex(int queryClassIndex, int[] targetClassIndices);
+
+	/**
+	 * @param classIndex
+	 * @return IC of class
+	 */
+	public double getInformationContent(int classIndex);
+
+	/**
+	 * Resolves a class index, e.g. as returned by
+	 * {@link #getMostInformativeCommonAncestorIndex(int, int[])}, to a CURIE
+	 * and IC
+	 * 
+	 * @param classIndex
+	 * @return (classId, IC) pair, or null if classIndex is negative
+	 */
+	public ClassInformationContentPair getClassInformationContentPair(int classIndex);
 }
@@ -39,7 +39,7 @@ public class MICAStoreImpl implements MICAStore {
 	 * @return MICAStore
 	 * @throws NoRootException
 	 */
-	public MICAStore create(BMKnowledgeBase knowledgeBase) throws NoRootException {
+	public static MICAStore create(BMKnowledgeBase knowledgeBase) throws NoRootException {
 		return new MICAStoreImpl(knowledgeBase);
 	}
 	
@@ -109,6 +109,13 @@ public class MICAStoreImpl implements MICAStore {
 	public String getMICAClass(int i, int j) {
 		return knowledgeBase.getClassId( getMICAIndex(i,j) );
 	}
+
+	@Override
+	public long getMemoryFootprint() {
+		// each row is an array with a 16 byte header
+		long n = micaGrid.length;
+		return n * (4 * n + 16);
+	}
 	
 	
 
@@ -2,8 +2,8 @@ package org.monarchinitiative.owlsim.compute.mica.impl;
 
 import java.util.Set;
 
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
 import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
-import org.monarchinitiative.owlsim.compute.stats.ICStatsCalculator;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
@@ -16,6 +16,9 @@ import com.googlecode.javaewah.IntIterator;
  * the BM is guaranteed to be ordered such that the first integer is either
  * least frequent or joint least frequent.
  * 
+ * If a {@link MICAStore} is supplied, MICAs between individual classes are
+ * looked up rather than calculated.
+ * 
  * @author cjm
  *
  */
@@ -25,58 +28,81 @@ public class MostInformativeCommonAncestorCalculatorImpl implements MostInformat
 	// Logger.getLogger(MaximumInformationContentSimilarityProfileMatcher.class);
 
 	private int[] frequencyByClassIndex;
-	private ICStatsCalculator icStatsCalculator;
+	private double[] icByClassIndex;
 	private final BMKnowledgeBase knowledgeBase;
+	private MICAStore micaStore;
 
 	/**
 	 * @param knowledgeBase
 	 */
 	public MostInformativeCommonAncestorCalculatorImpl(BMKnowledgeBase knowledgeBase) {
+		this(knowledgeBase, null);
+	}
+
+	/**
+	 * @param knowledgeBase
+	 * @param micaStore - may be null
+	 */
+	public MostInformativeCommonAncestorCalculatorImpl(BMKnowledgeBase knowledgeBase, MICAStore micaStore) {
 		super();
 		this.knowledgeBase = knowledgeBase;
-		this.icStatsCalculator = new ICStatsCalculator(knowledgeBase);
+		this.micaStore = micaStore;
+		// both arrays are shared by all users of the kb
+		this.frequencyByClassIndex = knowledgeBase.getIndividualCountPerClassArray();
+		this.icByClassIndex = knowledgeBase.getInformationContentPerClassArray();
 	}
 
-	public int getFrequencyOfMostInformativeCommonAncestor(EWAHCompressedBitmap queryProfileBM,
+	public MICAStore getMICAStore() {
+		return micaStore;
+	}
+
+	public void setMICAStore(MICAStore micaStore) {
+		this.micaStore = micaStore;
+	}
+
+	public int getMostInformativeCommonAncestorIndex(EWAHCompressedBitmap queryProfileBM,
 			EWAHCompressedBitmap targetProfileBM) {
-		EWAHCompressedBitmap commonSubsumersBM = queryProfileBM.and(targetProfileBM);
-		IntIterator bitIterator = commonSubsumersBM.intIterator();
-		if (bitIterator.hasNext()) {
-			int bit = bitIterator.next();
-			return frequencyByClassIndex[bit];
-		} else {
+		// bits are ordered, so the first bit set in both is the MICA;
+		// walk both bitmaps in step rather than materializing the intersection
+		IntIterator qit = queryProfileBM.intIterator();
+		IntIterator tit = targetProfileBM.intIterator();
+		if (!qit.hasNext() || !tit.hasNext())
 			return -1;
+		int q = qit.next();
+		int t = tit.next();
+		while (true) {
+			if (q == t)
+				return q;
+			if (q < t) {
+				if (!qit.hasNext())
+					return -1;
+				q = qit.next();
+			}
+			else {
+				if (!tit.hasNext())
+					return -1;
+				t = tit.next();
+			}
 		}
 	}
 
-	public ClassFrequencyPair getMostInformativeCommonAncestorWithFrequency(EWAHCompressedBitmap queryProfileBM,
+	public int getFrequencyOfMostInformativeCommonAncestor(EWAHCompressedBitmap queryProfileBM,
 			EWAHCompressedBitmap targetProfileBM) {
+		int bit = getMostInformativeCommonAncestorIndex(queryProfileBM, targetProfileBM);
+		return bit < 0 ? -1 : frequencyByClassIndex[bit];
+	}
 
-		EWAHCompressedBitmap commonSubsumersBM = queryProfileBM.and(targetProfileBM);
-		IntIterator bitIterator = commonSubsumersBM.intIterator();
-		if (bitIterator.hasNext()) {
-			int bit = bitIterator.next();
-			String classId = knowledgeBase.getClassId(bit);
-			return new ClassFrequencyPair(classId, frequencyByClassIndex[bit], bit);
-		} else {
+	public ClassFrequencyPair getMostInformativeCommonAncestorWithFrequency(EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap targetProfileBM) {
+		int bit = getMostInformativeCommonAncestorIndex(queryProfileBM, targetProfileBM);
+		if (bit < 0)
 			return null;
-		}
+		return new ClassFrequencyPair(knowledgeBase.getClassId(bit), frequencyByClassIndex[bit], bit);
 	}
 
 	public ClassInformationContentPair getMostInformativeCommonAncestorWithIC(EWAHCompressedBitmap queryProfileBM,
 			EWAHCompressedBitmap targetProfileBM) {
-
-		EWAHCompressedBitmap commonSubsumersBM = queryProfileBM.and(targetProfileBM);
-		IntIterator bitIterator = commonSubsumersBM.intIterator();
-
-		// bits are ordered
-		if (bitIterator.hasNext()) {
-			int bit = bitIterator.next();
-			String classId = knowledgeBase.getClassId(bit);
-			return new ClassInformationContentPair(classId, icStatsCalculator.getInformationContentByClassIndex(bit));
-		} else {
-			return null;
-		}
+		return getClassInformationContentPair(getMostInformativeCommonAncestorIndex(queryProfileBM, targetProfileBM));
 	}
 
 	@Override
@@ -86,4 +112,40 @@ public class MostInformativeCommonAncestorCalculatorImpl implements MostInformat
 				knowledgeBase.getSuperClassesBM(targetClassIds));
 	}
 
+	public int getMostInformativeCommonAncestorIndex(int queryClassIndex, int[] targetClassIndices) {
+		if (micaStore != null) {
+			// lower index is more informative; the MICA with a set is the
+			// best of the pairwise MICAs
+			int best = -1;
+			for (int t : targetClassIndices) {
+				int a = micaStore.getMICAIndex(queryClassIndex, t);
+				if (a >= 0 && (best == -1 || a < best))
+					best = a;
+			}
+			return best;
+		}
+		EWAHCompressedBitmap targetBM = new EWAHCompressedBitmap();
+		for (int t : targetClassIndices) {
+			targetBM = targetBM.or(knowledgeBase.getSuperClassesBM(t));
+		}
+		IntIterator bitIterator = knowledgeBase.getSuperClassesBM(queryClassIndex).and(targetBM).intIterator();
+		return bitIterator.hasNext() ? bitIterator.next() : -1;
+	}
+
+	public double getInformationContent(int classIndex) {
+		return icByClassIndex[classIndex];
+	}
+
+	public double getInformationContentOfMostInformativeCommonAncestor(EWAHCompressedBitmap queryProfileBM,
+			EWAHCompressedBitmap targetProfileBM) {
+		int bit = getMostInformativeCommonAncestorIndex(queryProfileBM, targetProfileBM);
+		return bit < 0 ? Double.NaN : icByClassIndex[bit];
+	}
+
+	public ClassInformationContentPair getClassInformationContentPair(int classIndex) {
+		if (classIndex < 0)
+			return null;
+		return new ClassInformationContentPair(knowledgeBase.getClassId(classIndex), icByClassIndex[classIndex]);
+	}
+
 }
@@ -0,0 +1,299 @@
+package org.monarchinitiative.owlsim.compute.mica.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * A sparse cache for Most Informative Common Ancestors.
+ *
+ * Unlike {@link MICAStoreImpl}, which requires memory on the order of |C|^2,
+ * only pairs whose MICA has an IC above a floor are stored, optionally
+ * restricted to classes used in annotations. Most pairs of classes in a large
+ * ontology only share uninformative ancestors such as the root, so these are
+ * not worth storing.
+ *
+ * Lookups always give the same answer as the dense store. For a pair of
+ * stored classes that is not stored, the MICA is uninformative, so it is
+ * found among the (few) uninformative ancestors of each class, which are
+ * kept as short sorted arrays. The informative MICAs of a class that is not
+ * included (e.g. an unannotated query class) are computed on first use and
+ * memoized, up to {@link #MAX_CACHED_UNINCLUDED_ENTRIES} entries over all
+ * such classes.
+ *
+ * Entries are held in compressed sparse row form: for each class i, the
+ * classes j &lt; i it has an informative MICA with, in ascending order, and
+ * the MICA of each. The grid is symmetric, so only one half is stored.
+ *
+ * Rows are built in parallel. Rather than intersecting every pair of bitmaps,
+ * row i is built by visiting the informative ancestors of i from most to least
+ * informative; the MICA of i and j is the first such ancestor that j is a
+ * subclass of.
+ *
+ * @author cjm
+ *
+ */
+public class SparseMICAStoreImpl implements MICAStore {
+
+	private Logger LOG = Logger.getLogger(SparseMICAStoreImpl.class);
+
+	/**
+	 * maximum number of MICAs memoized for classes that are not included;
+	 * the rows of the least recently used classes are evicted first
+	 */
+	public static final long MAX_CACHED_UNINCLUDED_ENTRIES = 4L * 1024 * 1024;
+
+	private final BMKnowledgeBase knowledgeBase;
+	private final double icFloor;
+	private final EWAHCompressedBitmap includedClassesBM;
+	private int[] rowOffsets;
+	private int[] columns;
+	private int[] micas;
+	// for each class, its superclasses with IC at or below the floor, in index order
+	private int[] uninformativeOffsets;
+	private int[] uninformativeSuperClasses;
+	// rows for classes that are not included, against all classes; see getUnincludedRow
+	private final LoadingCache<Integer, long[]> unincludedRows = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHED_UNINCLUDED_ENTRIES)
+			.weigher((Integer i, long[] row) -> row.length + 1)
+			.build(CacheLoader.from(this::computeUnincludedRow));
+	private boolean[] isInformative;
+	private boolean[] isIncluded;
+
+	/**
+	 * @param knowledgeBase
+	 * @param icFloor - only pairs whose MICA has IC strictly above this are stored
+	 * @param includedClassesBM - only pairs of these classes are stored; if null, all classes
+	 */
+	public SparseMICAStoreImpl(BMKnowledgeBase knowledgeBase, double icFloor,
+			EWAHCompressedBitmap includedClassesBM) {
+		super();
+		this.knowledgeBase = knowledgeBase;
+		this.icFloor = icFloor;
+		this.includedClassesBM = includedClassesBM;
+		populate();
+	}
+
+	/**
+	 * Create and populate a store for all pairs of classes with an informative MICA
+	 *
+	 * @param knowledgeBase
+	 * @param icFloor
+	 * @return MICAStore
+	 */
+	public static SparseMICAStoreImpl create(BMKnowledgeBase knowledgeBase, double icFloor) {
+		return new SparseMICAStoreImpl(knowledgeBase, icFloor, null);
+	}
+
+	/**
+	 * Create and populate a store for pairs of classes that are used directly
+	 * in annotations (i.e. are direct types of some individual)
+	 *
+	 * @param knowledgeBase
+	 * @param icFloor
+	 * @return MICAStore
+	 */
+	public static SparseMICAStoreImpl createForAnnotatedClasses(BMKnowledgeBase knowledgeBase, double icFloor) {
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		for (int i = 0; i < knowledgeBase.getNumClassNodes(); i++) {
+			if (knowledgeBase.getDirectIndividualsBM(i).cardinality() > 0)
+				bm.set(i);
+		}
+		return new SparseMICAStoreImpl(knowledgeBase, icFloor, bm);
+	}
+
+	private void populate() {
+		int n = knowledgeBase.getNumClassNodes();
+		double[] ics = knowledgeBase.getInformationContentPerClassArray();
+		isInformative = new boolean[n];
+		for (int a = 0; a < n; a++) {
+			isInformative[a] = ics[a] > icFloor;
+		}
+		isIncluded = new boolean[n];
+		if (includedClassesBM == null) {
+			Arrays.fill(isIncluded, true);
+		}
+		else {
+			for (int i : includedClassesBM.toArray()) {
+				isIncluded[i] = true;
+			}
+		}
+		LOG.info("Pre-calculating sparse MICA grid for " + n + " classes; IC floor=" + icFloor);
+
+		// each row is a sorted array of (column << 32 | mica)
+		long[][] rows = new long[n][];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			rows[i] = isIncluded[i] ? computeRow(i, i, true) : new long[0];
+		});
+
+		rowOffsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			rowOffsets[i + 1] = rowOffsets[i] + rows[i].length;
+		}
+		columns = new int[rowOffsets[n]];
+		micas = new int[rowOffsets[n]];
+		for (int i = 0; i < n; i++) {
+			int offset = rowOffsets[i];
+			for (long entry : rows[i]) {
+				columns[offset] = (int) (entry >>> 32);
+				micas[offset] = (int) entry;
+				offset++;
+			}
+			rows[i] = null;
+		}
+
+		int[][] uninformative = new int[n][];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			uninformative[i] = Arrays.stream(knowledgeBase.getSuperClassesBM(i).toArray())
+					.filter(a -> !isInformative[a]).toArray();
+		});
+		uninformativeOffsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			uninformativeOffsets[i + 1] = uninformativeOffsets[i] + uninformative[i].length;
+		}
+		uninformativeSuperClasses = new int[uninformativeOffsets[n]];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(uninformative[i], 0, uninformativeSuperClasses, uninformativeOffsets[i],
+					uninformative[i].length);
+		}
+		LOG.info("Stored " + getNumEntries() + " MICAs (out of " + ((long) n * (n - 1) / 2) + " pairs) in "
+				+ getMemoryFootprint() + " bytes");
+	}
+
+	/**
+	 * @param i
+	 * @param toColumn - only columns below this are computed
+	 * @param isIncludedOnly - if true, only columns for included classes are computed
+	 * @return sorted array of (column &lt;&lt; 32 | mica) for columns with an informative MICA
+	 */
+	private long[] computeRow(int i, int toColumn, boolean isIncludedOnly) {
+		BitSet seen = new BitSet(toColumn);
+		long[] row = new long[16];
+		int size = 0;
+		// superclasses are ordered from most to least informative
+		for (int a : knowledgeBase.getSuperClassesBM(i).toArray()) {
+			if (!isInformative[a])
+				break;
+			IntIterator iter = knowledgeBase.getSubClasses(a).intIterator();
+			while (iter.hasNext()) {
+				int j = iter.next();
+				if (j >= toColumn)
+					break;
+				if ((isIncludedOnly && !isIncluded[j]) || seen.get(j))
+					continue;
+				seen.set(j);
+				if (size == row.length)
+					row = Arrays.copyOf(row, size * 2);
+				row[size++] = ((long) j << 32) | a;
+			}
+		}
+		row = Arrays.copyOf(row, size);
+		Arrays.sort(row);
+		return row;
+	}
+
+	@Override
+	public int getMICAIndex(int i, int j) {
+		if (i == j)
+			return i;
+		if (!isIncluded[i] || !isIncluded[j]) {
+			int u = isIncluded[i] ? j : i;
+			int v = u == i ? j : i;
+			long[] row = getUnincludedRow(u);
+			// (v << 32) sorts at or just before the entry for column v
+			int ix = Arrays.binarySearch(row, (long) v << 32);
+			ix = ix >= 0 ? ix : -ix - 1;
+			if (ix < row.length && (int) (row[ix] >>> 32) == v)
+				return (int) row[ix];
+			return getUninformativeMICAIndex(i, j);
+		}
+		if (i < j) {
+			int tmp = i;
+			i = j;
+			j = tmp;
+		}
+		int ix = Arrays.binarySearch(columns, rowOffsets[i], rowOffsets[i + 1], j);
+		if (ix >= 0)
+			return micas[ix];
+		// not informative enough to store
+		return getUninformativeMICAIndex(i, j);
+	}
+
+	/**
+	 * @param i
+	 * @return informative MICAs of a class that is not included, against all classes
+	 */
+	private long[] getUnincludedRow(int i) {
+		return unincludedRows.getUnchecked(i);
+	}
+
+	private long[] computeUnincludedRow(int i) {
+		return computeRow(i, knowledgeBase.getNumClassNodes(), false);
+	}
+
+	/**
+	 * The MICA of a pair with no informative common ancestor is the first
+	 * (i.e. most informative) uninformative superclass shared by both
+	 */
+	private int getUninformativeMICAIndex(int i, int j) {
+		int x = uninformativeOffsets[i];
+		int xEnd = uninformativeOffsets[i + 1];
+		int y = uninformativeOffsets[j];
+		int yEnd = uninformativeOffsets[j + 1];
+		while (x < xEnd && y < yEnd) {
+			int a = uninformativeSuperClasses[x];
+			int b = uninformativeSuperClasses[y];
+			if (a == b)
+				return a;
+			if (a < b)
+				x++;
+			else
+				y++;
+		}
+		return -1;
+	}
+
+	@Override
+	public String getMICAClass(int i, int j) {
+		return knowledgeBase.getClassId(getMICAIndex(i, j));
+	}
+
+	/**
+	 * includes rows currently memoized for classes that are not included
+	 */
+	@Override
+	public long getMemoryFootprint() {
+		long unincludedEntries = 0;
+		for (long[] row : unincludedRows.asMap().values()) {
+			unincludedEntries += row.length;
+		}
+		return 4L * (rowOffsets.length + columns.length + micas.length
+				+ uninformativeOffsets.length + uninformativeSuperClasses.length)
+				+ 8L * unincludedEntries;
+	}
+
+	/**
+	 * @return number of pairs stored (each unordered pair is stored once)
+	 */
+	public int getNumEntries() {
+		return columns.length;
+	}
+
+	/**
+	 * @return MICAs with IC at or below this are not stored
+	 */
+	public double getICFloor() {
+		return icFloor;
+	}
+
+}
@@ -3,12 +3,16 @@ package org.monarchinitiative.owlsim.compute.runner;
 import java.util.Set;
 import java.util.UUID;
 
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+
 public abstract class Job {
 
 	public String id = null;
 	public abstract String getQueryIndividual();
 	public abstract Set<String> getQueryClassIds();
 	public abstract Set<String> getNegatedQueryClassIds();
+	public abstract MatchSet getMatchSet();
+	public abstract void setMatchSet(MatchSet matchSet);
 	
 	public String getId() {
 		return id;
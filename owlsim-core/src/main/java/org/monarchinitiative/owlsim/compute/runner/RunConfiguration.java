@@ -13,6 +13,7 @@ public class RunConfiguration {
 	private String description;
 	private List<String> ontologyInputs;
 	private String tool;
+	private Integer numThreads;
 	
 	private List<PairwiseJob> pairwiseJobs;
 	private List<SearchJob> searchJobs;
@@ -41,6 +42,17 @@ public class RunConfiguration {
 		this.tool = tool;
 	}
 
+	/**
+	 * @return number of jobs executed concurrently; if null, the number of available processors
+	 */
+	public Integer getNumThreads() {
+		return numThreads;
+	}
+
+	public void setNumThreads(Integer numThreads) {
+		this.numThreads = numThreads;
+	}
+
 	public List<PairwiseJob> getPairwiseJobs() {
 		return pairwiseJobs;
 	}
@@ -3,10 +3,18 @@ package org.monarchinitiative.owlsim.compute.runner;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
@@ -14,13 +22,14 @@ import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.impl.BayesianNetworkProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.impl.PhenodigmICProfileMatcher;
 import org.monarchinitiative.owlsim.io.JSONWriter;
+import org.monarchinitiative.owlsim.io.NDJSONWriter;
 import org.monarchinitiative.owlsim.io.OWLLoader;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
-import org.monarchinitiative.owlsim.kb.filter.Filter;
-import org.monarchinitiative.owlsim.kb.filter.IdFilter;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
+import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
 import org.monarchinitiative.owlsim.model.match.impl.ProfileQueryImpl;
 import org.monarchinitiative.owlsim.model.match.impl.QueryWithNegationImpl;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
@@ -42,6 +51,9 @@ public class RunEngine {
     ProfileMatcher profileMatcher;
     BMKnowledgeBase kb;
 
+    // jobs submitted ahead of the one being written, per worker
+    private static final int JOBS_IN_FLIGHT_PER_THREAD = 4;
+
     Class[] matcherClasses = {
             PhenodigmICProfileMatcher.class,
             BayesianNetworkProfileMatcher.class
@@ -120,7 +132,7 @@ public class RunEngine {
     }
 
     /**
-     * Executes a run configuration
+     * Executes a run configuration; results are attached to each job
      * 
      * @throws IOException
      * @throws InstantiationException
@@ -130,33 +142,106 @@ public class RunEngine {
      * @throws IncoherentStateException
      */
     public void execute() throws IOException, InstantiationException, IllegalAccessException, OWLOntologyCreationException, UnknownFilterException, IncoherentStateException {
+        execute(null);
+    }
+
+    /**
+     * Executes a run configuration, running jobs concurrently on
+     * {@link RunConfiguration#getNumThreads()} workers.
+     * 
+     * Pairwise jobs are executed first, then search jobs. If a writer is
+     * supplied, each job is written as a single line as soon as it and all
+     * jobs preceding it are complete, and its results are then released;
+     * otherwise results are attached to each job
+     * 
+     * @param writer - may be null
+     * @throws IOException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws OWLOntologyCreationException
+     * @throws UnknownFilterException
+     * @throws IncoherentStateException
+     */
+    public void execute(NDJSONWriter writer) throws IOException, InstantiationException, IllegalAccessException, OWLOntologyCreationException, UnknownFilterException, IncoherentStateException {
         kb = createKnowledgeBase(runConfiguration.getOntologyInputs());
         profileMatcher = createProfileMatcher();
-
-        // pairwise (individual-individual) jobs
-        for (PairwiseJob job : runConfiguration.getPairwiseJobs()) {
-            job.setId();
-            ProfileQuery q = createProfileQuery(job);
-            Filter filter = IdFilter.create(job.getTargetIndividual());
-            q.setFilter(filter);
-            //job.getTargetIndividual();
-            MatchSet mp = profileMatcher.findMatchProfile(q);
-            job.setMatchSet(mp);
-            //LOG.info(mp);
-
+        // jobs share the matcher, so any lazy setup is done before they start
+        profileMatcher.precompute();
+
+        List<Job> jobs = new ArrayList<>();
+        if (runConfiguration.getPairwiseJobs() != null)
+            jobs.addAll(runConfiguration.getPairwiseJobs());
+        if (runConfiguration.getSearchJobs() != null)
+            jobs.addAll(runConfiguration.getSearchJobs());
+
+        int numThreads = getNumThreads();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            // bound the number of jobs whose results are held before being written
+            int maxInFlight = numThreads * JOBS_IN_FLIGHT_PER_THREAD;
+            Deque<Future<Job>> inFlight = new ArrayDeque<>();
+            Iterator<Job> it = jobs.iterator();
+            while (it.hasNext() || !inFlight.isEmpty()) {
+                while (it.hasNext() && inFlight.size() < maxInFlight) {
+                    Job job = it.next();
+                    inFlight.add(executor.submit(() -> executeJob(job)));
+                }
+                Job job = getResult(inFlight.removeFirst());
+                if (writer != null) {
+                    writer.write(job);
+                    job.setMatchSet(null);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            if (writer != null)
+                writer.flush();
         }
+    }
 
-        // search jobs
-        for (SearchJob job : runConfiguration.getSearchJobs()) {
-            job.setId();
-            ProfileQuery q = createProfileQuery(job);
-            //job.getTargetIndividual();
-            MatchSet mp = profileMatcher.findMatchProfile(q);
-            job.setMatchSet(mp);
-            //LOG.info(mp);
+    private Job executeJob(Job job) throws UnknownFilterException, IncoherentStateException {
+        job.setId();
+        ProfileQuery q = createProfileQuery(job);
+        MatchSet mp;
+        if (job instanceof PairwiseJob) {
+            // direct comparison; the target is not searched for
+            mp = MatchSetImpl.create(q);
+            Match m = profileMatcher.compareProfileToIndividual(q, ((PairwiseJob) job).getTargetIndividual());
+            if (m != null)
+                mp.add(m);
+            mp.sortMatches();
+        }
+        else {
+            mp = profileMatcher.findMatchProfile(q);
+        }
+        job.setMatchSet(mp);
+        return job;
+    }
 
+    private Job getResult(Future<Job> future) throws UnknownFilterException, IncoherentStateException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnknownFilterException)
+                throw (UnknownFilterException) cause;
+            if (cause instanceof IncoherentStateException)
+                throw (IncoherentStateException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
         }
-        return;
+    }
+
+    private int getNumThreads() {
+        Integer numThreads = runConfiguration.getNumThreads();
+        return numThreads == null ? Runtime.getRuntime().availableProcessors() : numThreads;
     }
 
     /**
@@ -216,6 +301,8 @@ public class RunEngine {
      * owlsim3 cfg.json out.json
      * </pre>
      * 
+     * If the output file ends with .ndjson, each job is written on its own line as it completes
+     * 
      * @param args
      * @throws IOException
      * @throws InstantiationException
@@ -230,9 +317,17 @@ public class RunEngine {
         RunConfiguration rc = RunnerUtil.generateRunConfigurationFromJsonFile(cfgFile);
         System.out.println(rc.getDescription());
         RunEngine re = new RunEngine(rc);
-        re.execute();
-        //LOG.info("Saving to: "+outFile);
-        re.toJsonFile(outFile);
+        if (outFile.endsWith(".ndjson")) {
+            // one job per line, written as jobs complete
+            NDJSONWriter writer = new NDJSONWriter(outFile);
+            re.execute(writer);
+            writer.close();
+        }
+        else {
+            re.execute();
+            //LOG.info("Saving to: "+outFile);
+            re.toJsonFile(outFile);
+        }
 
     }
 
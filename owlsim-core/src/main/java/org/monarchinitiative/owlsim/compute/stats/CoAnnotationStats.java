@@ -34,10 +34,10 @@ public class CoAnnotationStats {
 	 * Populates the sparse matrix using all existing individuals.
 	 */
 	public void populateFullCoAnnotationMatrix() {
-		Set<String> individuals = knowledgeBase.getIndividualIdsInSignature();
+		int numInds = knowledgeBase.getNumIndividualNodes();
 		
-		for (String individualId : individuals) {
-			int[] attributes = knowledgeBase.getDirectTypesBM(individualId).toArray();
+		for (int ibit = 0; ibit < numInds; ibit++) {
+			int[] attributes = knowledgeBase.getDirectTypesBM(ibit).toArray();
 
 			for (int i = 0; i < attributes.length - 1; i++) {
 				coAnnotationMatrix.addToEntry(attributes[i], attributes[i], 1);
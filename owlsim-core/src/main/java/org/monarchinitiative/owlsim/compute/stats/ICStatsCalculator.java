@@ -25,15 +25,15 @@ public class ICStatsCalculator {
 	private Logger LOG = Logger.getLogger(ICStatsCalculator.class);
 	private BMKnowledgeBase knowledgeBase;
 	private int[] frequencyByClassIndex;
-	private Double[] informationContentByClassIndex;
+	private double[] informationContentByClassIndex;
 	private DescriptiveStatistics[] iDescriptiveStatistics;
 	private SetDescriptiveStatistics dsKBIndSummary;		
 	
 
 	/**
-	 * The constructor will populate an array of information 
-	 * content (IC) scores per class index, given the frequencies 
-	 * per class index in the supplied knowledgeBase.
+	 * The constructor will obtain the array of information 
+	 * content (IC) scores per class index from the supplied knowledgeBase,
+	 * where it is computed once from the frequencies per class index.
 	 * IC is defined as the negative log of the probability
 	 * for a given class used in an annotation.
 	 * 
@@ -49,15 +49,7 @@ public class ICStatsCalculator {
 
 		//populate scores
 		frequencyByClassIndex = knowledgeBase.getIndividualCountPerClassArray();
-		int numInds = knowledgeBase.getIndividualIdsInSignature().size();
-		informationContentByClassIndex = new Double[frequencyByClassIndex.length];
-		for (int i=0; i<frequencyByClassIndex.length; i++) {
-			int freq = frequencyByClassIndex[i];
-			informationContentByClassIndex[i] = 
-					freq == 0 ?
-							-Math.log(freq / (double)numInds) :
-								-Math.log(freq / (double)numInds);
-		}
+		informationContentByClassIndex = knowledgeBase.getInformationContentPerClassArray();
 	}
 
 	/**
@@ -67,18 +59,17 @@ public class ICStatsCalculator {
 	 * entire knowledgeBase.
 	 */
 	public void calculateICSummary() {
-		Set<String> inds = knowledgeBase.getIndividualIdsInSignature();
+		int numInds = knowledgeBase.getNumIndividualNodes();
 		dsKBIndSummary = new SetDescriptiveStatistics();
-		this.iDescriptiveStatistics= new DescriptiveStatistics[inds.size()];
+		this.iDescriptiveStatistics= new DescriptiveStatistics[numInds];
 
 		//iterate over all individuals, and calculate their info profile
 		//add it to an array for easy access.
-		for (String individualId : inds) {
-			int ibit = knowledgeBase.getIndividualIndex(individualId);
-			EWAHCompressedBitmap attsBM = knowledgeBase.getDirectTypesBM(individualId);
+		for (int ibit = 0; ibit < numInds; ibit++) {
+			EWAHCompressedBitmap attsBM = knowledgeBase.getDirectTypesBM(ibit);
 			DescriptiveStatistics ds = new DescriptiveStatistics();
 			ds = getICStatsForAttributesByBM(attsBM);
-//			LOG.info(individualId+": "+ds.toString());
+//			LOG.info(knowledgeBase.getIndividualId(ibit)+": "+ds.toString());
 
 			//add the summary to the whole 
 			dsKBIndSummary.addSummary(ds);
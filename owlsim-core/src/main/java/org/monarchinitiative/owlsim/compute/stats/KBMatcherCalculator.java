@@ -1,14 +1,20 @@
 package org.monarchinitiative.owlsim.compute.stats;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.io.NDJSONWriter;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.filter.Filter;
 import org.monarchinitiative.owlsim.kb.filter.IdFilter;
+import org.monarchinitiative.owlsim.kb.filter.IndividualIndexRangeFilter;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
+import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.ProfileQueryFactory;
@@ -33,51 +39,155 @@ public class KBMatcherCalculator {
 	public KBMatcherCalculator(ProfileMatcher pm) {
 		this.profileMatcher = pm;
 		this.kb = pm.getKnowledgeBase();
-		matchScores = new DescriptiveStatistics[kb.getIndividualIdsInSignature().size()];
+		matchScores = new DescriptiveStatistics[kb.getNumIndividualNodes()];
 	}
 	
 	
+	/**
+	 * Rows written to an {@link NDJSONWriter} are computed in blocks of this
+	 * many per available processor, bounding the number of unwritten rows
+	 */
+	private static final int ROWS_PER_THREAD_PER_BLOCK = 16;
+
+	/**
+	 * Carries a checked exception out of a parallel stream
+	 */
+	private static class RowException extends RuntimeException {
+		RowException(IncoherentStateException e) {
+			super(e);
+		}
+	}
+	
 	/**
 	 * Calculate the comparison of all x all
 	 * individuals.  Since all individuals are being
 	 * compared, and will be necessary for evaluating statistics
-	 * we will store in an array.
+	 * we will store in an array. Rows are computed in parallel;
+	 * see {@link #computeRows(int[], Set)} for symmetric matchers.
 	 * @throws IncoherentStateException 
 	 * @throws UnknownFilterException 
 	 */
 	public void computeIxI() throws UnknownFilterException, IncoherentStateException {
-		Set<String> individualIds = kb.getIndividualIdsInSignature();
-		for (String iid : individualIds) {
-			int ibit = kb.getIndividualIndex(iid);
-			EWAHCompressedBitmap ibm = kb.getDirectTypesBM(iid);		
-			Set<String> iids = kb.getClassIds(ibm);
-			ProfileQuery q = ProfileQueryFactory.createQuery(iids);	
-			//compare against all other individuals
-			q.setLimit(-1);
-			MatchSet ms = profileMatcher.findMatchProfile(q);
-			matchScores[ibit] = ms.getScores();
+		computeRows(IntStream.range(0, kb.getNumIndividualNodes()).toArray(), null);
+	}
+	
+	/**
+	 * Calculate the comparison of all x all
+	 * individuals, writing each match as it is produced
+	 * rather than storing scores, so that memory use does
+	 * not grow with the number of rows. Rows are computed
+	 * in parallel, a block at a time, and written in index order.
+	 * 
+	 * @param writer - receives one line per match, tagged with the query individual
+	 * @throws IncoherentStateException 
+	 * @throws UnknownFilterException 
+	 */
+	public void computeIxI(NDJSONWriter writer) throws UnknownFilterException, IncoherentStateException {
+		int numInds = kb.getNumIndividualNodes();
+		int blockSize = Runtime.getRuntime().availableProcessors() * ROWS_PER_THREAD_PER_BLOCK;
+		MatchSet[] block = new MatchSet[blockSize];
+		for (int start = 0; start < numInds; start += blockSize) {
+			int end = Math.min(numInds, start + blockSize);
+			final int offset = start;
+			try {
+				IntStream.range(start, end).parallel().forEach(ibit -> {
+					block[ibit - offset] = matchRow(kb.getIndividualId(ibit), null);
+				});
+			}
+			catch (RowException e) {
+				throw (IncoherentStateException) e.getCause();
+			}
+			for (int ibit = start; ibit < end; ibit++) {
+				writer.writeMatches(kb.getIndividualId(ibit), block[ibit - start]);
+				block[ibit - start] = null;
+			}
 		}
+		writer.flush();
 	}
 	
 	/**
 	 * Calculate the comparison of all x all
-	 * for a selected subset of individuals.
+	 * for a selected subset of individuals. Rows are computed in parallel.
 	 * @throws IncoherentStateException 
 	 * @throws UnknownFilterException 
 	 */
 	public void computeIxI(Set<String> individualIds) throws UnknownFilterException, IncoherentStateException {
-		Filter idFilter = new IdFilter(individualIds);
-		
-		for (String iid : individualIds) {
-			int ibit = kb.getIndividualIndex(iid);
-			EWAHCompressedBitmap ibm = kb.getDirectTypesBM(iid);		
-			Set<String> iids = kb.getClassIds(ibm);
-			ProfileQuery q = ProfileQueryFactory.createQuery(iids);	
-			q.setFilter(idFilter);
-			//compare against selected individuals
-			q.setLimit(-1);
-			MatchSet ms = profileMatcher.findMatchProfile(q);
-			matchScores[ibit] = ms.getScores();
+		int[] ixs = individualIds.stream().mapToInt(kb::getIndividualIndex).sorted().toArray();
+		computeRows(ixs, individualIds);
+	}
+	
+	/**
+	 * Compares each individual in ixs against all individuals in ixs, storing
+	 * the scores of each row.
+	 * 
+	 * If the matcher is symmetric, the k-th row is only compared against
+	 * ixs[k..] and the scores are mirrored, halving the number of comparisons.
+	 * 
+	 * @param ixs - individual indices, ascending
+	 * @param individualIds - ids of ixs, or null if ixs covers all individuals
+	 * @throws IncoherentStateException
+	 */
+	private void computeRows(int[] ixs, Set<String> individualIds) throws IncoherentStateException {
+		Filter idFilter = individualIds == null ? null : new IdFilter(individualIds);
+		try {
+			if (!profileMatcher.isSymmetric()) {
+				Arrays.stream(ixs).parallel().forEach(ibit -> {
+					matchScores[ibit] = matchRow(kb.getIndividualId(ibit), idFilter).getScores();
+				});
+				return;
+			}
+			int m = ixs.length;
+			int numInds = kb.getNumIndividualNodes();
+			int[] positions = new int[numInds];
+			for (int k = 0; k < m; k++) {
+				positions[ixs[k]] = k;
+			}
+			double[][] scores = new double[m][m];
+			IntStream.range(0, m).parallel().forEach(k -> {
+				Filter rowFilter;
+				if (individualIds == null) {
+					rowFilter = IndividualIndexRangeFilter.create(ixs[k], numInds);
+				}
+				else {
+					Set<String> tail = new HashSet<>();
+					for (int k2 = k; k2 < m; k2++) {
+						tail.add(kb.getIndividualId(ixs[k2]));
+					}
+					rowFilter = new IdFilter(tail);
+				}
+				for (Match match : matchRow(kb.getIndividualId(ixs[k]), rowFilter).getMatches()) {
+					// row k only matches positions >= k, so each cell is written by exactly one row
+					int k2 = positions[kb.getIndividualIndex(match.getMatchId())];
+					scores[k][k2] = match.getScore();
+					scores[k2][k] = match.getScore();
+				}
+			});
+			for (int k = 0; k < m; k++) {
+				matchScores[ixs[k]] = new DescriptiveStatistics(scores[k]);
+				scores[k] = null;
+			}
+		}
+		catch (RowException e) {
+			throw (IncoherentStateException) e.getCause();
+		}
+	}
+	
+	/**
+	 * @param iid - query individual
+	 * @param filter - restricts targets, or null for all individuals
+	 * @return all matches for the direct types of iid
+	 */
+	private MatchSet matchRow(String iid, Filter filter) {
+		EWAHCompressedBitmap ibm = kb.getDirectTypesBM(iid);		
+		Set<String> iids = kb.getClassIds(ibm);
+		ProfileQuery q = ProfileQueryFactory.createQuery(iids);	
+		if (filter != null)
+			q.setFilter(filter);
+		q.setLimit(-1);
+		try {
+			return profileMatcher.findMatchProfile(q);
+		} catch (IncoherentStateException e) {
+			throw new RowException(e);
 		}
 	}
 	
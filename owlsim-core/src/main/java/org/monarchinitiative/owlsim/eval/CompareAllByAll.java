@@ -1,29 +1,62 @@
 package org.monarchinitiative.owlsim.eval;
 
-import java.util.Set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.filter.IndividualIndexRangeFilter;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
 import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 
 /**
  * Utility object for doing all-by-all comparisons.
- * 
+ *
+ * Rows (one per query individual) are computed in parallel. If the matcher
+ * is symmetric, each row i is only compared against individuals j &ge; i,
+ * halving the number of comparisons.
+ *
  * @author cjm
  *
  */
 public class CompareAllByAll {
-	
+
 	private Logger LOG = Logger.getLogger(CompareAllByAll.class);
 	private boolean writeToStdout = false;
 	ProfileMatcher profileMatcher;
-	
-	
-	
+
+	/**
+	 * Receives the scores for one row; called concurrently for distinct rows
+	 */
+	private interface RowHandler {
+		void handle(int i, MatchSet matchSet);
+	}
+
+	/**
+	 * Carries a checked exception out of a parallel stream
+	 */
+	private static class RowException extends RuntimeException {
+		RowException(IncoherentStateException e) {
+			super(e);
+		}
+	}
+
 	public CompareAllByAll(ProfileMatcher profileMatcher) {
 		super();
 		this.profileMatcher = profileMatcher;
@@ -31,30 +64,163 @@ public class CompareAllByAll {
 
 	/**
 	 * Perform all-by-all comparison of all individuals.
-	 * 
+	 *
 	 * The result is a 2D array indexed by the index-value of each individual
-	 * 
-	 * @return
+	 *
+	 * @return percentage scores, sm[i][j] being the score of j as a match for i
 	 * @throws UnknownFilterException
 	 * @throws IncoherentStateException
 	 */
 	public int[][] compareAllByAll() throws UnknownFilterException, IncoherentStateException {
 		BMKnowledgeBase kb = profileMatcher.getKnowledgeBase();
-		Set<String> indIds = kb.getIndividualIdsInSignature();
-		int n = indIds.size();
+		int n = kb.getNumIndividualNodes();
+		boolean isSymmetric = profileMatcher.isSymmetric();
 		int[][] sm = new int[n][n];
-		for (int i=0; i<n; i++) {
-			// this is a contorted way of doing things...
-			String ni = kb.getIndividualId(i);
-			MatchSet matchSet = profileMatcher.findMatchProfile(ni);
+		compareRows(0, n, (i, matchSet) -> {
 			for (Match match : matchSet.getMatches()) {
-				String mid = match.getMatchId();
-				int mix = kb.getIndividualIndex(mid);
+				int mix = kb.getIndividualIndex(match.getMatchId());
 				sm[i][mix] = match.getPercentageScore();
+				// row i only matches j >= i, so each cell is
+				// written by exactly one row and mirroring does not race
+				if (isSymmetric)
+					sm[mix][i] = match.getPercentageScore();
 			}
-		}
+		});
 		return sm;
 	}
-	
+
+	/**
+	 * Perform all-by-all comparison of all individuals, one tile of
+	 * tileSize rows at a time, writing each tile to dir as soon as it is
+	 * complete. Memory use is bounded by the tile size rather than
+	 * the square of the number of individuals.
+	 *
+	 * If the matcher is symmetric, only the upper triangle (j &ge; i) of
+	 * each tile is computed; {@link #readTile(File)} does not fill in the
+	 * lower triangle, as it is held by earlier tiles.
+	 *
+	 * @param dir - directory to write tiles to
+	 * @param tileSize - number of rows per tile
+	 * @return tile files, in row order
+	 * @throws IOException
+	 * @throws UnknownFilterException
+	 * @throws IncoherentStateException
+	 */
+	public List<File> compareAllByAll(File dir, int tileSize) throws IOException, UnknownFilterException, IncoherentStateException {
+		BMKnowledgeBase kb = profileMatcher.getKnowledgeBase();
+		int n = kb.getNumIndividualNodes();
+		boolean isSymmetric = profileMatcher.isSymmetric();
+		dir.mkdirs();
+		List<File> files = new ArrayList<>();
+		for (int start = 0; start < n; start += tileSize) {
+			int end = Math.min(n, start + tileSize);
+			int[][] tile = new int[end - start][n];
+			final int offset = start;
+			compareRows(start, end, (i, matchSet) -> {
+				for (Match match : matchSet.getMatches()) {
+					tile[i - offset][kb.getIndividualIndex(match.getMatchId())] = match.getPercentageScore();
+				}
+			});
+			File file = new File(dir, "all-by-all-" + start + "-" + end + ".bin");
+			writeTile(file, start, tile, isSymmetric);
+			LOG.info("Wrote rows " + start + "-" + end + " of " + n + " to " + file);
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * A block of rows of an all-by-all comparison, as written by
+	 * {@link CompareAllByAll#compareAllByAll(File, int)}
+	 */
+	public static class Tile {
+		public final int startRow;
+		public final boolean isUpperTriangle;
+		public final int[][] scores;
+
+		public Tile(int startRow, boolean isUpperTriangle, int[][] scores) {
+			this.startRow = startRow;
+			this.isUpperTriangle = isUpperTriangle;
+			this.scores = scores;
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return tile read from file
+	 * @throws IOException
+	 */
+	public static Tile readTile(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int startRow = in.readInt();
+			int numRows = in.readInt();
+			int numCols = in.readInt();
+			boolean isUpperTriangle = in.readBoolean();
+			int[][] scores = new int[numRows][numCols];
+			for (int r = 0; r < numRows; r++) {
+				int from = isUpperTriangle ? startRow + r : 0;
+				for (int j = from; j < numCols; j++) {
+					scores[r][j] = in.readInt();
+				}
+			}
+			return new Tile(startRow, isUpperTriangle, scores);
+		}
+	}
+
+	// written to a temporary file that is then renamed, so an interrupted run never leaves a truncated tile
+	private void writeTile(File file, int startRow, int[][] tile, boolean isUpperTriangle) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			writeTileTo(tmp, startRow, tile, isUpperTriangle);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	private void writeTileTo(File file, int startRow, int[][] tile, boolean isUpperTriangle) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			int numCols = tile.length == 0 ? 0 : tile[0].length;
+			out.writeInt(startRow);
+			out.writeInt(tile.length);
+			out.writeInt(numCols);
+			out.writeBoolean(isUpperTriangle);
+			for (int r = 0; r < tile.length; r++) {
+				int from = isUpperTriangle ? startRow + r : 0;
+				for (int j = from; j < numCols; j++) {
+					out.writeInt(tile[r][j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares each individual with index in [start, end) against all
+	 * individuals (or against those at or after it, if the matcher
+	 * is symmetric), in parallel
+	 */
+	private void compareRows(int start, int end, RowHandler handler) throws UnknownFilterException, IncoherentStateException {
+		BMKnowledgeBase kb = profileMatcher.getKnowledgeBase();
+		int n = kb.getNumIndividualNodes();
+		boolean isSymmetric = profileMatcher.isSymmetric();
+		try {
+			IntStream.range(start, end).parallel().forEach(i -> {
+				ProfileQuery q = profileMatcher.createProfileQuery(kb.getIndividualId(i));
+				q.setLimit(-1);
+				if (isSymmetric)
+					q.setFilter(IndividualIndexRangeFilter.create(i, n));
+				try {
+					handler.handle(i, profileMatcher.findMatchProfile(q));
+				} catch (IncoherentStateException e) {
+					throw new RowException(e);
+				}
+				LOG.debug("Compared row " + i);
+			});
+		}
+		catch (RowException e) {
+			throw (IncoherentStateException) e.getCause();
+		}
+	}
 
 }
@@ -45,11 +45,11 @@ public class BackgroundData {
 	
 	public void setMaxLengthFromInstances() {
 		int m = 0;
-		Set<String> individuals = knowledgeBase.getIndividualIdsInSignature();
+		int numInds = knowledgeBase.getNumIndividualNodes();
 
-		for (String iid : individuals) {
+		for (int ibit = 0; ibit < numInds; ibit++) {
 			int x=0;
-			x = knowledgeBase.getDirectTypesBM(iid).cardinality();
+			x = knowledgeBase.getDirectTypesBM(ibit).cardinality();
 			m = Math.max(m, x);
 		}
 		LOG.info("Set max length from instances: "+m);
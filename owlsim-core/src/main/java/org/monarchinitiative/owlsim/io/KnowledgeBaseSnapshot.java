@@ -0,0 +1,583 @@
+package org.monarchinitiative.owlsim.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.LabelMapper;
+import org.monarchinitiative.owlsim.kb.ewah.EWAHKnowledgeBaseStore;
+import org.monarchinitiative.owlsim.kb.impl.BMKnowledgeBaseSnapshotImpl;
+import org.monarchinitiative.owlsim.kb.impl.CURIEMapperImpl;
+import org.monarchinitiative.owlsim.kb.impl.IdIndex;
+import org.monarchinitiative.owlsim.kb.impl.LabelMapperImpl;
+import org.prefixcommons.CurieUtil;
+
+import com.google.common.hash.Hashing;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Reads and writes a built {@link BMKnowledgeBase} as a binary snapshot.
+ *
+ * A snapshot contains everything needed to answer queries: the class and individual
+ * bitmaps, id tables, labels, weighted direct types, property values and prefix mappings.
+ * Reading a snapshot does not involve the OWLAPI or a reasoner, so is much faster than
+ * building a kb from ontologies.
+ *
+ * Format: an 8 byte magic number, a format version, a fingerprint of the sources the kb
+ * was built from, the body, and a CRC32 checksum of all preceding bytes. Snapshots with a
+ * different version or a checksum mismatch are rejected. Callers compare the fingerprint
+ * (see {@link #readFingerprint(File)}) to detect snapshots made from sources that have
+ * since changed.
+ *
+ * @author cjm
+ *
+ */
+public class KnowledgeBaseSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(KnowledgeBaseSnapshot.class);
+
+	private static final byte[] MAGIC = "OWLSIMKB".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Current format version; incremented on any change to the layout
+	 */
+	public static final int VERSION = 2;
+
+	// fingerprints are hex digests; anything longer is not a valid header
+	private static final int MAX_FINGERPRINT_LENGTH = 1024;
+
+	private KnowledgeBaseSnapshot() {
+		//class is uninstantiable
+	}
+
+	/**
+	 * @param kb
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(BMKnowledgeBase kb, File file) throws IOException {
+		write(kb, file, "");
+	}
+
+	/**
+	 * Writes to a temporary file in the same directory, which is then renamed,
+	 * so that an interrupted write never leaves a truncated snapshot behind
+	 *
+	 * @param kb
+	 * @param file
+	 * @param fingerprint - identifies the sources kb was built from; see {@link #fingerprint(Collection)}
+	 * @throws IOException
+	 */
+	public static void write(BMKnowledgeBase kb, File file, String fingerprint) throws IOException {
+		Instant start = Instant.now();
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("." + file.getName() + ".", ".tmp", dir);
+		try {
+			try (OutputStream os = new FileOutputStream(tmp)) {
+				write(kb, os, fingerprint);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+		LOG.info("Wrote snapshot to " + file + " in " + Duration.between(start, Instant.now()).toMillis() + " ms");
+	}
+
+	/**
+	 * Writes a snapshot to a stream. The stream is flushed but not closed.
+	 *
+	 * @param kb
+	 * @param os
+	 * @throws IOException
+	 */
+	public static void write(BMKnowledgeBase kb, OutputStream os) throws IOException {
+		write(kb, os, "");
+	}
+
+	/**
+	 * @param kb
+	 * @param os
+	 * @param fingerprint
+	 * @throws IOException
+	 */
+	public static void write(BMKnowledgeBase kb, OutputStream os, String fingerprint) throws IOException {
+		CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(os), new CRC32());
+		DataOutputStream out = new DataOutputStream(cos);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		writeString(out, fingerprint == null ? "" : fingerprint);
+
+		Map<String, String> curieMap = kb.getCurieUtil().getCurieMap();
+		out.writeInt(curieMap.size());
+		for (Map.Entry<String, String> e : curieMap.entrySet()) {
+			writeString(out, e.getKey());
+			writeString(out, e.getValue());
+		}
+
+		int numClasses = kb.getNumClassNodes();
+		int numIndividuals = kb.getNumIndividualNodes();
+		out.writeInt(numClasses);
+		out.writeInt(numIndividuals);
+		out.writeInt(kb.getRootIndex());
+
+		int[] counts = kb.getIndividualCountPerClassArray();
+		for (int cix = 0; cix < numClasses; cix++) {
+			// representative id first
+			String rep = kb.getClassId(cix);
+			Set<String> members = kb.getClassIds(cix);
+			members.remove(rep);
+			out.writeInt(members.size() + 1);
+			writeString(out, rep);
+			for (String id : members) {
+				writeString(out, id);
+			}
+			writeBitmap(out, kb.getSuperClassesBM(cix));
+			writeBitmap(out, kb.getDirectSuperClassesBM(cix));
+			writeBitmap(out, kb.getSubClasses(cix));
+			writeBitmap(out, kb.getDirectSubClassesBM(cix));
+			writeBitmap(out, kb.getDirectIndividualsBM(cix));
+			out.writeInt(counts[cix]);
+		}
+		writeSignature(out, kb.getClassIdsInSignature(), kb::getClassIndex);
+
+		for (int iix = 0; iix < numIndividuals; iix++) {
+			String id = kb.getIndividualId(iix);
+			writeString(out, id);
+			writeBitmap(out, kb.getTypesBM(iix));
+			writeBitmap(out, kb.getDirectTypesBM(iix));
+			writeBitmap(out, kb.getNegatedTypesBM(id));
+			writeBitmap(out, kb.getDirectNegatedTypesBM(id));
+			Map<Integer, Integer> wmap = kb.getDirectWeightedTypes(id);
+			if (wmap == null) {
+				out.writeInt(-1);
+			}
+			else {
+				out.writeInt(wmap.size());
+				for (Map.Entry<Integer, Integer> e : wmap.entrySet()) {
+					out.writeInt(e.getKey());
+					out.writeInt(e.getValue());
+				}
+			}
+		}
+		Set<String> individualIds = kb.getIndividualIdsInSignature();
+		writeSignature(out, individualIds, kb::getIndividualIndex);
+
+		// property values are keyed by id, not by index
+		int numWithPVs = 0;
+		for (String id : individualIds) {
+			if (kb.getPropertyValueMap(id) != null)
+				numWithPVs++;
+		}
+		out.writeInt(numWithPVs);
+		for (String id : individualIds) {
+			Map<String, Set<Object>> pvm = kb.getPropertyValueMap(id);
+			if (pvm == null)
+				continue;
+			writeString(out, id);
+			out.writeInt(pvm.size());
+			for (Map.Entry<String, Set<Object>> e : pvm.entrySet()) {
+				writeString(out, e.getKey());
+				out.writeInt(e.getValue().size());
+				for (Object v : e.getValue()) {
+					writeString(out, String.valueOf(v));
+				}
+			}
+		}
+
+		LabelMapper labelMapper = kb.getLabelMapper();
+		Set<String> labeledIds = labelMapper.getIds();
+		out.writeInt(labeledIds.size());
+		for (String id : labeledIds) {
+			writeString(out, id);
+			Set<String> labels = labelMapper.getLabel(id);
+			out.writeInt(labels.size());
+			for (String label : labels) {
+				writeString(out, label);
+			}
+		}
+
+		out.flush();
+		out.writeLong(cos.getChecksum().getValue());
+		out.flush();
+	}
+
+	/**
+	 * A fingerprint of the sources a kb is built from. Local files contribute their
+	 * path, size and modification time. Remote http(s) sources contribute their URL plus
+	 * the ETag and Last-Modified headers of a HEAD request. Anything that is neither a
+	 * file nor a URL (e.g. a prefix map) contributes only itself.
+	 *
+	 * A remote source with neither header, or that cannot be reached, cannot be
+	 * fingerprinted, as a change to it could not be detected.
+	 *
+	 * @param sources - paths, URIs, or any other strings that determine the kb
+	 * @return fingerprint, which changes if any of the sources change; null if a
+	 *   remote source cannot be fingerprinted
+	 */
+	public static String fingerprint(Collection<String> sources) {
+		StringBuilder sb = new StringBuilder();
+		for (String source : sources) {
+			sb.append(source);
+			File f = source.startsWith("file:") ? new File(URI.create(source)) : new File(source);
+			if (f.isFile()) {
+				sb.append('\t').append(f.length()).append('\t').append(f.lastModified());
+			}
+			else if (isRemote(source)) {
+				String version = getRemoteVersion(source);
+				if (version == null) {
+					LOG.info("Cannot detect changes to " + source + "; no fingerprint");
+					return null;
+				}
+				sb.append('\t').append(version);
+			}
+			sb.append('\n');
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+
+	private static boolean isRemote(String source) {
+		try {
+			return !new URL(source).getProtocol().equals("file");
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+
+	// ETag and Last-Modified of an http(s) source, following redirects (e.g. from a
+	// purl); null if there are neither, or the source is not http(s) or cannot be reached
+	private static String getRemoteVersion(String source) {
+		try {
+			URL url = new URL(source);
+			for (int redirects = 0; redirects < 10; redirects++) {
+				if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https"))
+					return null;
+				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+				try {
+					conn.setRequestMethod("HEAD");
+					// redirects are followed here, as they may change protocol
+					conn.setInstanceFollowRedirects(false);
+					conn.setConnectTimeout(10000);
+					conn.setReadTimeout(10000);
+					int status = conn.getResponseCode();
+					if (status >= 300 && status < 400 && conn.getHeaderField("Location") != null) {
+						url = new URL(url, conn.getHeaderField("Location"));
+						continue;
+					}
+					String etag = conn.getHeaderField("ETag");
+					String lastModified = conn.getHeaderField("Last-Modified");
+					if (status != HttpURLConnection.HTTP_OK || (etag == null && lastModified == null))
+						return null;
+					return url + "\t" + etag + "\t" + lastModified;
+				} finally {
+					conn.disconnect();
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			LOG.warn("Could not fetch headers of " + source + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads only the header of a snapshot
+	 *
+	 * @param file
+	 * @return fingerprint the snapshot was written with
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 */
+	public static String readFingerprint(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return readHeader(in);
+		}
+	}
+
+	// returns the fingerprint
+	private static String readHeader(DataInputStream in) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not an owlsim knowledge base snapshot");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version: " + version + " (expected " + VERSION + ")");
+		}
+		int n = in.readInt();
+		if (n < 0 || n > MAX_FINGERPRINT_LENGTH) {
+			throw new IOException("Invalid fingerprint length in snapshot: " + n);
+		}
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The checksum is verified before the snapshot is parsed, so a corrupt or
+	 * truncated file is rejected before any counts or sizes are read from it
+	 *
+	 * @param file
+	 * @return kb
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 */
+	public static BMKnowledgeBase read(File file) throws IOException {
+		Instant start = Instant.now();
+		verifyChecksum(file);
+		BMKnowledgeBase kb;
+		try (InputStream is = new FileInputStream(file)) {
+			kb = read(is);
+		}
+		LOG.info("Read snapshot from " + file + " in " + Duration.between(start, Instant.now()).toMillis() + " ms");
+		return kb;
+	}
+
+	/**
+	 * Reads a snapshot from a stream. The stream is not closed.
+	 *
+	 * The checksum can only be verified once the whole stream has been read;
+	 * use {@link #read(File)} for snapshots that may be corrupt.
+	 *
+	 * @param is
+	 * @return kb
+	 * @throws IOException if the stream cannot be read, or is not a valid snapshot
+	 */
+	public static BMKnowledgeBase read(InputStream is) throws IOException {
+		return read(is, EWAHKnowledgeBaseStore.DEFAULT_INDIVIDUALS_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param is
+	 * @param individualsMemoryBudget - see {@link EWAHKnowledgeBaseStore#materializeIndividuals(long)}
+	 * @return kb
+	 * @throws IOException if the stream cannot be read, or is not a valid snapshot
+	 */
+	public static BMKnowledgeBase read(InputStream is, long individualsMemoryBudget) throws IOException {
+		try {
+			return readChecked(is, individualsMemoryBudget);
+		} catch (RuntimeException e) {
+			// e.g. an index out of range in a corrupt snapshot
+			throw new IOException("Invalid snapshot: " + e, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BMKnowledgeBase readChecked(InputStream is, long individualsMemoryBudget) throws IOException {
+		CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(is), new CRC32());
+		DataInputStream in = new DataInputStream(cis);
+		readHeader(in);
+
+		int numPrefixes = readCount(in);
+		Map<String, String> curieMap = new HashMap<>();
+		for (int i = 0; i < numPrefixes; i++) {
+			curieMap.put(readString(in), readString(in));
+		}
+
+		int numClasses = readCount(in);
+		int numIndividuals = readCount(in);
+		int rootIndex = in.readInt();
+		if (rootIndex < 0 || rootIndex >= numClasses) {
+			throw new IOException("Invalid root index in snapshot: " + rootIndex);
+		}
+		EWAHKnowledgeBaseStore store = new EWAHKnowledgeBaseStore(numClasses, numIndividuals);
+
+		String[][] classNodeIds = new String[numClasses][];
+		String[] classIds = new String[numClasses];
+		int[] counts = new int[numClasses];
+		for (int cix = 0; cix < numClasses; cix++) {
+			int numMembers = readCount(in);
+			if (numMembers == 0) {
+				throw new IOException("Empty class node in snapshot: " + cix);
+			}
+			String[] members = new String[numMembers];
+			for (int j = 0; j < members.length; j++) {
+				members[j] = readString(in);
+			}
+			classNodeIds[cix] = members;
+			classIds[cix] = members[0];
+			store.setSuperClasses(cix, readBitmap(in));
+			store.setDirectSuperClasses(cix, readBitmap(in));
+			store.setSubClasses(cix, readBitmap(in));
+			store.setDirectSubClasses(cix, readBitmap(in));
+			store.setDirectIndividuals(cix, readBitmap(in));
+			counts[cix] = in.readInt();
+		}
+		Set<String> classIdSet = new HashSet<>();
+		IdIndex classIdIndex = readSignature(in, classIds, classIdSet);
+
+		String[] individualIds = new String[numIndividuals];
+		Map<Integer, Integer>[] weightedTypes = new Map[numIndividuals];
+		for (int iix = 0; iix < numIndividuals; iix++) {
+			individualIds[iix] = readString(in);
+			store.setTypes(iix, readBitmap(in));
+			store.setDirectTypes(iix, readBitmap(in));
+			store.setNegatedTypes(iix, readBitmap(in));
+			store.setDirectNegatedTypes(iix, readBitmap(in));
+			int n = in.readInt();
+			if (n >= 0) {
+				Map<Integer, Integer> wmap = new HashMap<>();
+				for (int j = 0; j < n; j++) {
+					wmap.put(in.readInt(), in.readInt());
+				}
+				weightedTypes[iix] = wmap;
+			}
+		}
+		Set<String> individualIdSet = new HashSet<>();
+		IdIndex individualIdIndex = readSignature(in, individualIds, individualIdSet);
+
+		int numWithPVs = readCount(in);
+		Map<String, Map<String, Set<Object>>> propertyValueMapMap = new HashMap<>();
+		for (int i = 0; i < numWithPVs; i++) {
+			String id = readString(in);
+			int numProps = readCount(in);
+			Map<String, Set<Object>> pvm = new HashMap<>();
+			for (int j = 0; j < numProps; j++) {
+				String p = readString(in);
+				int numVals = readCount(in);
+				Set<Object> vals = new HashSet<>();
+				for (int k = 0; k < numVals; k++) {
+					vals.add(readString(in));
+				}
+				pvm.put(p, vals);
+			}
+			propertyValueMapMap.put(id, pvm);
+		}
+
+		LabelMapper labelMapper = new LabelMapperImpl(new CURIEMapperImpl());
+		int numLabeled = readCount(in);
+		for (int i = 0; i < numLabeled; i++) {
+			String id = readString(in);
+			int numLabels = readCount(in);
+			for (int j = 0; j < numLabels; j++) {
+				labelMapper.add(id, readString(in));
+			}
+		}
+
+		long expected = cis.getChecksum().getValue();
+		long actual = in.readLong();
+		if (expected != actual) {
+			throw new IOException("Snapshot checksum mismatch; file is corrupt or truncated");
+		}
+
+		store.materializeIndividuals(individualsMemoryBudget);
+		return new BMKnowledgeBaseSnapshotImpl(store,
+				classIdIndex, classNodeIds, Collections.unmodifiableSet(classIdSet),
+				individualIdIndex, Collections.unmodifiableSet(individualIdSet),
+				counts, rootIndex, weightedTypes, propertyValueMapMap,
+				labelMapper, new CurieUtil(curieMap));
+	}
+
+	private interface IndexFunction {
+		int getIndex(String id);
+	}
+
+	// all ids in the signature, each with the index it maps to
+	private static void writeSignature(DataOutputStream out, Set<String> ids, IndexFunction f) throws IOException {
+		out.writeInt(ids.size());
+		for (String id : ids) {
+			writeString(out, id);
+			out.writeInt(f.getIndex(id));
+		}
+	}
+
+	private static IdIndex readSignature(DataInputStream in, String[] representativeIds, Set<String> idSet) throws IOException {
+		int n = readCount(in);
+		IdIndex index = new IdIndex(representativeIds, n);
+		for (int i = 0; i < n; i++) {
+			String id = readString(in);
+			index.put(id, in.readInt());
+			idSet.add(id);
+		}
+		return index;
+	}
+
+	private static int readCount(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) {
+			throw new IOException("Invalid count in snapshot: " + n);
+		}
+		return n;
+	}
+
+	// compares the checksum at the end of the file with that of all preceding bytes
+	private static void verifyChecksum(File file) throws IOException {
+		long remaining = file.length() - 8;
+		if (remaining < MAGIC.length + 8) {
+			throw new IOException("Snapshot is truncated: " + file);
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			byte[] buf = new byte[1 << 16];
+			while (remaining > 0) {
+				int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if (n < 0) {
+					throw new EOFException("Snapshot is truncated: " + file);
+				}
+				crc.update(buf, 0, n);
+				remaining -= n;
+			}
+			if (crc.getValue() != in.readLong()) {
+				throw new IOException("Snapshot checksum mismatch; file is corrupt or truncated");
+			}
+		}
+	}
+
+	private static void writeBitmap(DataOutputStream out, EWAHCompressedBitmap bm) throws IOException {
+		if (bm == null)
+			bm = new EWAHCompressedBitmap();
+		bm.serialize(out);
+	}
+
+	private static EWAHCompressedBitmap readBitmap(DataInputStream in) throws IOException {
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		bm.deserialize(in);
+		return bm;
+	}
+
+	// unlike writeUTF, not limited to 64k
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) {
+			throw new IOException("Invalid string length in snapshot: " + n);
+		}
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.monarchinitiative.owlsim.io;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Writes model objects as newline-delimited JSON, one object per line.
+ *
+ * Unlike {@link JSONWriter}, nothing is pretty-printed and each object is
+ * written as soon as it is passed in, so large outputs such as all-by-all
+ * comparisons can be written incrementally without holding them in memory.
+ *
+ * Output is buffered; call {@link #close()} when done.
+ *
+ * @author cjm
+ *
+ */
+public class NDJSONWriter extends AbstractWriter {
+
+	private final Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+
+	/**
+	 * A single line of {@link NDJSONWriter#writeMatches(String, MatchSet)} output
+	 */
+	public static class QueryMatch {
+		String queryId;
+		Match match;
+
+		public QueryMatch(String queryId, Match match) {
+			this.queryId = queryId;
+			this.match = match;
+		}
+	}
+
+	/**
+	 * @param stream
+	 */
+	public NDJSONWriter(PrintStream stream) {
+		super(stream);
+	}
+
+	/**
+	 * @param file
+	 * @throws FileNotFoundException
+	 */
+	public NDJSONWriter(String file) throws FileNotFoundException {
+		super(file);
+	}
+
+	/**
+	 * Writes a Gson-ready object as a single line
+	 *
+	 * @param obj
+	 */
+	public void write(Object obj) {
+		stream.println(gson.toJson(obj));
+	}
+
+	/**
+	 * Writes each match on its own line, tagged with the query id
+	 *
+	 * @param queryId
+	 * @param matchSet
+	 */
+	public void writeMatches(String queryId, MatchSet matchSet) {
+		for (Match m : matchSet.getMatches()) {
+			write(new QueryMatch(queryId, m));
+		}
+	}
+
+	public void flush() {
+		stream.flush();
+	}
+
+	public void close() {
+		stream.close();
+	}
+
+	public String toString() {
+		return "NDJSONWriter file: "+stream;
+	}
+
+}
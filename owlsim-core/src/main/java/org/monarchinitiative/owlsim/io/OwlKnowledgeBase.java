@@ -2,6 +2,7 @@ package org.monarchinitiative.owlsim.io;
 
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.ewah.EWAHKnowledgeBaseStore;
 import org.monarchinitiative.owlsim.kb.impl.BMKnowledgeBaseOWLAPIImpl;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
@@ -34,6 +35,8 @@ public final class OwlKnowledgeBase {
 
         private Concurrency concurrencyType = Concurrency.CONCURRENT;
         private OWLReasonerFactory owlReasonerFactory = new ElkReasonerFactory();
+        private long individualsMemoryBudget = EWAHKnowledgeBaseStore.DEFAULT_INDIVIDUALS_MEMORY_BUDGET;
+        private boolean isParallel = false;
 
         //TODO: do we want to expose this or keep it here? Chris mentioned we might want a way of keeping track of what the original source data was.
         //So this is where it is. It's so tightly coupled this is literally a conjoined twin at the moment.
@@ -160,6 +163,29 @@ public final class OwlKnowledgeBase {
             return this;
         }
 
+        /**
+         * Sets the number of bytes available for precomputing the individuals of each class.
+         * Classes over the budget are computed on demand. Use 0 to disable precomputation.
+         *
+         * @param individualsMemoryBudget
+         */
+        public Loader materializeIndividuals(long individualsMemoryBudget) {
+            this.individualsMemoryBudget = individualsMemoryBudget;
+            return this;
+        }
+
+        /**
+         * Fetches inferences from the reasoner using multiple threads (default false). Only honoured for the
+         * {@link ElkReasonerFactory} with a concurrent ontology manager; other reasoners are always queried
+         * from a single thread. Bitmaps are built using multiple threads either way.
+         *
+         * @param isParallel
+         */
+        public Loader buildInParallel(boolean isParallel) {
+            this.isParallel = isParallel;
+            return this;
+        }
+
         /**
          * @return handle for a Bitmap-based Knowledge Base
          */
@@ -168,7 +194,7 @@ public final class OwlKnowledgeBase {
             OntologySourceData sourceData = sourceDataBuilder.build();
             Ontology ontology = Ontology.load(sourceData, concurrencyType);
 
-            return BMKnowledgeBaseOWLAPIImpl.create(ontology, owlReasonerFactory);
+            return BMKnowledgeBaseOWLAPIImpl.create(ontology, owlReasonerFactory, individualsMemoryBudget, isParallel);
         }
 
     }
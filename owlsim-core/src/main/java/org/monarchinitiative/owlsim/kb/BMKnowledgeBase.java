@@ -5,6 +5,7 @@ import org.monarchinitiative.owlsim.io.OwlKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.impl.BMKnowledgeBaseOWLAPIImpl;
 import org.monarchinitiative.owlsim.model.kb.Attribute;
 import org.monarchinitiative.owlsim.model.kb.Entity;
+import org.prefixcommons.CurieUtil;
 
 import java.util.Map;
 import java.util.Set;
@@ -91,6 +92,14 @@ public interface BMKnowledgeBase {
 	 * @return set of all individual identifiers
 	 */
 	public Set<String> getIndividualIdsInSignature();
+
+	/**
+	 * Individual indices run from 0 to getNumIndividualNodes()-1, allowing
+	 * iteration over all individuals without going via String identifiers
+	 * 
+	 * @return size of the kb by individual node
+	 */
+	public int getNumIndividualNodes();
 	
 	/**
 	 * @param individualId
@@ -98,7 +107,12 @@ public interface BMKnowledgeBase {
 	 */
 	public int getIndividualIndex(String individualId);
 
-	
+	/**
+	 * Note: if an individual node has >1 member, the *representative* id is returned
+	 * 
+	 * @param index
+	 * @return individualId
+	 */
 	public String getIndividualId(int index);
 	
 	/**
@@ -204,12 +218,24 @@ public interface BMKnowledgeBase {
 	 */
 	public EWAHCompressedBitmap getTypesBM(String id);
 
+    /**
+     * @param individualIndex
+     * @return types (direct and indirect) as bitmap
+     */
+    public EWAHCompressedBitmap getTypesBM(int individualIndex);
+
     /**
      * @param id - an individual
      * @return direct types as bitmap
      */
     public EWAHCompressedBitmap getDirectTypesBM(String id);
 
+    /**
+     * @param individualIndex
+     * @return direct types as bitmap
+     */
+    public EWAHCompressedBitmap getDirectTypesBM(int individualIndex);
+
     /**
      * @param id - an individual
      * @return map between Type class index and 0<weight<=100, where probability = weight/100
@@ -309,6 +335,15 @@ public interface BMKnowledgeBase {
 	 */
 	public int[] getIndividualCountPerClassArray();
 
+	/**
+	 * Information content is -log(freq(C)/corpusSize), where corpusSize is the
+	 * number of individuals in the signature. Calculated once per kb; callers
+	 * must not modify the array.
+	 * 
+	 * @return array indexed by classIndex yielding the IC of each class
+	 */
+	public double[] getInformationContentPerClassArray();
+
 	/**
 	 * @param classId - an identifier for a class
 	 * @return a bitmap representation of only the individuals that (directly or indirectly)
@@ -317,12 +352,38 @@ public interface BMKnowledgeBase {
 	public EWAHCompressedBitmap getIndividualsBM(String classId);
 
 	/**
+	 * Note: the returned bitmap may be shared, and must not be modified
+	 * 
 	 * @param classIndex - index for a class
 	 * @return a bitmap representation of only the individuals that (directly or indirectly)
 	 *   instantiate classId
 	 */
 	public EWAHCompressedBitmap getIndividualsBM(int classIndex);
 
+	/**
+	 * @param classIndex - index for a class
+	 * @return a bitmap representation of the individuals directly asserted to instantiate
+	 *   the class (or any class equivalent to it)
+	 */
+	public EWAHCompressedBitmap getDirectIndividualsBM(int classIndex);
+
+	/**
+	 * Indexed on first use of each prefix; the returned bitmap is shared, and must not be modified
+	 *
+	 * @param prefix - e.g. "MGI:"
+	 * @return a bitmap representation of the individuals with an id starting with prefix
+	 */
+	public EWAHCompressedBitmap getIndividualsWithIdPrefixBM(String prefix);
+
+	/**
+	 * Indexed on first use of each property; the returned bitmap is shared, and must not be modified
+	 *
+	 * @param property
+	 * @param value
+	 * @return a bitmap representation of the individuals that have value as a value of property
+	 */
+	public EWAHCompressedBitmap getIndividualsWithPropertyValueBM(String property, Object value);
+
 	/**
 	 * @param individualId
 	 * @return property-value map
@@ -343,6 +404,22 @@ public interface BMKnowledgeBase {
 	 */
 	public EWAHCompressedBitmap[] getStoredDirectSubClassIndex();
 
+	/**
+	 * Direct subclasses of every class as primitive arrays, derived from
+	 * {@link #getStoredDirectSubClassIndex()}. Calculated once per kb; callers
+	 * must not modify the arrays.
+	 * 
+	 * @return array indexed by classIndex yielding direct subclass indices, in ascending order
+	 */
+	public int[][] getDirectSubClassIndicesPerClassArray();
+
+	/**
+	 * Calculated once per kb; callers must not modify the array.
+	 * 
+	 * @return array indexed by classIndex yielding the number of direct superclasses
+	 */
+	public int[] getDirectSuperClassCountPerClassArray();
+
 	/**
 	 * Every kb is guaranteed to have exactly one root index
 	 * 
@@ -358,6 +435,11 @@ public interface BMKnowledgeBase {
 	 */
 	public String resolveIri(String entity);
 
+	/**
+	 * @return prefix mappings used to translate between IRIs and CURIEs
+	 */
+	public CurieUtil getCurieUtil();
+
 	
 	
 	public static OwlKnowledgeBase.Loader owlLoader() {
@@ -49,5 +49,10 @@ public interface LabelMapper {
 	 */
 	public String  getArbitraryLabel(String id);
 
+	/**
+	 * @return all ids that have at least one label
+	 */
+	public Set<String> getIds();
+
 	public void add(String shortForm, String literal);
 }
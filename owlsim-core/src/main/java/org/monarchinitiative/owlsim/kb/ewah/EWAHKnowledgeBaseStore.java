@@ -1,8 +1,16 @@
 package org.monarchinitiative.owlsim.kb.ewah;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 
 /**
@@ -21,8 +29,17 @@ import com.googlecode.javaewah.EWAHCompressedBitmap;
  */
 public class EWAHKnowledgeBaseStore {
 	
-	//private Logger LOG = Logger.getLogger(EWAHKnowledgeBaseStore.class);
+	private Logger LOG = Logger.getLogger(EWAHKnowledgeBaseStore.class);
 
+	/**
+	 * default maximum number of bytes used by materialized individuals bitmaps
+	 */
+	public static final long DEFAULT_INDIVIDUALS_MEMORY_BUDGET = 128L * 1024 * 1024;
+
+	/**
+	 * default number of lazily computed individuals bitmaps retained
+	 */
+	public static final int DEFAULT_INDIVIDUALS_CACHE_SIZE = 1000;
 	
 	private int numberOfClasses;
 	private int numberOfIndividuals;
@@ -35,6 +52,9 @@ public class EWAHKnowledgeBaseStore {
 	private EWAHCompressedBitmap[] storedNegatedTypes;        // by ind
 	private EWAHCompressedBitmap[] storedDirectNegatedTypes;        // by ind
 	private EWAHCompressedBitmap[] storedDirectIndividuals;   // by class
+	private EWAHCompressedBitmap[] storedIndividuals;         // by class; null if not materialized
+	private Map<Integer, EWAHCompressedBitmap> individualsCache;
+	private long individualsMemoryUsed = 0;
 	
 	/**
 	 * @param numberOfClasses
@@ -54,6 +74,8 @@ public class EWAHKnowledgeBaseStore {
 		storedNegatedTypes =  new EWAHCompressedBitmap[numberOfIndividuals];
 		storedDirectNegatedTypes =  new EWAHCompressedBitmap[numberOfIndividuals];
 		storedDirectIndividuals =  new EWAHCompressedBitmap[numberOfClasses];
+		storedIndividuals =  new EWAHCompressedBitmap[numberOfClasses];
+		setIndividualsCacheSize(DEFAULT_INDIVIDUALS_CACHE_SIZE);
 	}
 
 	/**
@@ -259,6 +281,144 @@ public class EWAHKnowledgeBaseStore {
 		return storedDirectIndividuals[classIndex];
 	}
 
+	/**
+	 * If the class was materialized by {@link #materializeIndividuals(long)} this is
+	 * a lookup; otherwise the bitmap is computed and retained in an LRU cache.
+	 * 
+	 * The returned bitmap is shared, and must not be modified
+	 * 
+	 * @param classIndex
+	 * @return all individuals that instantiate the specified type (directly or indirectly)
+	 */
+	public EWAHCompressedBitmap getIndividuals(int classIndex) {
+		EWAHCompressedBitmap bm = storedIndividuals[classIndex];
+		if (bm != null)
+			return bm;
+		bm = individualsCache.get(classIndex);
+		if (bm == null) {
+			bm = computeIndividuals(classIndex);
+			individualsCache.put(classIndex, bm);
+		}
+		return bm;
+	}
+
+	// combines the stored bitmaps of the direct subclasses if all are materialized,
+	// otherwise combines direct individuals across all subclasses
+	private EWAHCompressedBitmap computeIndividuals(int classIndex) {
+		EWAHCompressedBitmap bm = getDirectIndividuals(classIndex);
+		boolean isChildrenMaterialized = true;
+		for (int child : getDirectSubClasses(classIndex)) {
+			if (storedIndividuals[child] == null) {
+				isChildrenMaterialized = false;
+				break;
+			}
+		}
+		if (isChildrenMaterialized) {
+			for (int child : getDirectSubClasses(classIndex)) {
+				bm = bm.or(storedIndividuals[child]);
+			}
+		}
+		else {
+			for (int sub : getSubClasses(classIndex)) {
+				if (sub != classIndex)
+					bm = bm.or(getDirectIndividuals(sub));
+			}
+		}
+		return bm;
+	}
+
+	/**
+	 * Precomputes the individuals (direct and indirect) of each class in a single
+	 * bottom-up pass over the DAG, where the bitmap for a class is the union of its
+	 * direct individuals and the bitmaps of its direct subclasses.
+	 * 
+	 * Bitmaps are retained until the memory budget is used up; the remaining classes
+	 * are computed on demand by {@link #getIndividuals(int)}. Intermediate bitmaps for
+	 * classes that are not retained are released once all direct superclasses are
+	 * computed.
+	 * 
+	 * Must be called after all subclass and direct individual indexes are set
+	 * 
+	 * @param memoryBudget - maximum number of bytes for retained bitmaps; 0 disables materialization
+	 */
+	public void materializeIndividuals(long memoryBudget) {
+		Preconditions.checkArgument(memoryBudget >= 0, "memory budget must be non-negative");
+		storedIndividuals = new EWAHCompressedBitmap[numberOfClasses];
+		individualsCache.clear();
+		individualsMemoryUsed = 0;
+		if (memoryBudget == 0)
+			return;
+
+		// number of direct subclasses yet to be computed, and
+		// number of direct superclasses yet to consume each class
+		int[] numPendingChildren = new int[numberOfClasses];
+		int[] numPendingParents = new int[numberOfClasses];
+		Deque<Integer> ready = new ArrayDeque<>();
+		for (int c = 0; c < numberOfClasses; c++) {
+			numPendingChildren[c] = storedDirectSubClasses[c].cardinality();
+			numPendingParents[c] = storedDirectSuperClasses[c].cardinality();
+			if (numPendingChildren[c] == 0)
+				ready.add(c);
+		}
+		EWAHCompressedBitmap[] computed = new EWAHCompressedBitmap[numberOfClasses];
+		int numMaterialized = 0;
+		while (!ready.isEmpty()) {
+			int c = ready.poll();
+			EWAHCompressedBitmap bm = getDirectIndividuals(c);
+			for (int child : getDirectSubClasses(c)) {
+				bm = bm.or(computed[child]);
+				if (--numPendingParents[child] == 0 && storedIndividuals[child] == null)
+					computed[child] = null;
+			}
+			computed[c] = bm;
+			if (individualsMemoryUsed + bm.sizeInBytes() <= memoryBudget) {
+				storedIndividuals[c] = bm;
+				individualsMemoryUsed += bm.sizeInBytes();
+				numMaterialized++;
+			}
+			for (int parent : getDirectSuperClasses(c)) {
+				if (--numPendingChildren[parent] == 0)
+					ready.add(parent);
+			}
+		}
+		LOG.info("Materialized individuals for " + numMaterialized + "/" + numberOfClasses +
+				" classes using " + individualsMemoryUsed + " bytes");
+	}
+
+	/**
+	 * @return number of bytes used by materialized individuals bitmaps
+	 */
+	public long getIndividualsMemoryUsed() {
+		return individualsMemoryUsed;
+	}
+
+	/**
+	 * @param classIndex
+	 * @return true if the individuals for this class are materialized
+	 */
+	public boolean isIndividualsMaterialized(int classIndex) {
+		return storedIndividuals[classIndex] != null;
+	}
+
+	/**
+	 * Sets the maximum number of lazily computed individuals bitmaps to retain
+	 * for classes that are not materialized. Clears the current cache.
+	 * 
+	 * @param cacheSize
+	 */
+	public void setIndividualsCacheSize(final int cacheSize) {
+		Preconditions.checkArgument(cacheSize >= 0, "cache size must be non-negative");
+		individualsCache = Collections.synchronizedMap(
+				new LinkedHashMap<Integer, EWAHCompressedBitmap>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<Integer, EWAHCompressedBitmap> eldest) {
+						return size() > cacheSize;
+					}
+				});
+	}
+
 	
 	/**
 	 * Adds stored set of superClasses for a class. This must be called for
@@ -363,9 +523,8 @@ public class EWAHKnowledgeBaseStore {
 	/**
 	 * individuals that directly instantiate a class
 	 * 
-	 * note we have no corresponding index for direct plus indirect; this
-	 * would explode the cache. Instead the caller should iterate through subclasses
-	 * calling this
+	 * the corresponding index for direct plus indirect is built by
+	 * {@link #materializeIndividuals(long)}
 	 * 
 	 * @param classIndex
 	 * @param individuals
@@ -374,6 +533,47 @@ public class EWAHKnowledgeBaseStore {
 		storedDirectIndividuals[classIndex] = EWAHUtils.convertIndexSetToBitmap(individuals);
 	}
 
+	/*
+	 * The following setters take bitmaps directly, e.g. when restoring a store
+	 * from a snapshot. The bitmaps are stored as-is, and must not be modified afterwards
+	 */
+
+	public void setSuperClasses(int clsIndex, EWAHCompressedBitmap bm) {
+		storedSuperClasses[clsIndex] = bm;
+	}
+
+	public void setDirectSuperClasses(int clsIndex, EWAHCompressedBitmap bm) {
+		storedDirectSuperClasses[clsIndex] = bm;
+	}
+
+	public void setSubClasses(int clsIndex, EWAHCompressedBitmap bm) {
+		storedSubClasses[clsIndex] = bm;
+	}
+
+	public void setDirectSubClasses(int clsIndex, EWAHCompressedBitmap bm) {
+		storedDirectSubClasses[clsIndex] = bm;
+	}
+
+	public void setDirectIndividuals(int classIndex, EWAHCompressedBitmap bm) {
+		storedDirectIndividuals[classIndex] = bm;
+	}
+
+	public void setTypes(int individualIndex, EWAHCompressedBitmap bm) {
+		storedTypes[individualIndex] = bm;
+	}
+
+	public void setDirectTypes(int individualIndex, EWAHCompressedBitmap bm) {
+		storedDirectTypes[individualIndex] = bm;
+	}
+
+	public void setNegatedTypes(int individualIndex, EWAHCompressedBitmap bm) {
+		storedNegatedTypes[individualIndex] = bm;
+	}
+
+	public void setDirectNegatedTypes(int individualIndex, EWAHCompressedBitmap bm) {
+		storedDirectNegatedTypes[individualIndex] = bm;
+	}
+
 	
 	@Override
 	public String toString() {
@@ -1,16 +1,22 @@
 package org.monarchinitiative.owlsim.kb.filter;
 
 import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
 import org.apache.log4j.Logger;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.ewah.EWAHUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 /**
  * Applies a {@link Filter} on a set of individuals.
  * 
+ * Filters are compiled into a bitmap of the individuals that pass them,
+ * so the cost of a filtered query is proportional to the filtered set.
+ * 
  * @author cjm
  *
  */
@@ -19,8 +25,6 @@ public class FilterEngine {
 	private Logger LOG = Logger.getLogger(FilterEngine.class);
 
 	BMKnowledgeBase knowledgeBase;
-	//private Logger LOG = Logger.getLogger(FilterEngine.class);
-	
 
 	
 	private FilterEngine(BMKnowledgeBase knowledgeBase) {
@@ -45,11 +49,11 @@ public class FilterEngine {
 		if (filter == null) {
 			return new ArrayList<String>(knowledgeBase.getIndividualIdsInSignature());
 		}
-		List<String> ids = new ArrayList<String>();
-		for (String id : knowledgeBase.getIndividualIdsInSignature()) {
-			if (test(id, filter)) {
-				ids.add(id);
-			}
+		EWAHCompressedBitmap bm = getIndividualsBM(filter);
+		List<String> ids = new ArrayList<String>(bm.cardinality());
+		IntIterator it = bm.intIterator();
+		while (it.hasNext()) {
+			ids.add(knowledgeBase.getIndividualId(it.next()));
 		}
 		if (filter instanceof AnonIndividualFilter) {
 		    // always include anon individuals
@@ -58,65 +62,87 @@ public class FilterEngine {
 		return ids;	
 	}
 
-	// returns true if id has properties that match Filter
-	private boolean test(String id, Filter filter) throws UnknownFilterException {
+	/**
+	 * Compiles a filter into the set of individuals that pass it
+	 * 
+	 * @param filter
+	 * @return bitmap of indices of individuals that pass filter
+	 * @throws UnknownFilterException
+	 */
+	public EWAHCompressedBitmap getIndividualsBM(Filter filter) throws UnknownFilterException {
+		if (filter == null) {
+			return getAllIndividualsBM();
+		}
 		if (filter instanceof FilterSet) {
 			FilterSet fs = (FilterSet)filter;
+			EWAHCompressedBitmap bm = getAllIndividualsBM();
 			for (Filter f2 : fs.getFilters()) {
-				if (!test(id, f2)) {
-					return false;
-				}
+				bm = bm.and(getIndividualsBM(f2));
 			}
-			return true;
+			return bm;
 		}
 		else if (filter instanceof PropertyValueFilter) {
 			PropertyValueFilter fpv = (PropertyValueFilter)filter;
-			Set<Object> values = knowledgeBase.getPropertyValues(id, fpv.getPropertySymbol());
-			LOG.info(id+ " VALs="+values);
-			boolean contains = false;
-			if (values.contains(fpv.getFiller()))
-				contains = true;
-			if (fpv.isNegated())
-				return !contains;
-			else
-				return contains;
+			EWAHCompressedBitmap bm =
+					knowledgeBase.getIndividualsWithPropertyValueBM(fpv.getPropertySymbol(), fpv.getFiller());
+			return negate(bm, fpv.isNegated());
 		}
 		else if (filter instanceof TypeFilter) {
-		    // TODO : provide a convenience method in kb
 		    TypeFilter tf = (TypeFilter)filter;
-		    EWAHCompressedBitmap typesBM;
+		    int cix = knowledgeBase.getClassIndex(tf.getTypeId());
+		    EWAHCompressedBitmap bm;
             if (tf.isExact()) {
-                typesBM = knowledgeBase.getDirectTypesBM(id);
+                bm = knowledgeBase.getDirectIndividualsBM(cix);
             }
             else {
-                typesBM = knowledgeBase.getTypesBM(id);
+                bm = knowledgeBase.getIndividualsBM(cix);
             }
-//            LOG.info("typeId = " + tf.getTypeId());
-            int ix = knowledgeBase.getClassIndex(tf.getTypeId());
-            return typesBM.getPositions().contains(ix) ^ tf.isNegated();
+            return negate(bm, tf.isNegated());
 		}
         else if (filter instanceof IdFilter) {
             IdFilter idf = (IdFilter)filter;
-            if (idf.getIds().contains(id)) {
-                return true;
-            } else {
-                return false;
+            Set<String> idsInSignature = knowledgeBase.getIndividualIdsInSignature();
+            Set<Integer> ixs = new HashSet<>();
+            for (String id : idf.getIds()) {
+                if (idsInSignature.contains(id)) {
+                    ixs.add(knowledgeBase.getIndividualIndex(id));
+                }
             }
+            return EWAHUtils.convertIndexSetToBitmap(ixs);
         }
         else if (filter instanceof IdPrefixFilter) {
             IdPrefixFilter idf = (IdPrefixFilter)filter;
-            if (id.startsWith(idf.getPrefix())) {
-                return true;
-            } else {
-                return false;
+            return knowledgeBase.getIndividualsWithIdPrefixBM(idf.getPrefix());
+        }
+        else if (filter instanceof IndividualIndexRangeFilter) {
+            IndividualIndexRangeFilter rf = (IndividualIndexRangeFilter)filter;
+            int toIndex = Math.min(rf.getToIndex(), knowledgeBase.getNumIndividualNodes());
+            EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+            if (rf.getFromIndex() < toIndex) {
+                bm.setSizeInBits(toIndex, true);
+                EWAHCompressedBitmap below = new EWAHCompressedBitmap();
+                below.setSizeInBits(rf.getFromIndex(), true);
+                bm = bm.andNot(below);
             }
+            return bm;
         }
         else if (filter instanceof AnonIndividualFilter) {
-            return false;
+            return new EWAHCompressedBitmap();
         }
 		else {
 			throw new UnknownFilterException(filter.toString());
 		}
 	}
 
+	private EWAHCompressedBitmap getAllIndividualsBM() {
+		return knowledgeBase.getIndividualsBM(knowledgeBase.getRootIndex());
+	}
+
+	private EWAHCompressedBitmap negate(EWAHCompressedBitmap bm, boolean isNegated) {
+		if (isNegated) {
+			return getAllIndividualsBM().andNot(bm);
+		}
+		return bm;
+	}
+
 }
@@ -18,7 +18,7 @@ public class IdFilter implements Filter {
 	}
 	
 	public IdFilter(Set<String> ids) {
-		ids.addAll(ids);
+		this.ids = new HashSet<String>(ids);
 	}
 	
 	public static Filter create(String id) {
@@ -0,0 +1,41 @@
+package org.monarchinitiative.owlsim.kb.filter;
+
+
+/**
+ * A filter that picks out individuals with an index in a given range.
+ * 
+ * Used to partition the individuals of a kb, e.g. to compare each
+ * individual only with those that follow it
+ * 
+ * @author cjm
+ *
+ */
+public class IndividualIndexRangeFilter implements Filter  {
+
+	private int fromIndex;
+	private int toIndex;
+	
+
+	/**
+	 * @param fromIndex - inclusive
+	 * @param toIndex - exclusive
+	 */
+	public IndividualIndexRangeFilter(int fromIndex, int toIndex) {
+		super();
+		this.fromIndex = fromIndex;
+		this.toIndex = toIndex;
+	}
+	public static IndividualIndexRangeFilter create(int fromIndex, int toIndex) {
+		return new IndividualIndexRangeFilter(fromIndex, toIndex);
+	}
+	
+	public int getFromIndex() {
+		return fromIndex;
+	}
+	public int getToIndex() {
+		return toIndex;
+	}
+	
+	
+
+}
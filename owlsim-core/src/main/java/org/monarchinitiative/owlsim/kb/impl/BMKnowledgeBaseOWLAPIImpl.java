@@ -19,15 +19,20 @@ import org.monarchinitiative.owlsim.model.kb.Entity;
 import org.monarchinitiative.owlsim.model.kb.KBMetadata;
 import org.prefixcommons.CurieUtil;
 import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.reasoner.InferenceType;
 import org.semanticweb.owlapi.reasoner.Node;
 import org.semanticweb.owlapi.reasoner.NodeSet;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import uk.ac.manchester.cs.owl.owlapi.concurrent.ConcurrentOWLOntologyImpl;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Implementation of {@link BMKnowledgeBase} that uses the OWLAPI.
@@ -71,6 +76,23 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	private Map<Integer, Map<Integer, Integer>> individualToWeightedDirectTypeMap = new HashMap<>();
 
 	private int[] individualCountPerClassArray;
+	private volatile double[] informationContentPerClassArray;
+	private volatile int[][] directSubClassIndicesPerClassArray;
+	private volatile int[] directSuperClassCountPerClassArray;
+
+	// precomputed id tables, populated once in createMap
+	private IdIndex classIdIndex;
+	private IdIndex individualIdIndex;
+	private Set<String> classIdSet;
+	private Set<String> individualIdSet;
+	private int rootIndex;
+	private EWAHCompressedBitmap allIndividualsBM;
+	private final IndividualBitmapIndex individualBitmapIndex = new IndividualBitmapIndex(this);
+
+	// if true, reasoner and ontology queries are split over threads; only
+	// set for ELK on ontologies from a concurrent manager. Bitmaps are
+	// always built on multiple threads, as they do not touch the OWLAPI
+	private boolean isParallel;
 
 	private CURIEMapper curieMapper;
 	private LabelMapper labelMapper;
@@ -84,6 +106,32 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	 * @param reasonerFactory
 	 */
 	public BMKnowledgeBaseOWLAPIImpl(OWLOntology owlOntology, OWLOntology owlDataOntology, OWLReasonerFactory reasonerFactory, CurieUtil curieUtil) {
+		this(owlOntology, owlDataOntology, reasonerFactory, curieUtil, EWAHKnowledgeBaseStore.DEFAULT_INDIVIDUALS_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param owlOntology
+	 * @param owlDataOntology - may be null
+	 * @param reasonerFactory
+	 * @param curieUtil
+	 * @param individualsMemoryBudget - bytes available for materializing the individuals of each class; 0 to compute on demand
+	 */
+	public BMKnowledgeBaseOWLAPIImpl(OWLOntology owlOntology, OWLOntology owlDataOntology, OWLReasonerFactory reasonerFactory, CurieUtil curieUtil,
+			long individualsMemoryBudget) {
+		this(owlOntology, owlDataOntology, reasonerFactory, curieUtil, individualsMemoryBudget, false);
+	}
+
+	/**
+	 * @param owlOntology
+	 * @param owlDataOntology - may be null
+	 * @param reasonerFactory
+	 * @param curieUtil
+	 * @param individualsMemoryBudget - bytes available for materializing the individuals of each class; 0 to compute on demand
+	 * @param isParallel - if true, inferences are fetched from the reasoner using multiple threads. Ignored
+	 *   unless the reasoner is ELK and the ontologies were created by a concurrent manager
+	 */
+	public BMKnowledgeBaseOWLAPIImpl(OWLOntology owlOntology, OWLOntology owlDataOntology, OWLReasonerFactory reasonerFactory, CurieUtil curieUtil,
+			long individualsMemoryBudget, boolean isParallel) {
 		Objects.requireNonNull(owlOntology, "OWLOntology required - cannot be null.");
 		Objects.requireNonNull(reasonerFactory, "OWLReasonerFactory required, cannot be null.");
 		Objects.requireNonNull(curieUtil, "CurieUtil required - cannot be null");
@@ -94,21 +142,33 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 
 		this.owlOntology = owlOntology;
 		this.owlDataOntology = owlDataOntology;
+		this.isParallel = isParallel && supportsConcurrentQueries(reasonerFactory, owlOntology, owlDataOntology);
+		if (isParallel && !this.isParallel)
+			LOG.warn("Reasoner or ontology manager does not support concurrent queries; fetching inferences sequentially");
 		if (owlDataOntology != null) {
 			translateFromDataOntology();
 		}
 		LOG.info("Creating OWL reasoner");
-		this.owlReasoner = reasonerFactory.createReasoner(owlOntology);
+		timed("reasoning", () -> {
+			this.owlReasoner = reasonerFactory.createReasoner(owlOntology);
+			// everything after this point only queries the reasoner
+			owlReasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY, InferenceType.CLASS_ASSERTIONS);
+		});
 		this.curieUtil = curieUtil;
 		createMap();
 		ontoEWAHStore = new EWAHKnowledgeBaseStore(classNodes.size(), individualNodes.size());
 		storeInferences();
-		populateLabelsFromOntology(labelMapper, owlOntology);
-		if (owlDataOntology != null) {
-			LOG.info("Fetching labels from " + owlDataOntology);
-			// the data ontology may contain labels of data items
-			populateLabelsFromOntology(labelMapper, owlDataOntology);
-		}
+		timed("materializing individuals", () -> ontoEWAHStore.materializeIndividuals(individualsMemoryBudget));
+		allIndividualsBM = new EWAHCompressedBitmap();
+		allIndividualsBM.setSizeInBits(getNumIndividualNodes(), true);
+		timed("labels", () -> {
+			populateLabelsFromOntology(labelMapper, owlOntology);
+			if (owlDataOntology != null) {
+				LOG.info("Fetching labels from " + owlDataOntology);
+				// the data ontology may contain labels of data items
+				populateLabelsFromOntology(labelMapper, owlDataOntology);
+			}
+		});
 		Instant end = Instant.now();
 		LOG.info("Knowledgebase loaded in " + Duration.between(start, end).toMillis() + " ms");
 	}
@@ -117,6 +177,30 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return new BMKnowledgeBaseOWLAPIImpl(ontology.getOwlOntology(), null, owlReasonerFactory, ontology.getCurieUtil());
 	}
 
+	/**
+	 * @param ontology
+	 * @param owlReasonerFactory
+	 * @param individualsMemoryBudget - bytes available for materializing the individuals of each class; 0 to compute on demand
+	 * @return kb
+	 */
+	public static BMKnowledgeBase create(Ontology ontology, OWLReasonerFactory owlReasonerFactory, long individualsMemoryBudget) {
+		return new BMKnowledgeBaseOWLAPIImpl(ontology.getOwlOntology(), null, owlReasonerFactory, ontology.getCurieUtil(), individualsMemoryBudget);
+	}
+
+	/**
+	 * @param ontology
+	 * @param owlReasonerFactory
+	 * @param individualsMemoryBudget - bytes available for materializing the individuals of each class; 0 to compute on demand
+	 * @param isParallel - if true, inferences are fetched from the reasoner using multiple threads, if the
+	 *   reasoner and ontology manager support it
+	 * @return kb
+	 */
+	public static BMKnowledgeBase create(Ontology ontology, OWLReasonerFactory owlReasonerFactory, long individualsMemoryBudget,
+			boolean isParallel) {
+		return new BMKnowledgeBaseOWLAPIImpl(ontology.getOwlOntology(), null, owlReasonerFactory, ontology.getCurieUtil(),
+				individualsMemoryBudget, isParallel);
+	}
+
 	public static BMKnowledgeBase create(OWLOntology owlOntology, OWLReasonerFactory rf, CurieUtil curieUtil) {
 		return new BMKnowledgeBaseOWLAPIImpl(owlOntology, null, rf, curieUtil);
 	}
@@ -184,14 +268,10 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	}
 
 	/**
-	 * @return set of all class identifiers
+	 * @return set of all class identifiers (unmodifiable)
 	 */
 	public Set<String> getClassIdsInSignature() {
-		Set<String> ids = new HashSet<>();
-		for (OWLClass i : getClassesInSignature()) {
-			ids.add(getShortForm(i.getIRI()));
-		}
-		return ids;
+		return classIdSet;
 	}
 
 	public Set<String> getClassIdsByOntology(String ont) {
@@ -212,6 +292,11 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return classNodeArray.length;
 	}
 
+	@Override
+	public int getNumIndividualNodes() {
+		return individualNodeArray.length;
+	}
+
 	/**
 	 * @return set of all individual identifiers
 	 */
@@ -220,14 +305,10 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	}
 
 	/**
-	 * @return ids
+	 * @return ids (unmodifiable)
 	 */
 	public Set<String> getIndividualIdsInSignature() {
-		Set<String> ids = new HashSet<>();
-		for (OWLNamedIndividual i : getIndividualsInSignature()) {
-			ids.add(getShortForm(i.getIRI()));
-		}
-		return ids;
+		return individualIdSet;
 	}
 
 	/**
@@ -271,21 +352,33 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		propertyValueMapMap = new HashMap<>();
 		final HashMap<Node<OWLClass>, Integer> classNodeToFrequencyMap = new HashMap<>();
 		final HashMap<Node<OWLClass>, Double> classNodeToFreqDepthMap = new HashMap<>();
-		for (OWLClass c : classesInSignature) {
-			if (owlReasoner.getInstances(c, false).isEmpty()) {
-				// TODO: deal with subclasses
-				// LOG.info("Skipping non-instantiated class: "+c);
-				// continue;
-			}
+		// reasoner queries for each class and individual are independent, and
+		// are run first; results are then folded in signature order, so that
+		// index assignment does not depend on the number of threads
+		OWLClass[] classArray = classesInSignature.toArray(new OWLClass[classesInSignature.size()]);
+		Node<OWLClass>[] classNodeByClass = new Node[classArray.length];
+		int[] numAncNodesByClass = new int[classArray.length];
+		int[] freqByClass = new int[classArray.length];
+		timed("class nodes", () -> forEachQuery(classArray.length, ci -> {
+			OWLClass c = classArray[ci];
 			Node<OWLClass> node = owlReasoner.getEquivalentClasses(c);
+			classNodeByClass[ci] = node;
+			if (node.contains(getOWLNothing()))
+				return;
+			numAncNodesByClass[ci] = owlReasoner.getSuperClasses(c, false).getNodes().size();
+			freqByClass[ci] = owlReasoner.getInstances(c, false).getNodes().size();
+		}));
+		for (int ci = 0; ci < classArray.length; ci++) {
+			OWLClass c = classArray[ci];
+			Node<OWLClass> node = classNodeByClass[ci];
 			if (node.contains(getOWLNothing())) {
 				LOG.warn("Ignoring unsatisfiable class: " + c);
 				continue;
 			}
 			classNodes.add(node);
 			classToNodeMap.put(c, node);
-			int numAncNodes = owlReasoner.getSuperClasses(c, false).getNodes().size();
-			int freq = owlReasoner.getInstances(c, false).getNodes().size();
+			int numAncNodes = numAncNodesByClass[ci];
+			int freq = freqByClass[ci];
 			classNodeToFrequencyMap.put(node, freq);
 
 			// freq depth is inversely correlated informativeness;
@@ -301,13 +394,28 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 			classNodeToFreqDepthMap.put(node, freqDepth);
 		}
 
-		for (OWLNamedIndividual i : individualsInSignature) {
-			Node<OWLNamedIndividual> node = owlReasoner.getSameIndividuals(i);
+		OWLNamedIndividual[] individualArray = individualsInSignature
+				.toArray(new OWLNamedIndividual[individualsInSignature.size()]);
+		Node<OWLNamedIndividual>[] individualNodeByIndividual = new Node[individualArray.length];
+		Map<String, Set<Object>>[] propertyValuesByIndividual = new Map[individualArray.length];
+		Map<String, Set<Object>>[] dataPropertyValuesByIndividual = new Map[individualArray.length];
+		timed("individual nodes", () -> forEachQuery(individualArray.length, ii -> {
+			OWLNamedIndividual i = individualArray[ii];
+			individualNodeByIndividual[ii] = owlReasoner.getSameIndividuals(i);
+			propertyValuesByIndividual[ii] = getPropertyValues(owlOntology, i);
+			if (owlDataOntology != null)
+				dataPropertyValuesByIndividual[ii] = getPropertyValues(owlDataOntology, i);
+		}));
+		for (int ii = 0; ii < individualArray.length; ii++) {
+			OWLNamedIndividual i = individualArray[ii];
+			Node<OWLNamedIndividual> node = individualNodeByIndividual[ii];
 			individualNodes.add(node);
 			individualToNodeMap.put(i, node);
-			setPropertyValues(owlOntology, i);
-			if (owlDataOntology != null)
-				setPropertyValues(owlDataOntology, i);
+			String id = getShortForm(i.getIRI());
+			propertyValueMapMap.put(id, propertyValuesByIndividual[ii]);
+			// as before, values from the data ontology replace those from the main ontology
+			if (dataPropertyValuesByIndividual[ii] != null)
+				propertyValueMapMap.put(id, dataPropertyValuesByIndividual[ii]);
 		}
 
 		// Order class nodes such that LOW frequencies (HIGH Information Content)
@@ -338,14 +446,51 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		for (int i = 0; i < individualNodes.size(); i++) {
 			individualNodeToIntegerMap.put(individualNodeArray[i], i);
 		}
+		timed("id tables", this::createIdIndices);
+	}
 
+	// Translates the node arrays into id tables, so that lookups by id or
+	// index do not need to go via the OWLAPI or CurieUtil
+	private void createIdIndices() {
+		String[] classIds = new String[classNodeArray.length];
+		for (int i = 0; i < classNodeArray.length; i++) {
+			classIds[i] = getShortForm(classNodeArray[i].getRepresentativeElement().getIRI());
+		}
+		classIdIndex = new IdIndex(classIds, classToNodeMap.size());
+		Set<String> cids = new HashSet<>();
+		for (OWLClass c : classToNodeMap.keySet()) {
+			String id = getShortForm(c.getIRI());
+			classIdIndex.put(id, getIndex(c));
+			cids.add(id);
+		}
+		classIdSet = Collections.unmodifiableSet(cids);
+
+		// some reasoners return empty nodes for individuals; in this case
+		// the first individual mapped to the node is used as representative
+		String[] individualIds = new String[individualNodeArray.length];
+		for (int i = 0; i < individualNodeArray.length; i++) {
+			if (!individualNodeArray[i].getEntities().isEmpty())
+				individualIds[i] = getShortForm(individualNodeArray[i].getRepresentativeElement().getIRI());
+		}
+		for (OWLNamedIndividual i : individualsInSignature) {
+			int ix = getIndex(i);
+			if (individualIds[ix] == null)
+				individualIds[ix] = getShortForm(i.getIRI());
+		}
+		individualIdIndex = new IdIndex(individualIds, individualsInSignature.size());
+		Set<String> iids = new HashSet<>();
+		for (OWLNamedIndividual i : individualsInSignature) {
+			String id = getShortForm(i.getIRI());
+			individualIdIndex.put(id, getIndex(i));
+			iids.add(id);
+		}
+		individualIdSet = Collections.unmodifiableSet(iids);
+		rootIndex = getIndex(getOWLThing());
 	}
 
-	private void setPropertyValues(OWLOntology ont, OWLNamedIndividual i) {
+	private Map<String, Set<Object>> getPropertyValues(OWLOntology ont, OWLNamedIndividual i) {
 		Preconditions.checkNotNull(i);
 		Map<String, Set<Object>> pvm = new HashMap<>();
-		String id = getShortForm(i.getIRI());
-		propertyValueMapMap.put(id, pvm);
 		for (OWLIndividualAxiom ax : ont.getAxioms(i)) {
 			if (ax instanceof OWLPropertyAssertionAxiom) {
 				OWLPropertyAssertionAxiom paa = (OWLPropertyAssertionAxiom) ax;
@@ -377,7 +522,7 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 				}
 			}
 		}
-
+		return pvm;
 	}
 
 	private void addPropertyValue(Map<String, Set<Object>> pvm, String pid, String v) {
@@ -401,22 +546,39 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 
 	private void storeInferences() {
 		LOG.info("Storing inferences...");
+		timed("class inferences", this::storeClassInferences);
+		timed("individual inferences", this::storeIndividualInferences);
+	}
+
+	// Reasoner results are first collected per class; each class then writes
+	// only the store slots of its own index. Opposing pairs are added to
+	// the shared map afterwards in signature order.
+	private void storeClassInferences() {
 		// Note: if there are any nodes containing >1 class or individual, then
 		// the store method is called redundantly. This is unlikely to affect performance,
 		// and the semantics are unchanged
-		for (OWLClass c : getClassesInSignature()) {
-			int clsIndex = getIndex(c);
-			// LOG.info("Storing inferences for "+c+" --> " + clsIndex);
+		OWLClass[] classArray = getClassesInSignature().toArray(new OWLClass[0]);
+		List<OWLClassExpression>[] opposingByClass = new List[classArray.length];
+		Set<Integer>[] supsByClass = new Set[classArray.length];
+		Set<Integer>[] directSupsByClass = new Set[classArray.length];
+		Set<Integer>[] subsByClass = new Set[classArray.length];
+		Set<Integer>[] directSubsByClass = new Set[classArray.length];
+		Set<Integer>[] individualsByClass = new Set[classArray.length];
+		forEachQuery(classArray.length, ci -> {
+			OWLClass c = classArray[ci];
+			List<OWLClassExpression> opposing = new ArrayList<>();
+			opposingByClass[ci] = opposing;
+			// LOG.info("Storing inferences for "+c+" --> " + getIndex(c));
 			Set<Integer> sups = getIntegersForClassSet(owlReasoner.getSuperClasses(c, false));
 			sups.add(getIndexForClassNode(owlReasoner.getEquivalentClasses(c)));
 
 			Set<Integer> subs = getIntegersForClassSet(owlReasoner.getSubClasses(c, false));
 			subs.add(getIndexForClassNode(owlReasoner.getEquivalentClasses(c)));
 
-			ontoEWAHStore.setDirectSuperClasses(clsIndex, getIntegersForClassSet(owlReasoner.getSuperClasses(c, true)));
-			ontoEWAHStore.setSuperClasses(clsIndex, sups);
-			ontoEWAHStore.setDirectSubClasses(clsIndex, getIntegersForClassSet(owlReasoner.getSubClasses(c, true)));
-			ontoEWAHStore.setSubClasses(clsIndex, subs);
+			directSupsByClass[ci] = getIntegersForClassSet(owlReasoner.getSuperClasses(c, true));
+			supsByClass[ci] = sups;
+			directSubsByClass[ci] = getIntegersForClassSet(owlReasoner.getSubClasses(c, true));
+			subsByClass[ci] = subs;
 
 			// Find all disjoint pairs plus opposing pairs
 			for (OWLAnnotationAssertionAxiom aaa : owlOntology.getAnnotationAssertionAxioms(c.getIRI())) {
@@ -426,7 +588,7 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 					if (v instanceof IRI) {
 						IRI dciri = (IRI) v;
 						OWLClass dc = owlOntology.getOWLOntologyManager().getOWLDataFactory().getOWLClass(dciri);
-						addOpposingClassPair(c, dc);
+						opposing.add(dc);
 
 					}
 				}
@@ -434,7 +596,7 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 
 			for (OWLDisjointClassesAxiom dca : owlOntology.getDisjointClassesAxioms(c)) {
 				for (OWLClassExpression dc : dca.getClassExpressionsMinus(c)) {
-					addOpposingClassPair(c, dc);
+					opposing.add(dc);
 				}
 			}
 
@@ -447,21 +609,44 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 					}
 				}
 			}
-			ontoEWAHStore.setDirectIndividuals(clsIndex, individualInts);
-
+			individualsByClass[ci] = individualInts;
+		});
+		forEachIndex(classArray.length, ci -> {
+			int clsIndex = getIndex(classArray[ci]);
+			ontoEWAHStore.setDirectSuperClasses(clsIndex, directSupsByClass[ci]);
+			ontoEWAHStore.setSuperClasses(clsIndex, supsByClass[ci]);
+			ontoEWAHStore.setDirectSubClasses(clsIndex, directSubsByClass[ci]);
+			ontoEWAHStore.setSubClasses(clsIndex, subsByClass[ci]);
+			ontoEWAHStore.setDirectIndividuals(clsIndex, individualsByClass[ci]);
+		});
+		for (int ci = 0; ci < classArray.length; ci++) {
+			for (OWLClassExpression dc : opposingByClass[ci]) {
+				addOpposingClassPair(classArray[ci], dc);
+			}
 		}
+	}
 
-        // populate frequency-awareness map
-        individualToWeightedDirectTypeMap = new HashMap<>();
-		for (OWLNamedIndividual i : individualsInSignature) {
-			int individualIndex = getIndex(i);
-			// LOG.info("String inferences for "+i+" --> " +individualIndex);
-			ontoEWAHStore.setDirectTypes(individualIndex, getIntegersForClassSet(owlReasoner.getTypes(i, true)));
-			ontoEWAHStore.setTypes(individualIndex, getIntegersForClassSet(owlReasoner.getTypes(i, false)));
+	// Reasoner results are first collected per individual; each individual
+	// then writes only the store slots of its own index. The opposing class
+	// map is read-only by now
+	private void storeIndividualInferences() {
+		// populate frequency-awareness map
+		OWLNamedIndividual[] individualArray = individualsInSignature
+				.toArray(new OWLNamedIndividual[individualsInSignature.size()]);
+		Map<Integer, Integer>[] wmapByIndividual = new Map[individualArray.length];
+		Set<Integer>[] directTypesByIndividual = new Set[individualArray.length];
+		Set<Integer>[] typesByIndividual = new Set[individualArray.length];
+		Set<Integer>[] negatedTypesByIndividual = new Set[individualArray.length];
+		Set<Integer>[] directNegatedTypesByIndividual = new Set[individualArray.length];
+		forEachQuery(individualArray.length, ii -> {
+			OWLNamedIndividual i = individualArray[ii];
+			// LOG.info("String inferences for "+i+" --> " +getIndex(i));
+			directTypesByIndividual[ii] = getIntegersForClassSet(owlReasoner.getTypes(i, true));
+			typesByIndividual[ii] = getIntegersForClassSet(owlReasoner.getTypes(i, false));
 
       // TODO - ensure robust for equivalent individuals
       Map<Integer, Integer> wmap = new HashMap<>();
-      individualToWeightedDirectTypeMap.put(individualIndex, wmap);
+      wmapByIndividual[ii] = wmap;
       for (OWLClassAssertionAxiom caax : owlOntology.getClassAssertionAxioms(i)) {
           int cix;
 
@@ -545,12 +730,59 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 				 */
 			}
 
-			ontoEWAHStore.setNegatedTypes(individualIndex, ncs); // TODO - determine if storing all
-																	// inferred negated types is too
-																	// inefficient
-			ontoEWAHStore.setDirectNegatedTypes(individualIndex, ncsDirect);
+			negatedTypesByIndividual[ii] = ncs;
+			directNegatedTypesByIndividual[ii] = ncsDirect;
+		});
+		forEachIndex(individualArray.length, ii -> {
+			int individualIndex = getIndex(individualArray[ii]);
+			ontoEWAHStore.setDirectTypes(individualIndex, directTypesByIndividual[ii]);
+			ontoEWAHStore.setTypes(individualIndex, typesByIndividual[ii]);
+			ontoEWAHStore.setNegatedTypes(individualIndex, negatedTypesByIndividual[ii]); // TODO - determine if storing all
+																							// inferred negated types is too
+																							// inefficient
+			ontoEWAHStore.setDirectNegatedTypes(individualIndex, directNegatedTypesByIndividual[ii]);
+		});
+		individualToWeightedDirectTypeMap = new HashMap<>();
+		for (int ii = 0; ii < individualArray.length; ii++) {
+			individualToWeightedDirectTypeMap.put(getIndex(individualArray[ii]), wmapByIndividual[ii]);
 		}
+	}
+
+	/**
+	 * Runs action for each index in [0,n), using multiple threads. Actions must
+	 * only write to state owned by their index, and must not query the
+	 * reasoner or ontology.
+	 */
+	private void forEachIndex(int n, IntConsumer action) {
+		IntStream.range(0, n).parallel().forEach(action);
+	}
 
+	/**
+	 * Runs action for each index in [0,n), using multiple threads if this kb is
+	 * built in parallel. Actions may query the reasoner and ontology, and must
+	 * only write to state owned by their index.
+	 */
+	private void forEachQuery(int n, IntConsumer action) {
+		IntStream range = IntStream.range(0, n);
+		if (isParallel)
+			range = range.parallel();
+		range.forEach(action);
+	}
+
+	// ELK answers queries concurrently once inferences are precomputed, but
+	// ontologies from a non-concurrent manager are not safe to read from
+	// several threads, and other reasoners (e.g. JFact) are not thread-safe
+	private static boolean supportsConcurrentQueries(OWLReasonerFactory reasonerFactory, OWLOntology owlOntology,
+			OWLOntology owlDataOntology) {
+		return reasonerFactory instanceof ElkReasonerFactory
+				&& owlOntology instanceof ConcurrentOWLOntologyImpl
+				&& (owlDataOntology == null || owlDataOntology instanceof ConcurrentOWLOntologyImpl);
+	}
+
+	private void timed(String phase, Runnable action) {
+		Instant start = Instant.now();
+		action.run();
+		LOG.info("Build phase '" + phase + "' took " + Duration.between(start, Instant.now()).toMillis() + " ms");
 	}
 
 	// TODO
@@ -617,6 +849,10 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	 */
 	public int getClassIndex(String id) {
 		Preconditions.checkNotNull(id);
+		int ix = classIdIndex.getIndex(id);
+		if (ix >= 0)
+			return ix;
+		// e.g. a full IRI for which a CURIE exists
 		return getIndex(getOWLClass(id));
 	}
 
@@ -644,6 +880,16 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return ontoEWAHStore.getDirectIndividuals(cix);
 	}
 
+	@Override
+	public EWAHCompressedBitmap getIndividualsWithIdPrefixBM(String prefix) {
+		return individualBitmapIndex.getIndividualsWithIdPrefixBM(prefix);
+	}
+
+	@Override
+	public EWAHCompressedBitmap getIndividualsWithPropertyValueBM(String property, Object value) {
+		return individualBitmapIndex.getIndividualsWithPropertyValueBM(property, value);
+	}
+
 	@Override
 	public EWAHCompressedBitmap getIndividualsBM(String classId) {
 		return getIndividualsBM(getClassIndex(classId));
@@ -652,23 +898,10 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	@Override
 	public EWAHCompressedBitmap getIndividualsBM(int classIndex) {
 		if (classIndex == getRootIndex()) {
-			EWAHCompressedBitmap indsBM = new EWAHCompressedBitmap();
-			indsBM.setSizeInBits(getIndividualIdsInSignature().size(), true);
-			return indsBM;
-		}
-		EWAHCompressedBitmap subsBM = getSubClasses(classIndex);
-		EWAHCompressedBitmap indsBM = null;
-		// Note this implementation iterates through all subclasses
-		// combining individuals; it is too expensive to store all inferred inds by class
-		for (int subcix : subsBM.getPositions()) {
-			EWAHCompressedBitmap bm = getDirectIndividualsBM(subcix);
-			if (indsBM == null) {
-				indsBM = bm;
-			} else {
-				indsBM = indsBM.or(bm);
-			}
+			return allIndividualsBM;
 		}
-		return indsBM;
+		// materialized, or computed on demand if the class is over the memory budget
+		return ontoEWAHStore.getIndividuals(classIndex);
 	}
 
 	/**
@@ -679,9 +912,7 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	 * @return classId
 	 */
 	public String getClassId(int index) {
-		Node<OWLClass> n = getClassNode(index);
-		OWLClass c = n.getRepresentativeElement();
-		return getShortForm(c.getIRI());
+		return classIdIndex.getId(index);
 	}
 
 	public Set<String> getClassIds(int index) {
@@ -710,6 +941,9 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 	 */
 	public int getIndividualIndex(String id) {
 		Preconditions.checkNotNull(id);
+		int ix = individualIdIndex.getIndex(id);
+		if (ix >= 0)
+			return ix;
 		return getIndex(getOWLNamedIndividual(id));
 	}
 
@@ -929,6 +1163,14 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return ontoEWAHStore.getTypes(individualIndex);
 	}
 
+	/**
+	 * @param individualIndex
+	 * @return bitmap representation of all direct instantiated classes
+	 */
+	public EWAHCompressedBitmap getDirectTypesBM(int individualIndex) {
+		return ontoEWAHStore.getDirectTypes(individualIndex);
+	}
+
   /* (non-Javadoc)
    * @see org.monarchinitiative.owlsim.kb.BMKnowledgeBase#getDirectWeightedTypes(java.lang.String)
    */
@@ -1047,6 +1289,17 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return individualCountPerClassArray;
 	}
 
+	public double[] getInformationContentPerClassArray() {
+		double[] ics = informationContentPerClassArray;
+		if (ics == null) {
+			// benign race: concurrent callers compute identical arrays
+			ics = InformationContentUtil.getInformationContentPerClassArray(getIndividualCountPerClassArray(),
+					getIndividualIdsInSignature().size());
+			informationContentPerClassArray = ics;
+		}
+		return ics;
+	}
+
 	@Override
 	public Map<String, Set<Object>> getPropertyValueMap(String individualId) {
 		return propertyValueMapMap.get(individualId);
@@ -1065,16 +1318,35 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return ontoEWAHStore.getStoredDirectSubClasses();
 	}
 
+	@Override
+	public int[][] getDirectSubClassIndicesPerClassArray() {
+		int[][] a = directSubClassIndicesPerClassArray;
+		if (a == null) {
+			// benign race: concurrent callers compute identical arrays
+			a = ClassHierarchyUtil.getDirectSubClassIndicesPerClassArray(getStoredDirectSubClassIndex());
+			directSubClassIndicesPerClassArray = a;
+		}
+		return a;
+	}
+
+	@Override
+	public int[] getDirectSuperClassCountPerClassArray() {
+		int[] a = directSuperClassCountPerClassArray;
+		if (a == null) {
+			a = ClassHierarchyUtil.getDirectSuperClassCountPerClassArray(getDirectSubClassIndicesPerClassArray());
+			directSuperClassCountPerClassArray = a;
+		}
+		return a;
+	}
+
 	@Override
 	public int getRootIndex() {
-		return getIndex(getOWLThing());
+		return rootIndex;
 	}
 
 	@Override
 	public String getIndividualId(int index) {
-		Node<OWLNamedIndividual> n = getIndividualNode(index);
-		OWLNamedIndividual ind = n.getRepresentativeElement();
-		return getShortForm(ind.getIRI());
+		return individualIdIndex.getId(index);
 	}
 
 	@Override
@@ -1105,4 +1377,9 @@ public class BMKnowledgeBaseOWLAPIImpl implements BMKnowledgeBase {
 		return curieUtil.getIri(entity).orElse(entity);
 	}
 
+	@Override
+	public CurieUtil getCurieUtil() {
+		return curieUtil;
+	}
+
 }
@@ -0,0 +1,368 @@
+package org.monarchinitiative.owlsim.kb.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.monarchinitiative.owlsim.io.KnowledgeBaseSnapshot;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.LabelMapper;
+import org.monarchinitiative.owlsim.kb.ewah.EWAHKnowledgeBaseStore;
+import org.monarchinitiative.owlsim.model.kb.Attribute;
+import org.monarchinitiative.owlsim.model.kb.Entity;
+import org.prefixcommons.CurieUtil;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Implementation of {@link BMKnowledgeBase} backed entirely by precomputed tables
+ * and bitmaps, as restored from a snapshot by {@link KnowledgeBaseSnapshot}.
+ *
+ * No ontology is parsed and no reasoner is used; all inferences were computed
+ * by the kb from which the snapshot was written.
+ *
+ * @author cjm
+ *
+ */
+public class BMKnowledgeBaseSnapshotImpl implements BMKnowledgeBase {
+
+	private final EWAHKnowledgeBaseStore store;
+	private final IdIndex classIdIndex;
+	private final String[][] classNodeIds;
+	private final Set<String> classIdSet;
+	private final IdIndex individualIdIndex;
+	private final Set<String> individualIdSet;
+	private final int[] individualCountPerClassArray;
+	private volatile double[] informationContentPerClassArray;
+	private volatile int[][] directSubClassIndicesPerClassArray;
+	private volatile int[] directSuperClassCountPerClassArray;
+	private final int rootIndex;
+	private final Map<Integer, Integer>[] individualToWeightedDirectTypeArray;
+	private final Map<String, Map<String, Set<Object>>> propertyValueMapMap;
+	private final LabelMapper labelMapper;
+	private final CurieUtil curieUtil;
+	private final EWAHCompressedBitmap allIndividualsBM;
+	private final IndividualBitmapIndex individualBitmapIndex = new IndividualBitmapIndex(this);
+
+	/**
+	 * @param store - bitmaps for all classes and individuals
+	 * @param classIdIndex - representative class id per index, plus all class ids in signature
+	 * @param classNodeIds - all class ids per index (i.e. the equivalence set)
+	 * @param classIdSet - class ids in signature
+	 * @param individualIdIndex - representative individual id per index, plus all individual ids in signature
+	 * @param individualIdSet - individual ids in signature
+	 * @param individualCountPerClassArray
+	 * @param rootIndex
+	 * @param individualToWeightedDirectTypeArray - indexed by individual
+	 * @param propertyValueMapMap - keyed by individual id
+	 * @param labelMapper
+	 * @param curieUtil
+	 */
+	public BMKnowledgeBaseSnapshotImpl(EWAHKnowledgeBaseStore store,
+			IdIndex classIdIndex, String[][] classNodeIds, Set<String> classIdSet,
+			IdIndex individualIdIndex, Set<String> individualIdSet,
+			int[] individualCountPerClassArray, int rootIndex,
+			Map<Integer, Integer>[] individualToWeightedDirectTypeArray,
+			Map<String, Map<String, Set<Object>>> propertyValueMapMap,
+			LabelMapper labelMapper, CurieUtil curieUtil) {
+		this.store = store;
+		this.classIdIndex = classIdIndex;
+		this.classNodeIds = classNodeIds;
+		this.classIdSet = classIdSet;
+		this.individualIdIndex = individualIdIndex;
+		this.individualIdSet = individualIdSet;
+		this.individualCountPerClassArray = individualCountPerClassArray;
+		this.rootIndex = rootIndex;
+		this.individualToWeightedDirectTypeArray = individualToWeightedDirectTypeArray;
+		this.propertyValueMapMap = propertyValueMapMap;
+		this.labelMapper = labelMapper;
+		this.curieUtil = curieUtil;
+		allIndividualsBM = new EWAHCompressedBitmap();
+		allIndividualsBM.setSizeInBits(getNumIndividualNodes(), true);
+	}
+
+	public Set<String> getClassIdsInSignature() {
+		return classIdSet;
+	}
+
+	public int getNumClassNodes() {
+		return classIdIndex.getNumIndices();
+	}
+
+	public Set<String> getIndividualIdsInSignature() {
+		return individualIdSet;
+	}
+
+	public int getNumIndividualNodes() {
+		return individualIdIndex.getNumIndices();
+	}
+
+	public int getIndividualIndex(String individualId) {
+		Preconditions.checkNotNull(individualId);
+		int ix = lookup(individualIdIndex, individualId);
+		if (ix < 0)
+			throw new NullPointerException("No such individual: " + individualId);
+		return ix;
+	}
+
+	public String getIndividualId(int index) {
+		return individualIdIndex.getId(index);
+	}
+
+	public Attribute getAttribute(String id) {
+		Preconditions.checkNotNull(id);
+		return new Attribute(id, labelMapper.getArbitraryLabel(id));
+	}
+
+	public Entity getEntity(String id) {
+		Preconditions.checkNotNull(id);
+		return new Entity(id, labelMapper.getArbitraryLabel(id));
+	}
+
+	public EWAHCompressedBitmap getDirectSuperClassesBM(String classId) {
+		return store.getDirectSuperClasses(getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getDirectSuperClassesBM(Set<String> classIds) {
+		return store.getDirectSuperClasses(getClassIndices(classIds));
+	}
+
+	public EWAHCompressedBitmap getSubClasses(int classIndex) {
+		return store.getSubClasses(classIndex);
+	}
+
+	public EWAHCompressedBitmap getDirectSubClassesBM(String classId) {
+		return store.getDirectSubClasses(getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getSubClassesBM(Set<String> classIds) {
+		return store.getSubClasses(getClassIndices(classIds));
+	}
+
+	public EWAHCompressedBitmap getDirectSubClassesBM(Set<String> classIds) {
+		return store.getDirectSubClasses(getClassIndices(classIds));
+	}
+
+	public EWAHCompressedBitmap getDirectSubClassesBM(int classIndex) {
+		return store.getDirectSubClasses(classIndex);
+	}
+
+	public EWAHCompressedBitmap getDirectSuperClassesBM(int classIndex) {
+		return store.getDirectSuperClasses(classIndex);
+	}
+
+	public EWAHCompressedBitmap getSuperClassesBM(String classId) {
+		return store.getSuperClasses(getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getSuperClassesBM(Set<String> classIds) {
+		return store.getSuperClasses(getClassIndices(classIds));
+	}
+
+	public EWAHCompressedBitmap getSuperClassesBM(EWAHCompressedBitmap classesBM) {
+		return store.getSuperClasses(new HashSet<>(classesBM.getPositions()));
+	}
+
+	public EWAHCompressedBitmap getSuperClassesBM(int classIndex) {
+		return store.getSuperClasses(classIndex);
+	}
+
+	public EWAHCompressedBitmap getClassesBM(Set<String> classIds) {
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		for (String id : classIds) {
+			bm.set(getClassIndex(id));
+		}
+		return bm;
+	}
+
+	public EWAHCompressedBitmap getTypesBM(String id) {
+		Preconditions.checkNotNull(id);
+		return store.getTypes(getIndividualIndex(id));
+	}
+
+	public EWAHCompressedBitmap getTypesBM(int individualIndex) {
+		return store.getTypes(individualIndex);
+	}
+
+	public EWAHCompressedBitmap getDirectTypesBM(String id) {
+		Preconditions.checkNotNull(id);
+		return store.getDirectTypes(getIndividualIndex(id));
+	}
+
+	public EWAHCompressedBitmap getDirectTypesBM(int individualIndex) {
+		return store.getDirectTypes(individualIndex);
+	}
+
+	public Map<Integer, Integer> getDirectWeightedTypes(String id) {
+		return individualToWeightedDirectTypeArray[getIndividualIndex(id)];
+	}
+
+	public EWAHCompressedBitmap getNegatedTypesBM(String itemId) {
+		Preconditions.checkNotNull(itemId);
+		return store.getNegatedTypes(getIndividualIndex(itemId));
+	}
+
+	public EWAHCompressedBitmap getDirectNegatedTypesBM(String itemId) {
+		Preconditions.checkNotNull(itemId);
+		return store.getDirectNegatedTypes(getIndividualIndex(itemId));
+	}
+
+	public EWAHCompressedBitmap getFilteredDirectTypesBM(String id, String classId) {
+		Preconditions.checkNotNull(id);
+		Preconditions.checkNotNull(classId);
+		return store.getDirectTypes(getIndividualIndex(id), getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getFilteredDirectTypesBM(Set<String> ids, String classId) {
+		return store.getDirectTypes(getClassIndices(ids), getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getFilteredTypesBM(Set<String> ids, String classId) {
+		return store.getTypes(getClassIndices(ids), getClassIndex(classId));
+	}
+
+	public LabelMapper getLabelMapper() {
+		return labelMapper;
+	}
+
+	public String getClassId(int index) {
+		return classIdIndex.getId(index);
+	}
+
+	public int getClassIndex(String classId) {
+		Preconditions.checkNotNull(classId);
+		int ix = lookup(classIdIndex, classId);
+		if (ix < 0)
+			throw new NullPointerException("No such class: " + classId);
+		return ix;
+	}
+
+	public Set<String> getClassIds(int index) {
+		return new HashSet<>(Arrays.asList(classNodeIds[index]));
+	}
+
+	public Set<String> getClassIds(EWAHCompressedBitmap bm) {
+		Set<String> cids = new HashSet<>();
+		for (int x : bm) {
+			cids.addAll(Arrays.asList(classNodeIds[x]));
+		}
+		return cids;
+	}
+
+	public Set<String> getClassIdsByOntology(String ont) {
+		// TODO - use curie util
+		return getClassIdsInSignature().stream()
+				.filter(x -> x.startsWith(ont + ":") || x.contains("/" + ont + "_"))
+				.collect(Collectors.toSet());
+	}
+
+	public int[] getIndividualCountPerClassArray() {
+		return individualCountPerClassArray;
+	}
+
+	public double[] getInformationContentPerClassArray() {
+		double[] ics = informationContentPerClassArray;
+		if (ics == null) {
+			// benign race: concurrent callers compute identical arrays
+			ics = InformationContentUtil.getInformationContentPerClassArray(getIndividualCountPerClassArray(),
+					getIndividualIdsInSignature().size());
+			informationContentPerClassArray = ics;
+		}
+		return ics;
+	}
+
+	public EWAHCompressedBitmap getIndividualsBM(String classId) {
+		return getIndividualsBM(getClassIndex(classId));
+	}
+
+	public EWAHCompressedBitmap getIndividualsBM(int classIndex) {
+		if (classIndex == rootIndex)
+			return allIndividualsBM;
+		return store.getIndividuals(classIndex);
+	}
+
+	public EWAHCompressedBitmap getDirectIndividualsBM(int classIndex) {
+		return store.getDirectIndividuals(classIndex);
+	}
+
+	public EWAHCompressedBitmap getIndividualsWithIdPrefixBM(String prefix) {
+		return individualBitmapIndex.getIndividualsWithIdPrefixBM(prefix);
+	}
+
+	public EWAHCompressedBitmap getIndividualsWithPropertyValueBM(String property, Object value) {
+		return individualBitmapIndex.getIndividualsWithPropertyValueBM(property, value);
+	}
+
+	public Map<String, Set<Object>> getPropertyValueMap(String individualId) {
+		return propertyValueMapMap.get(individualId);
+	}
+
+	public Set<Object> getPropertyValues(String individualId, String property) {
+		Map<String, Set<Object>> m = getPropertyValueMap(individualId);
+		if (m.containsKey(property))
+			return new HashSet<>(m.get(property));
+		else
+			return Collections.emptySet();
+	}
+
+	public EWAHCompressedBitmap[] getStoredDirectSubClassIndex() {
+		return store.getStoredDirectSubClasses();
+	}
+
+	public int[][] getDirectSubClassIndicesPerClassArray() {
+		int[][] a = directSubClassIndicesPerClassArray;
+		if (a == null) {
+			// benign race: concurrent callers compute identical arrays
+			a = ClassHierarchyUtil.getDirectSubClassIndicesPerClassArray(getStoredDirectSubClassIndex());
+			directSubClassIndicesPerClassArray = a;
+		}
+		return a;
+	}
+
+	public int[] getDirectSuperClassCountPerClassArray() {
+		int[] a = directSuperClassCountPerClassArray;
+		if (a == null) {
+			a = ClassHierarchyUtil.getDirectSuperClassCountPerClassArray(getDirectSubClassIndicesPerClassArray());
+			directSuperClassCountPerClassArray = a;
+		}
+		return a;
+	}
+
+	public int getRootIndex() {
+		return rootIndex;
+	}
+
+	public String resolveIri(String entity) {
+		return curieUtil.getIri(entity).orElse(entity);
+	}
+
+	public CurieUtil getCurieUtil() {
+		return curieUtil;
+	}
+
+	// ids may be supplied either as a CURIE or as a full IRI
+	private int lookup(IdIndex index, String id) {
+		int ix = index.getIndex(id);
+		if (ix < 0) {
+			String alt = curieUtil.getCurie(id).orElse(null);
+			if (alt == null)
+				alt = curieUtil.getIri(id).orElse(null);
+			if (alt != null)
+				ix = index.getIndex(alt);
+		}
+		return ix;
+	}
+
+	private Set<Integer> getClassIndices(Set<String> classIds) {
+		Set<Integer> classIndices = new HashSet<>();
+		for (String id : classIds) {
+			classIndices.add(getClassIndex(id));
+		}
+		return classIndices;
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.monarchinitiative.owlsim.kb.impl;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Primitive array views of the class hierarchy, shared by the kb
+ * implementations so that they are computed once per kb.
+ * 
+ * @author cjm
+ *
+ */
+public class ClassHierarchyUtil {
+
+	/**
+	 * @param storedDirectSubClasses - direct subclasses by class index
+	 * @return direct subclass indices by class index, in ascending order
+	 */
+	public static int[][] getDirectSubClassIndicesPerClassArray(EWAHCompressedBitmap[] storedDirectSubClasses) {
+		int[][] subClassIndices = new int[storedDirectSubClasses.length][];
+		for (int i = 0; i < subClassIndices.length; i++) {
+			EWAHCompressedBitmap bm = storedDirectSubClasses[i];
+			subClassIndices[i] = bm == null ? new int[0] : bm.toArray();
+		}
+		return subClassIndices;
+	}
+
+	/**
+	 * @param directSubClassIndices - as returned by {@link #getDirectSubClassIndicesPerClassArray(EWAHCompressedBitmap[])}
+	 * @return number of direct superclasses by class index
+	 */
+	public static int[] getDirectSuperClassCountPerClassArray(int[][] directSubClassIndices) {
+		int[] counts = new int[directSubClassIndices.length];
+		for (int[] children : directSubClassIndices) {
+			for (int c : children) {
+				counts[c]++;
+			}
+		}
+		return counts;
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.monarchinitiative.owlsim.kb.impl;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maps String identifiers to integer indices and back, using a precomputed
+ * array for index-to-id lookup and an open-addressing (linear probing) table
+ * for id-to-index lookup.
+ *
+ * Each index has a single representative id, but any number of ids (e.g.
+ * members of an equivalence set) can be mapped to the same index.
+ *
+ * Instances are populated once when the kb is built, and are read-only
+ * afterwards; it is safe for multiple threads to read concurrently after that.
+ *
+ * @author cjm
+ *
+ */
+public class IdIndex {
+
+	private static final int NOT_FOUND = -1;
+
+	private final String[] ids;
+	private String[] keys;
+	private int[] values;
+	private int size;
+
+	/**
+	 * @param ids - representative id for each index
+	 * @param expectedSize - expected number of ids, including non-representative ids
+	 */
+	public IdIndex(String[] ids, int expectedSize) {
+		Preconditions.checkNotNull(ids);
+		this.ids = ids;
+		int capacity = Integer.highestOneBit(Math.max(4, Math.max(expectedSize, ids.length)) * 2 - 1) << 1;
+		keys = new String[capacity];
+		values = new int[capacity];
+		for (int i = 0; i < ids.length; i++) {
+			put(ids[i], i);
+		}
+	}
+
+	/**
+	 * @param ids - representative id for each index
+	 * @return new index
+	 */
+	public static IdIndex create(String[] ids) {
+		return new IdIndex(ids, ids.length);
+	}
+
+	/**
+	 * Map an additional id to an existing index. If the id is already mapped,
+	 * the existing mapping is kept.
+	 *
+	 * @param id
+	 * @param index
+	 */
+	public void put(String id, int index) {
+		Preconditions.checkNotNull(id);
+		Preconditions.checkElementIndex(index, ids.length);
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		int slot = mix(id.hashCode()) & mask;
+		while (keys[slot] != null) {
+			if (keys[slot].equals(id)) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = id;
+		values[slot] = index;
+		size++;
+	}
+
+	/**
+	 * @param id
+	 * @return index for id, or -1 if the id is not known
+	 */
+	public int getIndex(String id) {
+		String[] ks = keys;
+		int mask = ks.length - 1;
+		int slot = mix(id.hashCode()) & mask;
+		String k;
+		while ((k = ks[slot]) != null) {
+			if (k.equals(id)) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * @param index
+	 * @return representative id for index
+	 */
+	public String getId(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @return number of indices
+	 */
+	public int getNumIndices() {
+		return ids.length;
+	}
+
+	/**
+	 * @return number of ids mapped, including non-representative ids
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return copy of the representative ids, in index order
+	 */
+	public String[] getIds() {
+		return Arrays.copyOf(ids, ids.length);
+	}
+
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new String[capacity];
+		values = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = mix(oldKeys[i].hashCode()) & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	// spread the bits, as ids often share long common prefixes
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.monarchinitiative.owlsim.kb.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Inverted indices from id prefix and from (property, value) to the
+ * individuals of a kb, shared by the kb implementations.
+ *
+ * Each prefix is indexed on first use. Each property is indexed on first use
+ * in a single pass over all individuals, yielding bitmaps for all of its values.
+ * Both are keyed by values supplied in queries, so only the most recently used
+ * are kept.
+ *
+ * @author cjm
+ *
+ */
+public class IndividualBitmapIndex {
+
+	private static final EWAHCompressedBitmap EMPTY_BM = new EWAHCompressedBitmap();
+
+	/**
+	 * maximum number of prefixes for which individuals are kept
+	 */
+	public static final int MAX_CACHED_PREFIXES = 256;
+
+	/**
+	 * maximum number of properties for which individuals are kept
+	 */
+	public static final int MAX_CACHED_PROPERTIES = 64;
+
+	private final BMKnowledgeBase kb;
+	private final LoadingCache<String, EWAHCompressedBitmap> individualsByPrefix = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_PREFIXES)
+			.build(CacheLoader.from(this::indexPrefix));
+	private final LoadingCache<String, Map<Object, EWAHCompressedBitmap>> individualsByPropertyValue = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_PROPERTIES)
+			.build(CacheLoader.from(this::indexProperty));
+
+	/**
+	 * @param kb
+	 */
+	public IndividualBitmapIndex(BMKnowledgeBase kb) {
+		this.kb = kb;
+	}
+
+	/**
+	 * @param prefix
+	 * @return individuals with an id (or equivalent id) starting with prefix
+	 */
+	public EWAHCompressedBitmap getIndividualsWithIdPrefixBM(String prefix) {
+		return individualsByPrefix.getUnchecked(prefix);
+	}
+
+	/**
+	 * @param property
+	 * @param value
+	 * @return individuals with value as one of the values of property
+	 */
+	public EWAHCompressedBitmap getIndividualsWithPropertyValueBM(String property, Object value) {
+		EWAHCompressedBitmap bm = individualsByPropertyValue.getUnchecked(property).get(value);
+		return bm == null ? EMPTY_BM : bm;
+	}
+
+	private EWAHCompressedBitmap indexPrefix(String prefix) {
+		Set<Integer> ixs = new TreeSet<>();
+		for (String id : kb.getIndividualIdsInSignature()) {
+			if (id.startsWith(prefix)) {
+				ixs.add(kb.getIndividualIndex(id));
+			}
+		}
+		return toBitmap(ixs);
+	}
+
+	private Map<Object, EWAHCompressedBitmap> indexProperty(String property) {
+		Map<Object, Set<Integer>> ixsByValue = new HashMap<>();
+		for (String id : kb.getIndividualIdsInSignature()) {
+			Map<String, Set<Object>> pvm = kb.getPropertyValueMap(id);
+			if (pvm == null || !pvm.containsKey(property))
+				continue;
+			int ix = kb.getIndividualIndex(id);
+			for (Object v : pvm.get(property)) {
+				ixsByValue.computeIfAbsent(v, k -> new TreeSet<>()).add(ix);
+			}
+		}
+		Map<Object, EWAHCompressedBitmap> bmByValue = new HashMap<>();
+		for (Map.Entry<Object, Set<Integer>> e : ixsByValue.entrySet()) {
+			bmByValue.put(e.getKey(), toBitmap(e.getValue()));
+		}
+		return bmByValue;
+	}
+
+	// ixs must be in ascending order
+	private EWAHCompressedBitmap toBitmap(Set<Integer> ixs) {
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		for (int ix : ixs) {
+			bm.set(ix);
+		}
+		return bm;
+	}
+
+}
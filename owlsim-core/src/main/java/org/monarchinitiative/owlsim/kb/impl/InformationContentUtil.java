@@ -0,0 +1,28 @@
+package org.monarchinitiative.owlsim.kb.impl;
+
+/**
+ * Calculation of information content (IC) per class, shared by the kb
+ * implementations so that IC is computed once per kb.
+ * 
+ * @author cjm
+ *
+ */
+public class InformationContentUtil {
+
+	/**
+	 * IC is defined as the negative log of the probability for a given class
+	 * used in an annotation.
+	 * 
+	 * @param frequencyByClassIndex - number of individuals per class index
+	 * @param numIndividuals - corpus size
+	 * @return IC per class index
+	 */
+	public static double[] getInformationContentPerClassArray(int[] frequencyByClassIndex, int numIndividuals) {
+		double[] ics = new double[frequencyByClassIndex.length];
+		for (int i = 0; i < ics.length; i++) {
+			ics[i] = -Math.log(frequencyByClassIndex[i] / (double) numIndividuals);
+		}
+		return ics;
+	}
+
+}
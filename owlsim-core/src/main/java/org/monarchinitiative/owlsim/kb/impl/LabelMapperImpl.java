@@ -3,6 +3,7 @@ package org.monarchinitiative.owlsim.kb.impl;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static java.util.Collections.emptySet;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -118,6 +119,13 @@ public class LabelMapperImpl implements LabelMapper {
 		return labels.iterator().next();
 	}
 	
+	/**
+	 * @return all ids that have at least one label
+	 */
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(idToLabelMap.keySet());
+	}
+
 	/**
 	 * Initialize label<->id mappings using an OWLOntology
 	 * 
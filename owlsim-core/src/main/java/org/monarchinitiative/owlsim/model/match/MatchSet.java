@@ -41,7 +41,10 @@ public interface MatchSet {
 	public Match getMatchesWithId(String matchId);
 	
 	/**
-	 * @param createMatch
+	 * Add a match. If the match set is bounded by a limit, the match is
+	 * only retained if it is amongst the best limit matches seen so far
+	 * 
+	 * @param match
 	 */
 	public void add(Match match);
 
@@ -1,5 +1,6 @@
 package org.monarchinitiative.owlsim.model.match.impl;
 
+import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
 import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
 import org.monarchinitiative.owlsim.model.match.Match;
 
@@ -16,6 +17,9 @@ public class GridMatchImpl implements Match {
 	String matchLabel;
 	double score;
 	ClassInformationContentPair[] queryMatchArray;
+	// only used until resolved into queryMatchArray; never serialized
+	transient int[] queryMatchIndices;
+	transient MostInformativeCommonAncestorCalculator micaCalculator;
 	int rank;
 	Double p;
 	
@@ -34,10 +38,57 @@ public class GridMatchImpl implements Match {
 		this.p = Double.NaN;
 	}
 	
+	/**
+	 * The MICA for each query class is kept as a class index, and only
+	 * resolved to a CURIE by {@link #resolveQueryMatchArray()}; matchers must
+	 * resolve every match they return, so that serialized matches keep
+	 * the queryMatchArray
+	 * 
+	 * @param matchId
+	 * @param matchLabel
+	 * @param probability
+	 * @param queryMatchIndices - index of MICA for each query class, or -1
+	 * @param micaCalculator - used to resolve indices
+	 */
+	public GridMatchImpl(String matchId, String matchLabel, double probability, int[] queryMatchIndices,
+			MostInformativeCommonAncestorCalculator micaCalculator) {
+		this(matchId, matchLabel, probability, (ClassInformationContentPair[]) null);
+		this.queryMatchIndices = queryMatchIndices;
+		this.micaCalculator = micaCalculator;
+	}
+	
 	public static Match create(String matchId, String matchLabel, double probability, ClassInformationContentPair[] qmatchArr) {
 		return new GridMatchImpl(matchId, matchLabel, probability, qmatchArr);
 	}
 
+	public static Match create(String matchId, String matchLabel, double probability, int[] qmatchIndices,
+			MostInformativeCommonAncestorCalculator micaCalculator) {
+		return new GridMatchImpl(matchId, matchLabel, probability, qmatchIndices, micaCalculator);
+	}
+
+	/**
+	 * Converts MICA indices to (CURIE, IC) pairs, if not already done
+	 */
+	public synchronized void resolveQueryMatchArray() {
+		if (queryMatchArray == null && queryMatchIndices != null) {
+			ClassInformationContentPair[] arr = new ClassInformationContentPair[queryMatchIndices.length];
+			for (int j = 0; j < arr.length; j++) {
+				arr[j] = micaCalculator.getClassInformationContentPair(queryMatchIndices[j]);
+			}
+			queryMatchArray = arr;
+			queryMatchIndices = null;
+			micaCalculator = null;
+		}
+	}
+
+	/**
+	 * @return MICA for each query class; null elements if there is no MICA
+	 */
+	public ClassInformationContentPair[] getQueryMatchArray() {
+		resolveQueryMatchArray();
+		return queryMatchArray;
+	}
+
 	public String getMatchId() {
 		return matchId;
 	}
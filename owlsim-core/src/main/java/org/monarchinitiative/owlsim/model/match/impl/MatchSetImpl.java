@@ -1,11 +1,13 @@
 package org.monarchinitiative.owlsim.model.match.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.inference.TestUtils;
@@ -19,6 +21,12 @@ import org.monarchinitiative.owlsim.model.match.ProfileQuery;
  * A collection of matches for a single query profile against a set of
  * individuals
  * 
+ * A match set may be bounded by a limit, in which case only the best
+ * limit matches are retained as they are added, using a heap. The
+ * retained matches, their order and their ranks are identical to adding
+ * all matches, sorting and truncating: ties at the boundary are resolved
+ * in favor of the match added first.
+ * 
  * @author cjm
  *
  */
@@ -29,21 +37,81 @@ public class MatchSetImpl implements MatchSet {
 	MethodMetadata methodMetadata;
 	private boolean isSorted;
 	private Map<String, Match> referenceMatches;
-	
+
+	// bounded mode; limit < 0 means all matches are retained
+	private transient int limit;
+	private transient PriorityQueue<Candidate> candidates; // worst candidate at head
+	private transient long numAdded = 0;
+	private transient boolean isCandidatesChanged = false;
+
+	// bounded mode, for queries with reference individuals only: reference
+	// matches may fall outside the limit but must still be ranked against all scores
+	private transient List<Match> referenceCandidates;
+	private transient double[] allScores;
+	private transient int numScores = 0;
+
+	/**
+	 * A match plus the order in which it was added, used to break ties
+	 */
+	private static class Candidate {
+		final Match match;
+		final long seq;
+
+		Candidate(Match match, long seq) {
+			this.match = match;
+			this.seq = seq;
+		}
+	}
+
+	// orders worst first: lowest score, and latest added amongst ties
+	private static Comparator<Candidate> CandidateComparator = 
+			new Comparator<Candidate>() {
+		public int compare(Candidate c1, Candidate c2) {
+			int c = MatchComparator.compare(c2.match, c1.match);
+			if (c != 0) return c;
+			return Long.compare(c2.seq, c1.seq);
+		}  
+	};
+
 	/**
 	 * constructor
 	 */
 	public MatchSetImpl(ProfileQuery query) {
+		this(query, -1);
+	}
+
+	/**
+	 * @param query
+	 * @param limit - maximum number of matches to retain, or -1 for all
+	 */
+	public MatchSetImpl(ProfileQuery query, int limit) {
 		super();
 		isSorted = false;
 		this.query = query;
+		this.limit = limit;
 		matches = new ArrayList<Match>();
 		referenceMatches = new HashMap<>();
+		if (limit > -1) {
+			candidates = new PriorityQueue<Candidate>(Math.min(limit, 1024) + 1, CandidateComparator);
+			if (query != null && query.getReferenceIndividualIds() != null) {
+				referenceCandidates = new ArrayList<>();
+				allScores = new double[1024];
+			}
+		}
 	}
 	
 	public static MatchSet create(ProfileQuery query) {
 		return new MatchSetImpl(query);
 	}
+
+	/**
+	 * @param query
+	 * @param limit - maximum number of matches to retain, or -1 for all
+	 * @return new match set that only retains the top limit matches
+	 */
+	public static MatchSet create(ProfileQuery query, int limit) {
+		return new MatchSetImpl(query, limit);
+	}
 	
 
 	public ProfileQuery getQuery() {
@@ -76,6 +144,16 @@ public class MatchSetImpl implements MatchSet {
 	 * @return matches
 	 */
 	public List<Match> getMatches() {
+		if (isCandidatesChanged) {
+			// retained candidates, in the order they were added
+			List<Candidate> cs = new ArrayList<>(candidates);
+			cs.sort((c1, c2) -> Long.compare(c1.seq, c2.seq));
+			matches = new ArrayList<Match>(cs.size());
+			for (Candidate c : cs) {
+				matches.add(c.match);
+			}
+			isCandidatesChanged = false;
+		}
 		return matches;
 	}
 
@@ -85,7 +163,7 @@ public class MatchSetImpl implements MatchSet {
 	 */
 	public List<Match> getMatchesWithRank(int rank) {
 		List<Match> ms = new ArrayList<Match>();
-		for (Match m : matches) {
+		for (Match m : getMatches()) {
 			if (m.getRank() == rank)
 				ms.add(m);
 		}
@@ -98,7 +176,7 @@ public class MatchSetImpl implements MatchSet {
 	 */
 	public List<Match> getMatchesWithOrBelowRank(int rank) {
 		List<Match> ms = new ArrayList<Match>();
-		for (Match m : matches) {
+		for (Match m : getMatches()) {
 			if (m.getRank() <= rank)
 				ms.add(m);
 		}
@@ -107,7 +185,7 @@ public class MatchSetImpl implements MatchSet {
 
 	
 	public Match getMatchesWithId(String id) {
-		for (Match m : matches) {
+		for (Match m : getMatches()) {
 			if (m.getMatchId().equals(id)) {
 				return m;
 			}
@@ -117,23 +195,56 @@ public class MatchSetImpl implements MatchSet {
 
 
 	/**
+	 * Replaces all matches; the match set is no longer bounded
+	 * 
 	 * @param matches
 	 */
 	public void setMatches(List<Match> matches) {
 		this.matches = matches;
+		limit = -1;
+		candidates = null;
+		referenceCandidates = null;
+		allScores = null;
+		isCandidatesChanged = false;
 	}
 	
 	
 	@Override
 	public void add(Match match) {
-		this.matches.add(match);
+		if (candidates == null) {
+			this.matches.add(match);
+			return;
+		}
+		if (referenceCandidates != null) {
+			if (numScores == allScores.length) {
+				allScores = Arrays.copyOf(allScores, numScores * 2);
+			}
+			allScores[numScores++] = match.getScore();
+			if (query.getReferenceIndividualIds().contains(match.getMatchId())) {
+				referenceCandidates.add(match);
+			}
+		}
+		Candidate c = new Candidate(match, numAdded++);
+		if (candidates.size() < limit) {
+			candidates.add(c);
+		}
+		else if (limit > 0 && CandidateComparator.compare(c, candidates.peek()) > 0) {
+			// better than the current worst, which is evicted
+			candidates.poll();
+			candidates.add(c);
+		}
+		else {
+			return;
+		}
+		isCandidatesChanged = true;
+		isSorted = false;
 	}
 
 	/**
 	 * Sorts the matches by probability, highest probability first
 	 */
 	public void sortMatches() {
-		Collections.sort(matches, MatchComparator);
+		Collections.sort(getMatches(), MatchComparator);
 		isSorted = true;
 		rankMatches();
 	}
@@ -152,7 +263,7 @@ public class MatchSetImpl implements MatchSet {
 			sortMatches();
 		int rank = 0;
 		Double lastScore = null;
-		for (Match m : matches) {
+		for (Match m : getMatches()) {
 		    if (query.getReferenceIndividualIds() != null &&
 		            query.getReferenceIndividualIds().contains(m.getMatchId())) {
 		        referenceMatches.put(m.getMatchId(), m);
@@ -167,11 +278,43 @@ public class MatchSetImpl implements MatchSet {
 			lastScore = s;
 					
 		}
+		if (referenceCandidates != null) {
+			rankReferenceCandidates();
+		}
+	}
+
+	// reference matches outside the limit are ranked as if all matches
+	// had been retained: one more than the number of distinct higher scores
+	private void rankReferenceCandidates() {
+		double[] sortedScores = null;
+		for (Match m : referenceCandidates) {
+			if (referenceMatches.containsKey(m.getMatchId()))
+				continue;
+			if (sortedScores == null) {
+				sortedScores = Arrays.copyOf(allScores, numScores);
+				Arrays.sort(sortedScores);
+				// NaNs are sorted last and never compare higher
+				int n = sortedScores.length;
+				while (n > 0 && Double.isNaN(sortedScores[n - 1])) {
+					n--;
+				}
+				sortedScores = Arrays.copyOf(sortedScores, n);
+			}
+			double s = m.getScore();
+			int numDistinctHigherScores = 0;
+			for (int i = sortedScores.length - 1; i >= 0 && sortedScores[i] > s; i--) {
+				if (i == sortedScores.length - 1 || sortedScores[i] != sortedScores[i + 1]) {
+					numDistinctHigherScores++;
+				}
+			}
+			m.setRank(numDistinctHigherScores + 1);
+			referenceMatches.put(m.getMatchId(), m);
+		}
 	}
 	
 	@Override
 	public void truncate(int limit) {
-		if (matches.size() > limit)
+		if (getMatches().size() > limit)
 			matches = matches.subList(0, limit);
 	}
 	
@@ -186,7 +329,7 @@ public class MatchSetImpl implements MatchSet {
 
     public DescriptiveStatistics getScores() {
 		DescriptiveStatistics ds = new DescriptiveStatistics();
-		for (Match m : this.matches) {
+		for (Match m : getMatches()) {
 			ds.addValue(m.getScore());
 		}
 		return ds;
@@ -194,6 +337,7 @@ public class MatchSetImpl implements MatchSet {
 	
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
+		List<Match> matches = getMatches();
 		int i = 0;
 		while (i < matches.size()) {
 			sb.append(matches.get(i).toString());
@@ -209,7 +353,7 @@ public class MatchSetImpl implements MatchSet {
 	}
 
 	public void calculateMatchSignificance(DescriptiveStatistics background) {
-		for (Match m : this.matches) {
+		for (Match m : getMatches()) {
 			double p = TestUtils.tTest(m.getScore(), background);
 			m.setSignificance(p);
 		}
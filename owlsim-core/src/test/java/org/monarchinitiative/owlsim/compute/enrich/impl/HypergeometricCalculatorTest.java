@@ -0,0 +1,43 @@
+package org.monarchinitiative.owlsim.compute.enrich.impl;
+
+import org.apache.commons.math3.distribution.HypergeometricDistribution;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks log-factorial hypergeometric tails against commons-math
+ *
+ * @author cjm
+ *
+ */
+public class HypergeometricCalculatorTest {
+
+    @Test
+    public void testAgainstCommonsMath() {
+        HypergeometricCalculator hc = new HypergeometricCalculator(2000);
+        int[][] params = new int[][] {
+            // N, K, n
+            {10, 3, 4},
+            {50, 10, 20},
+            {200, 5, 150},
+            {2000, 40, 30},
+            {2000, 1500, 600}
+        };
+        for (int[] p : params) {
+            int N = p[0];
+            int K = p[1];
+            int n = p[2];
+            HypergeometricDistribution hg = new HypergeometricDistribution(N, K, n);
+            for (int k = 0; k <= Math.min(K, n); k++) {
+                assertClose(hg.probability(k), hc.probability(N, K, n, k));
+                assertClose(hg.upperCumulativeProbability(k), hc.upperCumulativeProbability(N, K, n, k));
+                assertClose(hg.cumulativeProbability(k), hc.cumulativeProbability(N, K, n, k));
+            }
+        }
+    }
+
+    private void assertClose(double expected, double actual) {
+        Assert.assertEquals(expected, actual, 1e-12 + expected * 1e-9);
+    }
+
+}
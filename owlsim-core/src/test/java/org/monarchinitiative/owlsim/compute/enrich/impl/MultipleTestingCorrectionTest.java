@@ -0,0 +1,36 @@
+package org.monarchinitiative.owlsim.compute.enrich.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.enrich.EnrichmentConfig.CorrectionMethod;
+
+/**
+ * Expected values as calculated by R p.adjust
+ *
+ * @author cjm
+ *
+ */
+public class MultipleTestingCorrectionTest {
+
+    private final double[] ps = new double[] {0.04, 0.001, 0.03, 0.2, 0.01};
+
+    @Test
+    public void testHolm() {
+        double[] adjusted = MultipleTestingCorrection.correct(ps, ps.length, CorrectionMethod.HOLM);
+        Assert.assertArrayEquals(new double[] {0.09, 0.005, 0.09, 0.2, 0.04}, adjusted, 1e-12);
+    }
+
+    @Test
+    public void testBenjaminiHochberg() {
+        double[] adjusted = MultipleTestingCorrection.correct(ps, ps.length, CorrectionMethod.BENJAMINI_HOCHBERG);
+        Assert.assertArrayEquals(new double[] {0.05, 0.005, 0.05, 0.2, 0.025}, adjusted, 1e-12);
+    }
+
+    @Test
+    public void testUntestedHypotheses() {
+        // p.adjust(c(ps, 1, 1, 1), "BH")[1:5]
+        double[] adjusted = MultipleTestingCorrection.correct(ps, 8, CorrectionMethod.BENJAMINI_HOCHBERG);
+        Assert.assertArrayEquals(new double[] {0.08, 0.008, 0.08, 0.32, 0.04}, adjusted, 1e-12);
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.monarchinitiative.owlsim.compute.kb.impl;
+
+import java.net.URISyntaxException;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.kb.impl.IdIndex;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Tests the precomputed id tables, both directly and via the kb
+ *
+ * @author cjm
+ *
+ */
+public class IdIndexTest extends AbstractOwlTest {
+
+	@Test
+	public void testIndex() {
+		int n = 1000;
+		String[] ids = new String[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = "MP:" + (1000000 + i);
+		}
+		IdIndex index = IdIndex.create(ids);
+		// aliases force the table to grow
+		for (int i = 0; i < n; i++) {
+			index.put("http://purl.obolibrary.org/obo/MP_" + (1000000 + i), i);
+		}
+		index.put("MP:1000000", 5); // already mapped; ignored
+		Assert.assertEquals(n, index.getNumIndices());
+		Assert.assertEquals(2 * n, index.size());
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(i, index.getIndex(ids[i]));
+			Assert.assertEquals(i, index.getIndex("http://purl.obolibrary.org/obo/MP_" + (1000000 + i)));
+			Assert.assertEquals(ids[i], index.getId(i));
+		}
+		Assert.assertEquals(-1, index.getIndex("MP:999"));
+	}
+
+	@Test
+	public void testKbEquivalentClasses() throws OWLOntologyCreationException, URISyntaxException {
+		load("equivalentClassesTest.owl");
+		String x1 = "http://x.org/x1";
+		String y1 = "http://x.org/y1";
+		Assert.assertEquals(kb.getClassIndex(x1), kb.getClassIndex(y1));
+		Assert.assertTrue(kb.getClassIds(kb.getClassIndex(x1)).contains(kb.getClassId(kb.getClassIndex(x1))));
+		checkRoundTrip();
+	}
+
+	@Test
+	public void testKbMP() throws OWLOntologyCreationException, URISyntaxException {
+		load("mp-subset.ttl");
+		checkRoundTrip();
+	}
+
+	private void checkRoundTrip() {
+		for (String id : kb.getClassIdsInSignature()) {
+			int ix = kb.getClassIndex(id);
+			Assert.assertTrue(kb.getClassIds(ix).contains(id));
+			Assert.assertEquals(ix, kb.getClassIndex(kb.getClassId(ix)));
+		}
+		Set<String> inds = kb.getIndividualIdsInSignature();
+		Assert.assertEquals(inds.size(), kb.getNumIndividualNodes());
+		for (int i = 0; i < kb.getNumIndividualNodes(); i++) {
+			String id = kb.getIndividualId(i);
+			Assert.assertTrue(inds.contains(id));
+			Assert.assertEquals(i, kb.getIndividualIndex(id));
+			Assert.assertEquals(kb.getTypesBM(id), kb.getTypesBM(i));
+			Assert.assertEquals(kb.getDirectTypesBM(id), kb.getDirectTypesBM(i));
+		}
+		Assert.assertSame(inds, kb.getIndividualIdsInSignature());
+		try {
+			inds.clear();
+			Assert.fail("expected unmodifiable set");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+}
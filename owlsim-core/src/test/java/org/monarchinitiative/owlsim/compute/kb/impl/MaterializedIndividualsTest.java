@@ -0,0 +1,49 @@
+package org.monarchinitiative.owlsim.compute.kb.impl;
+
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.io.OwlKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.impl.BMKnowledgeBaseOWLAPIImpl;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Tests that the individuals of a class are the same whether materialized
+ * in full, partially (over budget), or computed on demand
+ *
+ * @author cjm
+ *
+ */
+public class MaterializedIndividualsTest {
+
+	@Test
+	public void testBudgets() {
+		for (long budget : new long[] { 0, 2000, Long.MAX_VALUE }) {
+			BMKnowledgeBaseOWLAPIImpl kb = (BMKnowledgeBaseOWLAPIImpl) OwlKnowledgeBase.loader()
+					.loadOntology(Paths.get("src/test/resources", "mp-subset.ttl").toString())
+					.materializeIndividuals(budget)
+					.createKnowledgeBase();
+			// twice, to exercise the cache
+			for (int pass = 0; pass < 2; pass++) {
+				for (int cix = 0; cix < kb.getNumClassNodes(); cix++) {
+					if (cix == kb.getRootIndex())
+						continue;
+					Assert.assertEquals(getExpectedIndividuals(kb, cix).getPositions(),
+							kb.getIndividualsBM(cix).getPositions());
+				}
+			}
+			Assert.assertEquals(kb.getNumIndividualNodes(), kb.getIndividualsBM(kb.getRootIndex()).cardinality());
+		}
+	}
+
+	private EWAHCompressedBitmap getExpectedIndividuals(BMKnowledgeBaseOWLAPIImpl kb, int cix) {
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		for (int sub : kb.getSubClasses(cix).getPositions()) {
+			bm = bm.or(kb.getDirectIndividualsBM(sub));
+		}
+		return bm;
+	}
+
+}
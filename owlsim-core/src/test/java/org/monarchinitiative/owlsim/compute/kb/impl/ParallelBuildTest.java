@@ -0,0 +1,70 @@
+package org.monarchinitiative.owlsim.compute.kb.impl;
+
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.io.OwlKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+
+import uk.ac.manchester.cs.jfact.JFactFactory;
+
+/**
+ * Tests that building a kb in parallel gives the same index assignment and
+ * bitmaps as building it sequentially
+ *
+ * @author cjm
+ *
+ */
+public class ParallelBuildTest {
+
+	@Test
+	public void testSameAsSequential() {
+		compare(load(false), load(true));
+	}
+
+	/**
+	 * Ontologies from a non-concurrent manager and non-ELK reasoners are
+	 * always queried from one thread, even if a parallel build is requested
+	 */
+	@Test
+	public void testFallbackToSequential() {
+		BMKnowledgeBase kb = load(false);
+		compare(kb, loader().useStandardOntologyManager().buildInParallel(true).createKnowledgeBase());
+		// JFact is not thread-safe
+		BMKnowledgeBase jkb = loader().useReasonerFactory(new JFactFactory()).buildInParallel(true).createKnowledgeBase();
+		Assert.assertTrue(jkb.getNumClassNodes() > 0);
+	}
+
+	private void compare(BMKnowledgeBase kb, BMKnowledgeBase pkb) {
+		Assert.assertEquals(kb.getNumClassNodes(), pkb.getNumClassNodes());
+		Assert.assertEquals(kb.getNumIndividualNodes(), pkb.getNumIndividualNodes());
+		for (int cix = 0; cix < kb.getNumClassNodes(); cix++) {
+			Assert.assertEquals(kb.getClassId(cix), pkb.getClassId(cix));
+			Assert.assertEquals(kb.getSuperClassesBM(cix), pkb.getSuperClassesBM(cix));
+			Assert.assertEquals(kb.getDirectSuperClassesBM(cix), pkb.getDirectSuperClassesBM(cix));
+			Assert.assertEquals(kb.getSubClasses(cix), pkb.getSubClasses(cix));
+			Assert.assertEquals(kb.getDirectIndividualsBM(cix), pkb.getDirectIndividualsBM(cix));
+		}
+		for (int iix = 0; iix < kb.getNumIndividualNodes(); iix++) {
+			String id = kb.getIndividualId(iix);
+			Assert.assertEquals(id, pkb.getIndividualId(iix));
+			Assert.assertEquals(kb.getTypesBM(iix), pkb.getTypesBM(iix));
+			Assert.assertEquals(kb.getDirectTypesBM(iix), pkb.getDirectTypesBM(iix));
+			Assert.assertEquals(kb.getNegatedTypesBM(id), pkb.getNegatedTypesBM(id));
+			Assert.assertEquals(kb.getPropertyValueMap(id), pkb.getPropertyValueMap(id));
+		}
+	}
+
+	private BMKnowledgeBase load(boolean isParallel) {
+		return loader()
+				.buildInParallel(isParallel)
+				.createKnowledgeBase();
+	}
+
+	private OwlKnowledgeBase.Loader loader() {
+		return OwlKnowledgeBase.loader()
+				.loadOntology(Paths.get("src/test/resources", "mp-subset.ttl").toString());
+	}
+
+}
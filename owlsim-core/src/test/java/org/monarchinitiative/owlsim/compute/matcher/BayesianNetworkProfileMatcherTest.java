@@ -6,6 +6,8 @@ import org.junit.Test;
 import org.monarchinitiative.owlsim.compute.matcher.impl.BayesianNetworkProfileMatcher;
 import org.monarchinitiative.owlsim.eval.TestQuery;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 
 /**
@@ -82,4 +84,29 @@ public class BayesianNetworkProfileMatcherTest extends AbstractProfileMatcherTes
 
 	}
 
+	/**
+	 * node probabilities cached by earlier queries must not change results
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCacheAcrossQueries() throws Exception {
+		loadSimplePhenoWithNegation();
+		BayesianNetworkProfileMatcher cached = BayesianNetworkProfileMatcher.create(kb);
+		BayesianNetworkProfileMatcher uncached = BayesianNetworkProfileMatcher.create(kb);
+		uncached.setCacheMemoryCeiling(0);
+
+		for (String i : kb.getIndividualIdsInSignature()) {
+			ProfileQuery pq = cached.createProfileQuery(i);
+			MatchSet ms = cached.findMatchProfile(pq);
+			MatchSet ums = uncached.findMatchProfile(pq);
+			for (Match m : ms.getMatches()) {
+				Assert.assertEquals(ums.getMatchesWithId(m.getMatchId()).getScore(), m.getScore(), 0.000001);
+			}
+		}
+		LOG.info(cached.getNodeProbabilityCache());
+		Assert.assertTrue(cached.getNodeProbabilityCache().getStats().hitCount() > 0);
+		Assert.assertEquals(0, uncached.getNodeProbabilityCache().size());
+	}
+
 }
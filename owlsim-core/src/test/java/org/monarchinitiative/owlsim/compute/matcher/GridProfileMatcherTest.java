@@ -0,0 +1,72 @@
+package org.monarchinitiative.owlsim.compute.matcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.impl.GridProfileMatcher;
+import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
+import org.monarchinitiative.owlsim.io.NDJSONWriter;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+import org.monarchinitiative.owlsim.model.match.impl.GridMatchImpl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class GridProfileMatcherTest extends AbstractProfileMatcherTest {
+
+	protected ProfileMatcher createProfileMatcher(BMKnowledgeBase kb) {
+		return GridProfileMatcher.create(kb);
+	}
+
+	@Test
+	public void testJsonRoundTrip() throws Exception {
+		loadSimplePhenoWithNegation();
+		ProfileMatcher profileMatcher = createProfileMatcher(kb);
+		String i = kb.getIndividualIdsInSignature().iterator().next();
+		ProfileQuery q = profileMatcher.createProfileQuery(i);
+		MatchSet matches = profileMatcher.findMatchProfile(q);
+		Assert.assertFalse(matches.getMatches().isEmpty());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NDJSONWriter writer = new NDJSONWriter(new PrintStream(out));
+		for (Match m : matches.getMatches()) {
+			writer.write(m);
+		}
+		writer.flush();
+
+		String[] lines = out.toString().split("\n");
+		Assert.assertEquals(matches.getMatches().size(), lines.length);
+		Gson gson = new Gson();
+		for (int k = 0; k < lines.length; k++) {
+			GridMatchImpl m = (GridMatchImpl) matches.getMatches().get(k);
+
+			// MICAs are written as resolved (classId, ic) pairs, not class indices
+			JsonObject json = new JsonParser().parse(lines[k]).getAsJsonObject();
+			Assert.assertFalse(json.has("queryMatchIndices"));
+			Assert.assertTrue(json.has("queryMatchArray"));
+
+			GridMatchImpl rm = gson.fromJson(lines[k], GridMatchImpl.class);
+			Assert.assertEquals(m.getMatchId(), rm.getMatchId());
+			Assert.assertEquals(m.getScore(), rm.getScore(), 0.0001);
+			ClassInformationContentPair[] expected = m.getQueryMatchArray();
+			ClassInformationContentPair[] actual = rm.getQueryMatchArray();
+			Assert.assertEquals(expected.length, actual.length);
+			for (int j = 0; j < expected.length; j++) {
+				if (expected[j] == null) {
+					Assert.assertNull(actual[j]);
+				}
+				else {
+					Assert.assertEquals(expected[j].classId, actual[j].classId);
+					Assert.assertEquals(expected[j].ic, actual[j].ic, 0.0001);
+				}
+			}
+		}
+	}
+
+}
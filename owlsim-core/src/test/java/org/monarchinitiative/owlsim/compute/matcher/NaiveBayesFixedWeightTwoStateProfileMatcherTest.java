@@ -6,6 +6,8 @@ import org.junit.Test;
 import org.monarchinitiative.owlsim.compute.matcher.impl.NaiveBayesFixedWeightTwoStateProfileMatcher;
 import org.monarchinitiative.owlsim.eval.TestQuery;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 
 /**
@@ -134,5 +136,108 @@ public class NaiveBayesFixedWeightTwoStateProfileMatcherTest extends AbstractPro
         Assert.assertEquals(5, nOk);
     }
 
+    /**
+     * log-space sum over the (fnr, fpr) grid should agree with summing
+     * the likelihood of each cell directly
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testLogLikelihood() throws Exception {
+        loadSimplePhenoWithNegation();
+        NaiveBayesFixedWeightTwoStateProfileMatcher profileMatcher = 
+                NaiveBayesFixedWeightTwoStateProfileMatcher.create(kb);
+        double[] fprs = new double[]{1e-10,0.0005,0.001,0.005,0.01};
+        double[] fnrs = new double[] {1e-10,0.005,0.01,0.05,0.1,0.2,0.4,0.8,0.9};
+        int[][] countsArr = new int[][] {
+            {0, 0, 0, 0},
+            {5, 0, 0, 20},
+            {3, 2, 1, 30},
+            {0, 4, 4, 12},
+            {10, 1, 0, 100}
+        };
+        for (int[] counts : countsArr) {
+            double expected = 0.0;
+            for (double fnr : fnrs) {
+                for (double fpr : fprs) {
+                    expected += Math.pow(1-fnr, counts[0]) * Math.pow(fnr, counts[1]) *
+                            Math.pow(fpr, counts[2]) * Math.pow(1-fpr, counts[3]);
+                }
+            }
+            double p = Math.exp(profileMatcher.getLogLikelihood(counts[0], counts[1], counts[2], counts[3]));
+            Assert.assertEquals(expected, p, expected * 1e-12);
+        }
+    }
+
+    /**
+     * counts large enough for every cell's likelihood to underflow to 0
+     * should still give a finite log likelihood
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testLogLikelihoodLargeProfile() throws Exception {
+        loadSimplePhenoWithNegation();
+        NaiveBayesFixedWeightTwoStateProfileMatcher profileMatcher = 
+                NaiveBayesFixedWeightTwoStateProfileMatcher.create(kb);
+        double[] fprs = new double[]{1e-10,0.0005,0.001,0.005,0.01};
+        double[] fnrs = new double[] {1e-10,0.005,0.01,0.05,0.1,0.2,0.4,0.8,0.9};
+        int[] counts = new int[] {200, 300, 150, 5000};
+        double maxLogPr = Double.NEGATIVE_INFINITY;
+        for (double fnr : fnrs) {
+            for (double fpr : fprs) {
+                Assert.assertEquals(0.0, Math.pow(1-fnr, counts[0]) * Math.pow(fnr, counts[1]) *
+                        Math.pow(fpr, counts[2]) * Math.pow(1-fpr, counts[3]), 0.0);
+                maxLogPr = Math.max(maxLogPr, counts[0] * Math.log(1-fnr) + counts[1] * Math.log(fnr) +
+                        counts[2] * Math.log(fpr) + counts[3] * Math.log(1-fpr));
+            }
+        }
+        double logPr = profileMatcher.getLogLikelihood(counts[0], counts[1], counts[2], counts[3]);
+        // at least the largest cell, at most all 45 cells equal to it
+        Assert.assertTrue(logPr >= maxLogPr);
+        Assert.assertTrue(logPr <= maxLogPr + Math.log(fnrs.length * fprs.length));
+    }
+
+    /**
+     * a tiny interpretation cache, or skipping improbable interpretations, 
+     * should not materially change scores
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFrequencyAwareBounded() throws Exception {
+        loadSimplePhenoWithFrequency();
+        NaiveBayesFixedWeightTwoStateProfileMatcher unbounded = 
+                NaiveBayesFixedWeightTwoStateProfileMatcher.create(kb);
+        unbounded.setkLeastFrequent(3);
+        NaiveBayesFixedWeightTwoStateProfileMatcher bounded = 
+                NaiveBayesFixedWeightTwoStateProfileMatcher.create(kb);
+        bounded.setkLeastFrequent(3);
+        bounded.setMaxCachedInterpretations(1);
+        bounded.setInterpretationEpsilon(1e-9);
+
+        for (String i : kb.getIndividualIdsInSignature()) {
+            ProfileQuery pq = unbounded.createPositiveProfileQuery(i);
+            MatchSet ms = unbounded.findMatchProfile(pq);
+            MatchSet bms = bounded.findMatchProfile(pq);
+            for (Match m : ms.getMatches()) {
+                Assert.assertEquals(m.getScore(), bms.getMatchesWithId(m.getMatchId()).getScore(), 1e-6);
+            }
+        }
+    
+        // each probability changes by a factor of at most 1+epsilon
+        double epsilon = 0.1;
+        bounded.setInterpretationEpsilon(epsilon);
+        for (String i : kb.getIndividualIdsInSignature()) {
+            ProfileQuery pq = unbounded.createPositiveProfileQuery(i);
+            MatchSet ms = unbounded.findMatchProfile(pq);
+            MatchSet bms = bounded.findMatchProfile(pq);
+            for (Match m : ms.getMatches()) {
+                double p = bms.getMatchesWithId(m.getMatchId()).getScore();
+                Assert.assertTrue(p <= m.getScore() * (1 + epsilon) + 1e-12);
+                Assert.assertTrue(p >= m.getScore() / (1 + epsilon) - 1e-12);
+            }
+        }
+    }
 
 }
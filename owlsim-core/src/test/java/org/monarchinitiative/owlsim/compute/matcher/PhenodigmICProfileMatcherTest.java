@@ -2,6 +2,8 @@ package org.monarchinitiative.owlsim.compute.matcher;
 
 import java.util.Set;
 
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.inference.TestUtils;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Test;
@@ -90,6 +92,74 @@ public class PhenodigmICProfileMatcherTest extends AbstractProfileMatcherTest {
         }
     }
 
+    @Test
+    public void testDirectPairwiseComparison() throws Exception {
+        loadSimplePhenoWithNegation();
+        ProfileMatcher profileMatcher = createProfileMatcher(kb);
+
+        for (String i : kb.getIndividualIdsInSignature()) {
+            ProfileQuery qp = profileMatcher.createProfileQuery(i);
+            qp.setLimit(-1);
+            MatchSet matches = profileMatcher.findMatchProfile(qp);
+            for (Match match : matches.getMatches()) {
+                String j = match.getMatchId();
+                Match pairMatch = profileMatcher.compareProfileToIndividual(qp, j);
+                Assert.assertEquals(j, pairMatch.getMatchId());
+                Assert.assertEquals(match.getScore(), pairMatch.getScore(), 0.0001);
+
+                Match bmPairMatch = profileMatcher.compareProfilePair(qp,
+                        kb.getDirectTypesBM(j), kb.getDirectNegatedTypesBM(j));
+                Assert.assertEquals(match.getScore(), bmPairMatch.getScore(), 0.0001);
+            }
+            // the caller's query is never modified
+            Assert.assertNull(qp.getFilter());
+        }
+    }
+
+    @Test
+    public void testPairwiseComparisonIgnoresLimit() throws Exception {
+        loadSimplePhenoWithNegation();
+        ProfileMatcher profileMatcher = createProfileMatcher(kb);
+
+        for (String i : kb.getIndividualIdsInSignature()) {
+            ProfileQuery qp = profileMatcher.createProfileQuery(i);
+            Match expected = profileMatcher.compareProfileToIndividual(qp, i);
+            qp.setLimit(0);
+            Match pairMatch = profileMatcher.compareProfileToIndividual(qp, i);
+            Assert.assertEquals(i, pairMatch.getMatchId());
+            Assert.assertEquals(expected.getScore(), pairMatch.getScore(), 0.0001);
+            Assert.assertEquals(0, qp.getLimit().intValue());
+        }
+    }
+
+    @Test
+    public void testSignificanceUsesAllScores() throws Exception {
+        loadSimplePhenoWithNegation();
+        ProfileMatcher profileMatcher = createProfileMatcher(kb);
+        double alpha = 0.9;
+
+        for (String i : kb.getIndividualIdsInSignature()) {
+            ProfileQuery allq = profileMatcher.createProfileQuery(i);
+            allq.setLimit(-1);
+            MatchSet all = profileMatcher.findMatchProfile(allq);
+            DescriptiveStatistics background = all.getScores();
+
+            // the limit must not narrow the background
+            ProfileQuery qp = profileMatcher.createProfileQuery(i);
+            qp.setLimit(2);
+            MatchSet matches = profileMatcher.findMatchProfile(qp, alpha);
+            Assert.assertEquals(all.getMatches().size(), matches.getMatches().size());
+            Assert.assertSame(qp, matches.getQuery());
+            Assert.assertEquals(Integer.valueOf(2), qp.getLimit());
+            for (Match m : matches.getMatches()) {
+                double p = TestUtils.tTest(m.getScore(), background);
+                if (p < alpha) {
+                    Assert.assertEquals(p, m.getSignificance(), 1e-12);
+                }
+            }
+        }
+    }
+
     public void testBasicWithFilter() throws Exception {
         loadSimplePhenoWithNegation();
         // ProfileQuery pq = profileMatcher.createProfileQuery("http://x.org/ind-dec-all");
@@ -0,0 +1,76 @@
+package org.monarchinitiative.owlsim.compute.matcher.mp;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.AbstractProfileMatcherTest;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.GridProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.PhenodigmICProfileMatcher;
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
+import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
+import org.monarchinitiative.owlsim.compute.mica.impl.MICAStoreImpl;
+import org.monarchinitiative.owlsim.compute.mica.impl.MostInformativeCommonAncestorCalculatorImpl;
+import org.monarchinitiative.owlsim.compute.mica.impl.SparseMICAStoreImpl;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+
+/**
+ * Checks that matchers give the same results whether MICAs are looked up
+ * in a MICA store or calculated from bitmaps
+ *
+ * @author cjm
+ *
+ */
+public class MICAStoreProfileMatcherMPTest extends AbstractProfileMatcherTest {
+
+	private Logger LOG = Logger.getLogger(MICAStoreProfileMatcherMPTest.class);
+
+	@Test
+	public void testSameMatches() throws Exception {
+		load("/mp-subset.ttl");
+		MICAStore micaStore = MICAStoreImpl.create(kb);
+		compare(PhenodigmICProfileMatcher.create(kb), PhenodigmICProfileMatcher.create(kb, micaStore));
+		compare(GridProfileMatcher.create(kb), GridProfileMatcher.create(kb, micaStore));
+
+		// query classes are not all annotated, so some lookups miss
+		MICAStore sparseStore = SparseMICAStoreImpl.createForAnnotatedClasses(kb, 0);
+		compare(PhenodigmICProfileMatcher.create(kb), PhenodigmICProfileMatcher.create(kb, sparseStore));
+		compare(GridProfileMatcher.create(kb), GridProfileMatcher.create(kb, sparseStore));
+	}
+
+	@Test
+	public void testCalculator() throws Exception {
+		load("/mp-subset.ttl");
+		MostInformativeCommonAncestorCalculator bmCalculator = new MostInformativeCommonAncestorCalculatorImpl(kb);
+		MostInformativeCommonAncestorCalculator storeCalculator =
+				new MostInformativeCommonAncestorCalculatorImpl(kb, MICAStoreImpl.create(kb));
+		for (String indId : kb.getIndividualIdsInSignature()) {
+			int[] types = kb.getDirectTypesBM(indId).toArray();
+			for (int cix = 0; cix < kb.getNumClassNodes(); cix++) {
+				assertEquals(bmCalculator.getMostInformativeCommonAncestorIndex(cix, types),
+						storeCalculator.getMostInformativeCommonAncestorIndex(cix, types));
+			}
+		}
+	}
+
+	private void compare(ProfileMatcher pm, ProfileMatcher storePm) throws Exception {
+		for (String indId : kb.getIndividualIdsInSignature()) {
+			ProfileQuery q = pm.createProfileQuery(indId);
+			q.setLimit(-1);
+			MatchSet expected = pm.findMatchProfile(q);
+			MatchSet actual = storePm.findMatchProfile(q);
+			assertEquals(expected.getMatches().size(), actual.getMatches().size());
+			for (int i = 0; i < expected.getMatches().size(); i++) {
+				Match em = expected.getMatches().get(i);
+				Match am = actual.getMatches().get(i);
+				assertEquals(em.getMatchId(), am.getMatchId());
+				assertEquals(em.getScore(), am.getScore(), 0.0);
+			}
+		}
+		LOG.info("Results with and without MICA store are identical for " + pm.getShortName());
+	}
+
+}
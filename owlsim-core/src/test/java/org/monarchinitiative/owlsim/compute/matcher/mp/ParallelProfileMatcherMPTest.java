@@ -0,0 +1,80 @@
+package org.monarchinitiative.owlsim.compute.matcher.mp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.AbstractProfileMatcherTest;
+import org.monarchinitiative.owlsim.compute.matcher.impl.AbstractProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.BayesianNetworkProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.GridProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.JaccardSimilarityProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.MaximumInformationContentSimilarityProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.NaiveBayesFixedWeightTwoStateProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.PhenodigmICProfileMatcher;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+
+/**
+ * Checks that the partitioned search gives the same results as the sequential one
+ *
+ * @author cjm
+ *
+ */
+public class ParallelProfileMatcherMPTest extends AbstractProfileMatcherTest {
+
+	private Logger LOG = Logger.getLogger(ParallelProfileMatcherMPTest.class);
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		load("/mp-subset.ttl");
+		List<AbstractProfileMatcher> pms = new ArrayList<>();
+		pms.add((AbstractProfileMatcher) PhenodigmICProfileMatcher.create(kb));
+		pms.add((AbstractProfileMatcher) GridProfileMatcher.create(kb));
+		pms.add((AbstractProfileMatcher) JaccardSimilarityProfileMatcher.create(kb));
+		pms.add(MaximumInformationContentSimilarityProfileMatcher.create(kb));
+		pms.add(BayesianNetworkProfileMatcher.create(kb));
+		pms.add(NaiveBayesFixedWeightTwoStateProfileMatcher.create(kb));
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (AbstractProfileMatcher pm : pms) {
+				for (String indId : kb.getIndividualIdsInSignature()) {
+					for (int limit : new int[] { -1, 3 }) {
+						ProfileQuery q = pm.createProfileQuery(indId);
+						q.setLimit(limit);
+						pm.setExecutorService(null);
+						MatchSet expected = pm.findMatchProfile(q);
+
+						pm.setExecutorService(executor);
+						pm.setNumPartitions(4);
+						pm.setMinPartitionSize(1);
+						MatchSet actual = pm.findMatchProfile(q);
+						compare(expected, actual);
+					}
+				}
+				LOG.info("Parallel and sequential results are identical for " + pm.getShortName());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void compare(MatchSet expected, MatchSet actual) {
+		assertEquals(expected.getMatches().size(), actual.getMatches().size());
+		for (int i = 0; i < expected.getMatches().size(); i++) {
+			Match em = expected.getMatches().get(i);
+			Match am = actual.getMatches().get(i);
+			assertEquals(em.getMatchId(), am.getMatchId());
+			assertEquals(em.getScore(), am.getScore(), 0.0);
+			assertEquals(em.getRank(), am.getRank());
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.monarchinitiative.owlsim.compute.mica;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator.ClassInformationContentPair;
+import org.monarchinitiative.owlsim.compute.mica.impl.MostInformativeCommonAncestorCalculatorImpl;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Tests that the index-based MICA lookup agrees with intersecting superclass
+ * bitmaps
+ *
+ * @author cjm
+ *
+ */
+public class MostInformativeCommonAncestorCalculatorTest extends AbstractMICAStoreTest {
+
+	@Test
+	public void testIndexSameAsIntersection() throws Exception {
+		load("mp-subset.ttl");
+		MostInformativeCommonAncestorCalculator mc = new MostInformativeCommonAncestorCalculatorImpl(kb);
+		int n = kb.getNumClassNodes();
+		for (int i = 0; i < n; i++) {
+			EWAHCompressedBitmap ibm = kb.getSuperClassesBM(i);
+			for (int j = 0; j < n; j++) {
+				EWAHCompressedBitmap jbm = kb.getSuperClassesBM(j);
+				IntIterator it = ibm.and(jbm).intIterator();
+				int expected = it.hasNext() ? it.next() : -1;
+				int a = mc.getMostInformativeCommonAncestorIndex(ibm, jbm);
+				Assert.assertEquals(expected, a);
+				ClassInformationContentPair p = mc.getMostInformativeCommonAncestorWithIC(ibm, jbm);
+				if (a < 0) {
+					Assert.assertNull(p);
+					Assert.assertTrue(Double.isNaN(mc.getInformationContentOfMostInformativeCommonAncestor(ibm, jbm)));
+				}
+				else {
+					Assert.assertEquals(kb.getClassId(a), p.classId);
+					Assert.assertEquals(p.ic, mc.getInformationContentOfMostInformativeCommonAncestor(ibm, jbm), 0.0);
+				}
+			}
+		}
+	}
+
+}
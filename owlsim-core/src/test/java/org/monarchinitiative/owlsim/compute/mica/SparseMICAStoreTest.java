@@ -0,0 +1,53 @@
+package org.monarchinitiative.owlsim.compute.mica;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.mica.impl.SparseMICAStoreImpl;
+
+/**
+ * Tests that a sparse MICAStore gives the same MICAs as the dense one,
+ * whatever is stored
+ *
+ * @author cjm
+ *
+ */
+public class SparseMICAStoreTest extends AbstractMICAStoreTest {
+
+	private Logger LOG = Logger.getLogger(SparseMICAStoreTest.class);
+
+	@Test
+	public void testSameAsDense() throws Exception {
+		load("mp-subset.ttl");
+		int n = kb.getNumClassNodes();
+		int prevEntries = Integer.MAX_VALUE;
+		for (double icFloor : new double[] { -1, 0, 2, 4 }) {
+			SparseMICAStoreImpl sparse = SparseMICAStoreImpl.create(kb, icFloor);
+			compare(sparse);
+			Assert.assertTrue(sparse.getNumEntries() <= prevEntries);
+			prevEntries = sparse.getNumEntries();
+			LOG.info("IC floor " + icFloor + ": " + sparse.getNumEntries() + " entries, "
+					+ sparse.getMemoryFootprint() + " bytes");
+		}
+		// with no floor, every pair is stored
+		Assert.assertEquals(n * (n - 1) / 2, SparseMICAStoreImpl.create(kb, -1).getNumEntries());
+		Assert.assertTrue(SparseMICAStoreImpl.create(kb, 0).getMemoryFootprint() < micaStore.getMemoryFootprint());
+
+		SparseMICAStoreImpl annotated = SparseMICAStoreImpl.createForAnnotatedClasses(kb, 0);
+		long footprint = annotated.getMemoryFootprint();
+		compare(annotated);
+		// memoized rows of unannotated classes are counted
+		Assert.assertTrue(annotated.getMemoryFootprint() > footprint);
+		Assert.assertTrue(annotated.getNumEntries() < SparseMICAStoreImpl.create(kb, 0).getNumEntries());
+	}
+
+	private void compare(MICAStore sparse) {
+		int n = kb.getNumClassNodes();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				Assert.assertEquals(micaStore.getMICAIndex(i, j), sparse.getMICAIndex(i, j));
+			}
+		}
+	}
+
+}
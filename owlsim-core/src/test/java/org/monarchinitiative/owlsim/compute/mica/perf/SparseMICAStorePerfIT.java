@@ -0,0 +1,66 @@
+package org.monarchinitiative.owlsim.compute.mica.perf;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.PhenodigmICProfileMatcher;
+import org.monarchinitiative.owlsim.compute.mica.MICAStore;
+import org.monarchinitiative.owlsim.compute.mica.impl.SparseMICAStoreImpl;
+import org.monarchinitiative.owlsim.eval.RandomOntologyMaker;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.kb.impl.BMKnowledgeBaseOWLAPIImpl;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+import org.prefixcommons.CurieUtil;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Checks that matching through a sparse MICAStore is not slower than
+ * calculating MICAs from bitmaps, even though most pairs of classes
+ * are below the IC floor and so are not stored
+ * 
+ * @author cjm
+ *
+ */
+public class SparseMICAStorePerfIT {
+
+	private Logger LOG = Logger.getLogger(SparseMICAStorePerfIT.class);
+
+	@Test
+	public void testSparseStoreNotSlower() throws Exception {
+		OWLOntology ontology = 
+				RandomOntologyMaker.create(4000, 2).addRandomIndividuals(8000).getOntology();
+		BMKnowledgeBase kb = BMKnowledgeBaseOWLAPIImpl.create(ontology, new ElkReasonerFactory(),
+				new CurieUtil(new HashMap<String, String>()));
+		MICAStore store = SparseMICAStoreImpl.createForAnnotatedClasses(kb, 2);
+		List<String> inds = kb.getIndividualIdsInSignature().stream().limit(200)
+				.collect(Collectors.toList());
+
+		ProfileMatcher bmMatcher = PhenodigmICProfileMatcher.create(kb);
+		ProfileMatcher storeMatcher = PhenodigmICProfileMatcher.create(kb, store);
+		// warm up both paths
+		time(bmMatcher, inds);
+		time(storeMatcher, inds);
+
+		long bmTime = time(bmMatcher, inds);
+		long storeTime = time(storeMatcher, inds);
+		LOG.info("bitmap path: " + bmTime + "ms; sparse store path: " + storeTime + "ms");
+		Assert.assertTrue(storeTime <= bmTime);
+	}
+
+	private long time(ProfileMatcher pm, List<String> inds) throws Exception {
+		long t1 = System.currentTimeMillis();
+		for (String i : inds) {
+			ProfileQuery q = pm.createProfileQuery(i);
+			q.setLimit(-1);
+			pm.findMatchProfile(q);
+		}
+		return System.currentTimeMillis() - t1;
+	}
+
+}
@@ -2,7 +2,9 @@ package org.monarchinitiative.owlsim.compute.runner;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
@@ -13,6 +15,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.mica.impl.NoRootException;
+import org.monarchinitiative.owlsim.io.NDJSONWriter;
 import org.monarchinitiative.owlsim.kb.LabelMapper;
 import org.monarchinitiative.owlsim.kb.NonUniqueLabelException;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
@@ -57,6 +60,24 @@ public class RunEngineTest {
 	}
 
 
+	@Test
+	public void runnerNDJSONTest() throws IOException, InstantiationException, IllegalAccessException, OWLOntologyCreationException, UnknownFilterException, IncoherentStateException {
+		RunConfiguration rc = loadConfiguration("runner/run.json");
+		rc.setNumThreads(2);
+		RunEngine re = new RunEngine(rc);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NDJSONWriter writer = new NDJSONWriter(new PrintStream(out));
+		re.execute(writer);
+
+		// one line per job, in submission order
+		String[] lines = out.toString().split("\n");
+		assertEquals(rc.getPairwiseJobs().size() + rc.getSearchJobs().size(), lines.length);
+		assertTrue(lines[0].contains("ind-big-heart-big-brain"));
+		// results are released once written
+		assertNull(rc.getSearchJobs().get(0).getMatchSet());
+	}
+
+
 	protected RunConfiguration loadConfiguration(String fn) throws IOException {
 		URL rfn = Resources.getResource(fn);
 		return RunnerUtil.generateRunConfigurationFromJsonFile(rfn.getFile());
@@ -0,0 +1,61 @@
+package org.monarchinitiative.owlsim.compute.stats;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.AbstractProfileMatcherTest;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.JaccardSimilarityProfileMatcher;
+
+/**
+ * Checks that all-by-all scores computed from the upper triangle of a
+ * symmetric matcher are the same as computing every pair
+ * 
+ * @author cjm
+ *
+ */
+public class KBMatcherCalculatorTest extends AbstractProfileMatcherTest {
+
+	@Test
+	public void testSymmetricIxI() throws Exception {
+		loadSimplePhenoWithNegation();
+		ProfileMatcher symmetric = JaccardSimilarityProfileMatcher.create(kb);
+		ProfileMatcher full = new JaccardSimilarityProfileMatcher(kb) {
+			@Override
+			public boolean isSymmetric() {
+				return false;
+			}
+		};
+		Assert.assertTrue(symmetric.isSymmetric());
+
+		KBMatcherCalculator c1 = new KBMatcherCalculator(symmetric);
+		KBMatcherCalculator c2 = new KBMatcherCalculator(full);
+		c1.computeIxI();
+		c2.computeIxI();
+		compare(c1, c2);
+
+		Set<String> subset = new HashSet<>(kb.getIndividualIdsInSignature());
+		subset.remove(subset.iterator().next());
+		c1 = new KBMatcherCalculator(symmetric);
+		c2 = new KBMatcherCalculator(full);
+		c1.computeIxI(subset);
+		c2.computeIxI(subset);
+		compare(c1, c2);
+	}
+
+	private void compare(KBMatcherCalculator c1, KBMatcherCalculator c2) {
+		for (int i = 0; i < c1.matchScores.length; i++) {
+			if (c2.matchScores[i] == null) {
+				Assert.assertNull(c1.matchScores[i]);
+				continue;
+			}
+			double[] v1 = c1.matchScores[i].getSortedValues();
+			double[] v2 = c2.matchScores[i].getSortedValues();
+			Assert.assertArrayEquals(Arrays.toString(v2), v2, v1, 1e-12);
+		}
+	}
+
+}
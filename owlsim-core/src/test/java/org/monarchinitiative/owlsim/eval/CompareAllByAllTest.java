@@ -0,0 +1,66 @@
+package org.monarchinitiative.owlsim.eval;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.owlsim.compute.matcher.AbstractProfileMatcherTest;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.JaccardSimilarityProfileMatcher;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+
+public class CompareAllByAllTest extends AbstractProfileMatcherTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSymmetricAllByAll() throws Exception {
+		loadSimplePhenoWithNegation();
+		ProfileMatcher profileMatcher = JaccardSimilarityProfileMatcher.create(kb);
+		assertTrue(profileMatcher.isSymmetric());
+
+		CompareAllByAll c = new CompareAllByAll(profileMatcher);
+		int[][] sm = c.compareAllByAll();
+		int n = kb.getNumIndividualNodes();
+
+		// compare against a full, sequential search of each row
+		for (int i = 0; i < n; i++) {
+			ProfileQuery q = profileMatcher.createProfileQuery(kb.getIndividualId(i));
+			q.setLimit(-1);
+			MatchSet ms = profileMatcher.findMatchProfile(q);
+			assertEquals(n, ms.getMatches().size());
+			for (Match m : ms.getMatches()) {
+				int j = kb.getIndividualIndex(m.getMatchId());
+				assertEquals(m.getPercentageScore(), sm[i][j]);
+				assertEquals(sm[i][j], sm[j][i]);
+			}
+		}
+
+		// tiles hold the upper triangle of the same matrix
+		List<File> files = c.compareAllByAll(folder.getRoot(), 3);
+		assertEquals((n + 2) / 3, files.size());
+		// tiles are renamed into place; no temporary files are left
+		assertEquals(files.size(), folder.getRoot().list().length);
+		int row = 0;
+		for (File file : files) {
+			CompareAllByAll.Tile tile = CompareAllByAll.readTile(file);
+			assertTrue(tile.isUpperTriangle);
+			assertEquals(row, tile.startRow);
+			for (int[] scores : tile.scores) {
+				for (int j = row; j < n; j++) {
+					assertEquals(sm[row][j], scores[j]);
+				}
+				row++;
+			}
+		}
+		assertEquals(n, row);
+	}
+
+}
@@ -0,0 +1,224 @@
+package org.monarchinitiative.owlsim.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.compute.matcher.impl.PhenodigmICProfileMatcher;
+import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
+import org.monarchinitiative.owlsim.model.match.Match;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that a kb read from a snapshot is indistinguishable from the kb it was written from
+ *
+ * @author cjm
+ *
+ */
+public class KnowledgeBaseSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (String fn : new String[] { "mp-subset.ttl", "simple-pheno-with-freqs.owl", "simple-pheno-with-negation.owl" }) {
+			BMKnowledgeBase kb = load(fn);
+			BMKnowledgeBase kb2 = KnowledgeBaseSnapshot.read(new ByteArrayInputStream(write(kb)));
+			compare(kb, kb2);
+		}
+	}
+
+	@Test
+	public void testSameMatches() throws Exception {
+		BMKnowledgeBase kb = load("mp-subset.ttl");
+		BMKnowledgeBase kb2 = KnowledgeBaseSnapshot.read(new ByteArrayInputStream(write(kb)));
+		ProfileMatcher pm = PhenodigmICProfileMatcher.create(kb);
+		ProfileMatcher pm2 = PhenodigmICProfileMatcher.create(kb2);
+		for (String i : kb.getIndividualIdsInSignature()) {
+			List<Match> ms = pm.findMatchProfile(i).getMatches();
+			List<Match> ms2 = pm2.findMatchProfile(i).getMatches();
+			assertEquals(ms.size(), ms2.size());
+			for (int j = 0; j < ms.size(); j++) {
+				assertEquals(ms.get(j).getMatchId(), ms2.get(j).getMatchId());
+				assertEquals(ms.get(j).getScore(), ms2.get(j).getScore(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testCorrupt() throws Exception {
+		byte[] bytes = write(load("mp-subset.ttl"));
+		bytes[bytes.length / 2] ^= 1;
+		try {
+			KnowledgeBaseSnapshot.read(new ByteArrayInputStream(bytes));
+			fail("expected checksum mismatch");
+		} catch (IOException e) {
+			// expected
+		}
+
+		bytes = write(load("mp-subset.ttl"));
+		bytes[11]++; // low byte of version
+		try {
+			KnowledgeBaseSnapshot.read(new ByteArrayInputStream(bytes));
+			fail("expected unsupported version");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("version"));
+		}
+	}
+
+	@Test
+	public void testWriteFile() throws Exception {
+		BMKnowledgeBase kb = load("mp-subset.ttl");
+		File snapshot = folder.newFile("kb.snapshot");
+		KnowledgeBaseSnapshot.write(kb, snapshot, "abc");
+		assertEquals("abc", KnowledgeBaseSnapshot.readFingerprint(snapshot));
+		compare(kb, KnowledgeBaseSnapshot.read(snapshot));
+		// the temporary file is renamed into place
+		assertArrayEquals(new String[] { "kb.snapshot" }, folder.getRoot().list());
+	}
+
+	@Test
+	public void testCorruptFile() throws Exception {
+		File snapshot = folder.newFile("kb.snapshot");
+		KnowledgeBaseSnapshot.write(load("mp-subset.ttl"), snapshot, "abc");
+		byte[] bytes = Files.readAllBytes(snapshot.toPath());
+
+		// the prefix count, after the magic number, version and fingerprint, is negative
+		Arrays.fill(bytes, 19, 23, (byte) 0xff);
+		Files.write(snapshot.toPath(), bytes);
+		try {
+			KnowledgeBaseSnapshot.read(snapshot);
+			fail("expected checksum mismatch");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("checksum"));
+		}
+
+		Files.write(snapshot.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+		try {
+			KnowledgeBaseSnapshot.read(snapshot);
+			fail("expected truncated snapshot to be rejected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFingerprint() throws Exception {
+		File source = folder.newFile("data.tsv");
+		List<String> sources = Arrays.asList(source.getPath(), "{HP=http://purl.obolibrary.org/obo/HP_}");
+		String fingerprint = KnowledgeBaseSnapshot.fingerprint(sources);
+		assertEquals(fingerprint, KnowledgeBaseSnapshot.fingerprint(sources));
+		Files.write(source.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		assertNotEquals(fingerprint, KnowledgeBaseSnapshot.fingerprint(sources));
+	}
+
+	@Test
+	public void testRemoteFingerprint() throws Exception {
+		AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		// a redirect, as from a purl
+		server.createContext("/purl", exchange -> {
+			exchange.getResponseHeaders().add("Location", "/ontology.owl");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.createContext("/ontology.owl", exchange -> {
+			if (etag.get() != null)
+				exchange.getResponseHeaders().add("ETag", etag.get());
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			List<String> sources = Collections.singletonList(
+					"http://localhost:" + server.getAddress().getPort() + "/purl");
+			String fingerprint = KnowledgeBaseSnapshot.fingerprint(sources);
+			assertNotNull(fingerprint);
+			assertEquals(fingerprint, KnowledgeBaseSnapshot.fingerprint(sources));
+			etag.set("\"v2\"");
+			assertNotEquals(fingerprint, KnowledgeBaseSnapshot.fingerprint(sources));
+			// changes could not be detected
+			etag.set(null);
+			assertNull(KnowledgeBaseSnapshot.fingerprint(sources));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private BMKnowledgeBase load(String fn) {
+		return OwlKnowledgeBase.loader()
+				.loadOntology(Paths.get("src/test/resources", fn).toString())
+				.createKnowledgeBase();
+	}
+
+	private byte[] write(BMKnowledgeBase kb) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		KnowledgeBaseSnapshot.write(kb, os);
+		return os.toByteArray();
+	}
+
+	private void compare(BMKnowledgeBase kb, BMKnowledgeBase kb2) {
+		assertEquals(kb.getNumClassNodes(), kb2.getNumClassNodes());
+		assertEquals(kb.getNumIndividualNodes(), kb2.getNumIndividualNodes());
+		assertEquals(kb.getRootIndex(), kb2.getRootIndex());
+		assertEquals(kb.getClassIdsInSignature(), kb2.getClassIdsInSignature());
+		assertEquals(kb.getIndividualIdsInSignature(), kb2.getIndividualIdsInSignature());
+		assertEquals(kb.getCurieUtil().getCurieMap(), kb2.getCurieUtil().getCurieMap());
+		for (int cix = 0; cix < kb.getNumClassNodes(); cix++) {
+			String cid = kb.getClassId(cix);
+			assertEquals(cid, kb2.getClassId(cix));
+			assertEquals(kb.getClassIds(cix), kb2.getClassIds(cix));
+			assertEquals(kb.getSuperClassesBM(cix), kb2.getSuperClassesBM(cix));
+			assertEquals(kb.getDirectSuperClassesBM(cix), kb2.getDirectSuperClassesBM(cix));
+			assertEquals(kb.getSubClasses(cix), kb2.getSubClasses(cix));
+			assertEquals(kb.getDirectSubClassesBM(cix), kb2.getDirectSubClassesBM(cix));
+			assertEquals(kb.getIndividualsBM(cix).getPositions(), kb2.getIndividualsBM(cix).getPositions());
+			assertEquals(kb.getIndividualCountPerClassArray()[cix], kb2.getIndividualCountPerClassArray()[cix]);
+			assertEquals(kb.getInformationContentPerClassArray()[cix], kb2.getInformationContentPerClassArray()[cix], 0.0);
+			assertArrayEquals(kb.getDirectSubClassIndicesPerClassArray()[cix], kb2.getDirectSubClassIndicesPerClassArray()[cix]);
+			assertEquals(kb.getDirectSuperClassCountPerClassArray()[cix], kb2.getDirectSuperClassCountPerClassArray()[cix]);
+			assertEquals(kb.getLabelMapper().getLabel(cid), kb2.getLabelMapper().getLabel(cid));
+		}
+		for (String cid : kb.getClassIdsInSignature()) {
+			assertEquals(kb.getClassIndex(cid), kb2.getClassIndex(cid));
+		}
+		for (int iix = 0; iix < kb.getNumIndividualNodes(); iix++) {
+			String id = kb.getIndividualId(iix);
+			assertEquals(id, kb2.getIndividualId(iix));
+			assertEquals(kb.getTypesBM(iix), kb2.getTypesBM(iix));
+			assertEquals(kb.getDirectTypesBM(iix), kb2.getDirectTypesBM(iix));
+			assertEquals(kb.getNegatedTypesBM(id), kb2.getNegatedTypesBM(id));
+			assertEquals(kb.getDirectNegatedTypesBM(id), kb2.getDirectNegatedTypesBM(id));
+			assertEquals(kb.getDirectWeightedTypes(id), kb2.getDirectWeightedTypes(id));
+			assertEquals(kb.getLabelMapper().getLabel(id), kb2.getLabelMapper().getLabel(id));
+		}
+		for (String id : kb.getIndividualIdsInSignature()) {
+			assertEquals(kb.getIndividualIndex(id), kb2.getIndividualIndex(id));
+			assertEquals(kb.getPropertyValueMap(id), kb2.getPropertyValueMap(id));
+		}
+	}
+
+}
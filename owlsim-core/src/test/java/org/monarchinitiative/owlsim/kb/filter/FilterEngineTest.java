@@ -53,6 +53,13 @@ public class FilterEngineTest extends AbstractFilterEngineTest {
         IdPrefixFilter pf = IdPrefixFilter.create("http://x.org/ia");
         testFilter(pf, "http://x.org/ia", "http://x.org/iabc");
 
+        // indices are built once per kb
+        assertSame(kb.getIndividualsWithIdPrefixBM("http://x.org/ia"),
+                kb.getIndividualsWithIdPrefixBM("http://x.org/ia"));
+        assertSame(kb.getIndividualsWithPropertyValueBM("http://x.org/dp", "foo"),
+                kb.getIndividualsWithPropertyValueBM("http://x.org/dp", "foo"));
+        assertEquals(0, kb.getIndividualsWithPropertyValueBM("http://x.org/dp", "no-such-value").cardinality());
+
 	}
 
 }
@@ -0,0 +1,62 @@
+package org.monarchinitiative.owlsim.model.match.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.monarchinitiative.owlsim.model.match.Match;
+import org.monarchinitiative.owlsim.model.match.MatchSet;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+
+/**
+ * Tests that a bounded match set retains and ranks the same matches as
+ * sorting and truncating an unbounded one
+ *
+ * @author cjm
+ *
+ */
+public class MatchSetImplTest {
+
+	@Test
+	public void testBoundedEqualsTruncated() {
+		Random random = new Random(42);
+		for (int limit : new int[] { 0, 1, 7, 50, 200, 1000 }) {
+			ProfileQuery q = ProfileQueryImpl.create(new HashSet<String>());
+			Set<String> refIds = new HashSet<>();
+			refIds.add("i3");
+			refIds.add("i250");
+			refIds.add("i499");
+			q.setReferenceIndividualIds(refIds);
+
+			MatchSet expected = MatchSetImpl.create(q);
+			MatchSet actual = MatchSetImpl.create(q, limit);
+			for (int i = 0; i < 500; i++) {
+				// coarse scores, to ensure many ties
+				double s = random.nextInt(40) / 40.0;
+				expected.add(MatchImpl.create("i" + i, null, s));
+				actual.add(MatchImpl.create("i" + i, null, s));
+			}
+			expected.sortMatches();
+			expected.truncate(limit);
+			actual.sortMatches();
+
+			List<Match> ems = expected.getMatches();
+			List<Match> ams = actual.getMatches();
+			assertEquals(ems.size(), ams.size());
+			for (int i = 0; i < ems.size(); i++) {
+				assertEquals(ems.get(i).getMatchId(), ams.get(i).getMatchId());
+				assertEquals(ems.get(i).getRank(), ams.get(i).getRank());
+			}
+			assertEquals(3, actual.getReferenceMatches().size());
+			for (String id : refIds) {
+				assertEquals(expected.getReferenceMatches().get(id).getRank(),
+						actual.getReferenceMatches().get(id).getRank());
+			}
+		}
+	}
+
+}
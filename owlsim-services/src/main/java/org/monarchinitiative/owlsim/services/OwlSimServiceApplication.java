@@ -144,7 +144,8 @@ public class OwlSimServiceApplication extends Application<ApplicationConfigurati
 		Injector i = Guice.createInjector(new OWLAPIImplModule(concurrency), new OWLAPIParsersModule(),
 				new OWLAPIServiceLoaderModule(),
 				new KnowledgeBaseModule(configuration.getOntologyUris(), configuration.getOntologyDataUris(),
-						configuration.getDataTsvs(), configuration.getLabelTsvs(), configuration.getCuries()),
+						configuration.getDataTsvs(), configuration.getLabelTsvs(), configuration.getCuries(),
+						configuration.getKnowledgeBaseSnapshot()),
 				new EnrichmentMapModule(), new MatcherMapModule());
 		// removed binding info as this caused things to explode. Wasn't
 		// helpful.
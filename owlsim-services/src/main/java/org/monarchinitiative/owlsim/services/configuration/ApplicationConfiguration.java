@@ -40,6 +40,9 @@ public class ApplicationConfiguration extends Configuration {
     
     private Set<String> labelTsvs = Sets.newHashSet();
 
+    // optional path to a binary snapshot of the knowledge base
+    private String knowledgeBaseSnapshot;
+
 	public Set<String> getOntologyUris() {
         return ontologyUris;
     }
@@ -60,4 +63,17 @@ public class ApplicationConfiguration extends Configuration {
 		return labelTsvs;
 	}
 
+	/**
+	 * If set and the file holds a snapshot built from the configured ontologies and data,
+	 * the knowledge base is read from it instead of being built. Otherwise (no file,
+	 * a stale or unreadable snapshot) the knowledge base is built and the snapshot written.
+	 * Remote sources are compared using their ETag or Last-Modified header; if one has
+	 * neither, the snapshot is not used.
+	 * 
+	 * @return path to snapshot, or null
+	 */
+	public String getKnowledgeBaseSnapshot() {
+		return knowledgeBaseSnapshot;
+	}
+
 }
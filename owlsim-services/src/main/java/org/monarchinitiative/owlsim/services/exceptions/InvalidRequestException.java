@@ -0,0 +1,17 @@
+package org.monarchinitiative.owlsim.services.exceptions;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+public class InvalidRequestException extends WebApplicationException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InvalidRequestException(String message) {
+        super(Response.status(Status.BAD_REQUEST).
+                entity(message).type(MediaType.TEXT_PLAIN).build());
+	}
+
+}
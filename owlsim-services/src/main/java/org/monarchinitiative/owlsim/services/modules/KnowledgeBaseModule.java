@@ -9,12 +9,18 @@ import org.monarchinitiative.owlsim.compute.enrich.impl.HypergeometricEnrichment
 import org.monarchinitiative.owlsim.compute.matcher.impl.BayesianNetworkProfileMatcher;
 import org.monarchinitiative.owlsim.compute.mica.MostInformativeCommonAncestorCalculator;
 import org.monarchinitiative.owlsim.compute.mica.impl.MostInformativeCommonAncestorCalculatorImpl;
+import org.monarchinitiative.owlsim.io.KnowledgeBaseSnapshot;
 import org.monarchinitiative.owlsim.io.OwlKnowledgeBase;
 import org.monarchinitiative.owlsim.kb.BMKnowledgeBase;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 public class KnowledgeBaseModule extends AbstractModule {
 
@@ -23,6 +29,45 @@ public class KnowledgeBaseModule extends AbstractModule {
 	private final BMKnowledgeBase bmKnowledgeBase;
 
 	public KnowledgeBaseModule(Collection<String> ontologyUris, Collection<String> ontologyDataUris, Set<String> dataTsvs,  Set<String> labelTsvs, Map<String, String> curies) {
+		this(ontologyUris, ontologyDataUris, dataTsvs, labelTsvs, curies, null);
+	}
+
+	/**
+	 * @param ontologyUris
+	 * @param ontologyDataUris
+	 * @param dataTsvs
+	 * @param labelTsvs
+	 * @param curies
+	 * @param snapshotPath - if the file holds a snapshot built from the same sources, the kb
+	 *   is read from it; otherwise the kb is built and written to it. Not used if a remote
+	 *   source cannot be fingerprinted. May be null.
+	 */
+	public KnowledgeBaseModule(Collection<String> ontologyUris, Collection<String> ontologyDataUris, Set<String> dataTsvs,  Set<String> labelTsvs, Map<String, String> curies,
+			String snapshotPath) {
+		File snapshot = snapshotPath == null ? null : new File(snapshotPath);
+		String fingerprint = null;
+		if (snapshot != null) {
+			List<String> sources = new ArrayList<>();
+			sources.addAll(ontologyUris);
+			sources.addAll(ontologyDataUris);
+			sources.addAll(dataTsvs);
+			sources.addAll(labelTsvs);
+			sources.add(new TreeMap<>(curies).toString());
+			fingerprint = KnowledgeBaseSnapshot.fingerprint(sources);
+			if (fingerprint == null) {
+				// a stale snapshot could not be detected, so none is used
+				logger.warn("Not using knowledge base snapshot " + snapshot
+						+ "; a remote source has no ETag or Last-Modified header");
+				snapshot = null;
+			}
+			else {
+				BMKnowledgeBase kb = readSnapshot(snapshot, fingerprint);
+				if (kb != null) {
+					this.bmKnowledgeBase = kb;
+					return;
+				}
+			}
+		}
 
 		logger.info("Loading ontologyUris:");
 		ontologyUris.forEach(logger::info);
@@ -45,6 +90,38 @@ public class KnowledgeBaseModule extends AbstractModule {
 				.createKnowledgeBase();
 
 		logger.info("Created BMKnowledgebase");
+		if (snapshot != null) {
+			try {
+				KnowledgeBaseSnapshot.write(bmKnowledgeBase, snapshot, fingerprint);
+			} catch (IOException e) {
+				// not fatal; the snapshot is only used to speed up the next start
+				logger.error("Could not write knowledge base snapshot " + snapshot, e);
+			}
+		}
+	}
+
+	/**
+	 * @param snapshot
+	 * @param fingerprint
+	 * @return kb read from snapshot, or null if there is no usable snapshot
+	 */
+	private BMKnowledgeBase readSnapshot(File snapshot, String fingerprint) {
+		if (!snapshot.exists())
+			return null;
+		try {
+			if (!fingerprint.equals(KnowledgeBaseSnapshot.readFingerprint(snapshot))) {
+				logger.info("Ignoring snapshot built from different sources: " + snapshot);
+				return null;
+			}
+			logger.info("Loading snapshot: " + snapshot);
+			BMKnowledgeBase kb = KnowledgeBaseSnapshot.read(snapshot);
+			logger.info("Created BMKnowledgebase from snapshot");
+			return kb;
+		} catch (IOException | RuntimeException e) {
+			// the kb is rebuilt from the sources, and the snapshot replaced
+			logger.warn("Could not read knowledge base snapshot " + snapshot + "; rebuilding", e);
+			return null;
+		}
 	}
 
 	@Override
@@ -57,6 +134,8 @@ public class KnowledgeBaseModule extends AbstractModule {
 		return bmKnowledgeBase;
 	}
 
+	// not a singleton: the calculator only holds the kb's shared IC and frequency arrays,
+	// plus a MICA store of its own, as does the calculator of each matcher
 	@Provides
 	MostInformativeCommonAncestorCalculator getMostInformativeCommonAncestorCalculator(BMKnowledgeBase knowledgeBase) {
         return new MostInformativeCommonAncestorCalculatorImpl(knowledgeBase);
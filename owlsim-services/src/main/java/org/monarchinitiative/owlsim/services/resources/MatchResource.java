@@ -1,18 +1,31 @@
 package org.monarchinitiative.owlsim.services.resources;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
@@ -20,13 +33,22 @@ import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.filter.AnonIndividualFilter;
 import org.monarchinitiative.owlsim.kb.filter.TypeFilter;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
+import org.monarchinitiative.owlsim.model.match.Match;
 import org.monarchinitiative.owlsim.model.match.MatchSet;
 import org.monarchinitiative.owlsim.model.match.ProfileQuery;
 import org.monarchinitiative.owlsim.model.match.ProfileQueryFactory;
+import org.monarchinitiative.owlsim.services.exceptions.InvalidRequestException;
 import org.monarchinitiative.owlsim.services.exceptions.NonNegatedMatcherException;
 import org.monarchinitiative.owlsim.services.exceptions.UnknownMatcherException;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.jackson.Jackson;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -42,6 +64,29 @@ public class MatchResource {
   @Inject
   Map<String, ProfileMatcher> matchers = new HashMap<>();
 
+  private static final int BATCH_THREADS = Runtime.getRuntime().availableProcessors();
+
+  // profiles of a batch submitted ahead of the one being written; bounds the
+  // number of results held when an early profile is slow
+  static final int PROFILES_IN_FLIGHT = BATCH_THREADS * 4;
+
+  // shared by all batch requests, so that concurrent batches do not oversubscribe the cpus
+  private final ExecutorService batchExecutor = Executors.newFixedThreadPool(BATCH_THREADS,
+      new ThreadFactoryBuilder().setNameFormat("batch-match-%d").setDaemon(true).build());
+
+  /**
+   * Media type for newline-delimited JSON, selected with the Accept header
+   */
+  public static final String NDJSON = "application/x-ndjson";
+
+  // lower quality than the class-level JSON, so that JSON stays the default for
+  // Accept: */* and for clients that send no Accept header
+  private static final String NDJSON_LOW_QS = NDJSON + ";qs=0.5";
+
+  private final ObjectMapper objectMapper = Jackson.newObjectMapper()
+      .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+      .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
   @GET
   @Path("/matchers")
   @ApiOperation(value = "Get registered profile matchers", response = Collection.class,
@@ -69,6 +114,163 @@ public class MatchResource {
           required = false) @QueryParam("filterClassId") String filterId,
       @ApiParam(value = "cutoff limit", required = false) @QueryParam("limit") Integer limit)
       throws UnknownFilterException, IncoherentStateException {
+    ProfileMatcher matcher = getMatcher(matcherName, negatedIds);
+    ProfileQuery query = createQuery(ids, negatedIds, targetClassIds, filterId, limit);
+    return matcher.findMatchProfile(query);
+  }
+
+  /**
+   * As {@link #getMatches}, but each match is written on its own line as it is serialized,
+   * so that exhaustive (limit=-1) results are never held as a single JSON document
+   */
+  @GET
+  @Path("/{matcher}")
+  @Timed
+  @Produces({NDJSON_LOW_QS})
+  @ApiOperation(value = "Match, as newline-delimited JSON", response = Match.class,
+      responseContainer = "List",
+      notes = "Selected with Accept: " + NDJSON + ". Writes one match per line.")
+  public StreamingOutput getMatchesAsNDJSON(
+      @ApiParam(value = "The name of the matcher to use",
+          required = true) @PathParam("matcher") String matcherName,
+      @ApiParam(value = "Class IDs to be matched",
+          required = false) @QueryParam("id") Set<String> ids,
+      @ApiParam(value = "Negated Class IDs",
+          required = false) @QueryParam("negatedId") Set<String> negatedIds,
+      @ApiParam(value = "Target Class IDs",
+          required = false) @QueryParam("targetClassId") Set<String> targetClassIds,
+      @ApiParam(value = "Filter individuals by type",
+          required = false) @QueryParam("filterClassId") String filterId,
+      @ApiParam(value = "cutoff limit", required = false) @QueryParam("limit") Integer limit)
+      throws UnknownFilterException, IncoherentStateException {
+    MatchSet matchSet = getMatches(matcherName, ids, negatedIds, targetClassIds, filterId, limit);
+    return output -> {
+      for (Match m : matchSet.getMatches()) {
+        writeLine(output, m);
+      }
+    };
+  }
+
+  @POST
+  @Path("/{matcher}/batch")
+  @Timed
+  @Consumes({MediaType.APPLICATION_JSON})
+  @ApiOperation(value = "Batch match", response = ProfileResult.class, responseContainer = "List",
+      notes = "Matches many profiles in one request. Profiles are matched concurrently, a "
+          + "bounded number ahead of the one being written; identical profiles matched at the "
+          + "same time are matched once. Results are streamed back as a JSON array in request "
+          + "order, each as soon as it and all preceding profiles are done.")
+  public StreamingOutput getBatchMatches(
+      @ApiParam(value = "The name of the matcher to use",
+          required = true) @PathParam("matcher") String matcherName,
+      @ApiParam(value = "Profiles to be matched", required = true) List<ProfileRequest> profiles) {
+    ProfileMatcher matcher = getBatchMatcher(matcherName, profiles);
+    return output -> {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(output);
+      generator.writeStartArray();
+      writeBatch(matcher, profiles, result -> {
+        objectMapper.writeValue(generator, result);
+        generator.flush();
+      });
+      generator.writeEndArray();
+      generator.close();
+    };
+  }
+
+  /**
+   * As {@link #getBatchMatches}, but with one profile result per line
+   */
+  @POST
+  @Path("/{matcher}/batch")
+  @Timed
+  @Consumes({MediaType.APPLICATION_JSON})
+  @Produces({NDJSON_LOW_QS})
+  @ApiOperation(value = "Batch match, as newline-delimited JSON", response = ProfileResult.class,
+      responseContainer = "List",
+      notes = "Selected with Accept: " + NDJSON + ". Writes one profile result per line.")
+  public StreamingOutput getBatchMatchesAsNDJSON(
+      @ApiParam(value = "The name of the matcher to use",
+          required = true) @PathParam("matcher") String matcherName,
+      @ApiParam(value = "Profiles to be matched", required = true) List<ProfileRequest> profiles) {
+    ProfileMatcher matcher = getBatchMatcher(matcherName, profiles);
+    return output -> writeBatch(matcher, profiles, result -> {
+      writeLine(output, result);
+      output.flush();
+    });
+  }
+
+  // validates the whole request before anything is streamed
+  private ProfileMatcher getBatchMatcher(String matcherName, List<ProfileRequest> profiles) {
+    if (profiles == null) {
+      throw new InvalidRequestException("Request body must be a list of profiles");
+    }
+    Set<String> allNegatedIds = new HashSet<>();
+    for (int i = 0; i < profiles.size(); i++) {
+      ProfileRequest p = profiles.get(i);
+      if (p == null || p.ids == null || p.negatedIds == null || p.targetClassIds == null) {
+        throw new InvalidRequestException(
+            "Profile " + i + " is null, or has null ids, negatedIds or targetClassIds");
+      }
+      allNegatedIds.addAll(p.negatedIds);
+    }
+    return getMatcher(matcherName, allNegatedIds);
+  }
+
+  private interface ResultWriter {
+    void write(ProfileResult result) throws IOException;
+  }
+
+  // writes results in request order, as each becomes available. At most PROFILES_IN_FLIGHT
+  // profiles are submitted ahead of the one being written, and identical profiles among
+  // them share a single computation
+  private void writeBatch(ProfileMatcher matcher, List<ProfileRequest> profiles,
+      ResultWriter writer) throws IOException {
+    Deque<CompletableFuture<ProfileResult>> inFlight = new ArrayDeque<>();
+    Map<ProfileRequest, CompletableFuture<ProfileResult>> futureByProfile = new HashMap<>();
+    int next = 0;
+    try {
+      for (int i = 0; i < profiles.size(); i++) {
+        while (next < profiles.size() && next - i < PROFILES_IN_FLIGHT) {
+          inFlight.add(futureByProfile.computeIfAbsent(profiles.get(next),
+              k -> CompletableFuture.supplyAsync(() -> match(matcher, k), batchExecutor)));
+          next++;
+        }
+        CompletableFuture<ProfileResult> future = inFlight.removeFirst();
+        // release results once written, unless an identical profile is still to be written
+        if (!inFlight.contains(future)) {
+          futureByProfile.remove(profiles.get(i));
+        }
+        ProfileResult result = future.join();
+        result.profileId = profiles.get(i).profileId;
+        writer.write(result);
+      }
+    } finally {
+      // no-op unless the client went away mid-stream
+      for (CompletableFuture<ProfileResult> f : inFlight) {
+        f.cancel(false);
+      }
+    }
+  }
+
+  private void writeLine(OutputStream output, Object obj) throws IOException {
+    output.write(objectMapper.writeValueAsBytes(obj));
+    output.write('\n');
+  }
+
+  private ProfileResult match(ProfileMatcher matcher, ProfileRequest p) {
+    ProfileResult result = new ProfileResult();
+    try {
+      ProfileQuery query =
+          createQuery(p.ids, p.negatedIds, p.targetClassIds, p.filterClassId, p.limit);
+      result.matchSet = matcher.findMatchProfile(query);
+    } catch (Exception e) {
+      // reported per profile, so that one bad profile does not fail the batch
+      result.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+    return result;
+  }
+
+  private ProfileMatcher getMatcher(String matcherName, Set<String> negatedIds) {
     if (!matchers.containsKey(matcherName)) {
       throw new UnknownMatcherException(matcherName);
     }
@@ -79,6 +281,11 @@ public class MatchResource {
         && !NegationAwareProfileMatcher.class.isAssignableFrom(matcher.getClass())) {
       throw new NonNegatedMatcherException(matcherName);
     }
+    return matcher;
+  }
+
+  private ProfileQuery createQuery(Set<String> ids, Set<String> negatedIds,
+      Set<String> targetClassIds, String filterId, Integer limit) {
     ProfileQuery query = ProfileQueryFactory.createQueryWithNegation(ids, negatedIds);
 
     if (limit != null)
@@ -92,8 +299,44 @@ public class MatchResource {
       AnonIndividualFilter filter = new AnonIndividualFilter(targetPQ);
       query.setFilter(filter);
     }
+    return query;
+  }
 
-    return matcher.findMatchProfile(query);
+  /**
+   * A single profile in a batch request; profileId is echoed back with its result
+   */
+  public static class ProfileRequest {
+    public String profileId;
+    public Set<String> ids = new HashSet<>();
+    public Set<String> negatedIds = new HashSet<>();
+    public Set<String> targetClassIds = new HashSet<>();
+    public String filterClassId;
+    public Integer limit;
+
+    // profileId is not part of equality, so that identical profiles are matched once
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ProfileRequest))
+        return false;
+      ProfileRequest p = (ProfileRequest) obj;
+      return ids.equals(p.ids) && negatedIds.equals(p.negatedIds)
+          && targetClassIds.equals(p.targetClassIds)
+          && Objects.equals(filterClassId, p.filterClassId) && Objects.equals(limit, p.limit);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(ids, negatedIds, targetClassIds, filterClassId, limit);
+    }
+  }
+
+  /**
+   * Result for a single profile in a batch; exactly one of matchSet and error is set
+   */
+  public static class ProfileResult {
+    public String profileId;
+    public MatchSet matchSet;
+    public String error;
   }
 
   // TODO - API for comparing two entities
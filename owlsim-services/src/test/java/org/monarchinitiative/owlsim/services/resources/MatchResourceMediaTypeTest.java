@@ -0,0 +1,73 @@
+package org.monarchinitiative.owlsim.services.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+import org.monarchinitiative.owlsim.model.match.impl.MatchSetImpl;
+
+import com.sun.jersey.api.client.ClientResponse;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+
+/**
+ * Checks which representation of a match is chosen for a given Accept header
+ */
+public class MatchResourceMediaTypeTest {
+
+  ProfileMatcher matcher = mock(ProfileMatcher.class);
+
+  @Rule
+  public final ResourceTestRule resources =
+      ResourceTestRule.builder().addResource(createResource()).build();
+
+  private MatchResource createResource() {
+    MatchResource match = new MatchResource();
+    match.matchers = new HashMap<>();
+    match.matchers.put("foo", matcher);
+    return match;
+  }
+
+  @Before
+  public void setup() throws Exception {
+    when(matcher.findMatchProfile(any(ProfileQuery.class)))
+        .thenAnswer(invocation -> MatchSetImpl.create((ProfileQuery) invocation.getArguments()[0]));
+  }
+
+  private ClientResponse get(String accept) {
+    return resources.client().resource("/match/foo").accept(accept).get(ClientResponse.class);
+  }
+
+  @Test
+  public void testWildcardIsJson() {
+    ClientResponse response = get(MediaType.WILDCARD);
+    assertEquals(200, response.getStatus());
+    assertTrue(MediaType.APPLICATION_JSON_TYPE.isCompatible(response.getType()));
+  }
+
+  @Test
+  public void testNoAcceptIsJson() {
+    ClientResponse response = resources.client().resource("/match/foo").get(ClientResponse.class);
+    assertEquals(200, response.getStatus());
+    assertTrue(MediaType.APPLICATION_JSON_TYPE.isCompatible(response.getType()));
+  }
+
+  @Test
+  public void testNDJSON() {
+    ClientResponse response = get(MatchResource.NDJSON);
+    assertEquals(200, response.getStatus());
+    assertTrue(MediaType.valueOf(MatchResource.NDJSON).isCompatible(response.getType()));
+  }
+
+}
@@ -1,10 +1,23 @@
 package org.monarchinitiative.owlsim.services.resources;
 
 import static com.google.common.collect.Sets.newHashSet;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -12,17 +25,24 @@ import org.monarchinitiative.owlsim.compute.cpt.IncoherentStateException;
 import org.monarchinitiative.owlsim.compute.matcher.NegationAwareProfileMatcher;
 import org.monarchinitiative.owlsim.compute.matcher.ProfileMatcher;
 import org.monarchinitiative.owlsim.kb.filter.UnknownFilterException;
+import org.monarchinitiative.owlsim.model.match.ProfileQuery;
+import org.monarchinitiative.owlsim.services.resources.MatchResource.ProfileRequest;
+import org.monarchinitiative.owlsim.services.exceptions.InvalidRequestException;
 import org.monarchinitiative.owlsim.services.exceptions.NonNegatedMatcherException;
 import org.monarchinitiative.owlsim.services.exceptions.UnknownMatcherException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class MatchResourceTest {
 
   MatchResource match;
+  ProfileMatcher matcher;
 
   @Before
   public void setup() {
     match = new MatchResource();
-    ProfileMatcher matcher = mock(ProfileMatcher.class);
+    matcher = mock(ProfileMatcher.class);
     NegationAwareProfileMatcher negatedMatcher = mock(NegationAwareProfileMatcher.class);
     match.matchers = new HashMap<>();
     match.matchers.put("foo", matcher);
@@ -49,4 +69,105 @@ public class MatchResourceTest {
         newHashSet("not me"), null, null);
   }
 
+  @Test
+  public void testBatchMatches() throws IOException, UnknownFilterException, IncoherentStateException {
+    ProfileRequest p1 = createProfileRequest("p1", "HP:1");
+    ProfileRequest p2 = createProfileRequest("p2", "HP:2");
+    ProfileRequest p3 = createProfileRequest("p3", "HP:1");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    match.getBatchMatches("foo", Arrays.asList(p1, p2, p3)).write(out);
+
+    JsonNode results = new ObjectMapper().readTree(out.toByteArray());
+    assertEquals(3, results.size());
+    assertEquals("p1", results.get(0).get("profileId").asText());
+    assertEquals("p2", results.get(1).get("profileId").asText());
+    assertEquals("p3", results.get(2).get("profileId").asText());
+    // p1 and p3 are identical
+    verify(matcher, times(2)).findMatchProfile(any(ProfileQuery.class));
+  }
+
+  @Test
+  public void testBatchMatchesAsNDJSON() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    match.getBatchMatchesAsNDJSON("foo",
+        Arrays.asList(createProfileRequest("p1", "HP:1"), createProfileRequest("p2", "HP:2")))
+        .write(out);
+
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(2, lines.length);
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals("p1", mapper.readTree(lines[0]).get("profileId").asText());
+    assertEquals("p2", mapper.readTree(lines[1]).get("profileId").asText());
+  }
+
+  @Test(expected = NonNegatedMatcherException.class)
+  public void testBatchNegatedIdsWithNonNegatedMatcher() {
+    ProfileRequest p = createProfileRequest("p1", "HP:1");
+    p.negatedIds = newHashSet("not me");
+    match.getBatchMatches("foo", Arrays.asList(createProfileRequest("p0", "HP:1"), p));
+  }
+
+  @Test(expected = InvalidRequestException.class)
+  public void testBatchWithoutBody() {
+    match.getBatchMatches("foo", null);
+  }
+
+  @Test(expected = InvalidRequestException.class)
+  public void testBatchNullNegatedIds() {
+    ProfileRequest p = createProfileRequest("p1", "HP:1");
+    p.negatedIds = null;
+    match.getBatchMatchesAsNDJSON("foo", Arrays.asList(createProfileRequest("p0", "HP:1"), p));
+  }
+
+  @Test
+  public void testBatchInFlightIsBounded() throws Exception {
+    // the first profile is slow; later ones are only submitted as it is written
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+    when(matcher.findMatchProfile(any(ProfileQuery.class))).thenAnswer(invocation -> {
+      started.incrementAndGet();
+      ProfileQuery q = (ProfileQuery) invocation.getArguments()[0];
+      if (q.getQueryClassIds().contains("HP:0")) {
+        release.await();
+      }
+      return null;
+    });
+    List<ProfileRequest> profiles = new ArrayList<>();
+    for (int i = 0; i < MatchResource.PROFILES_IN_FLIGHT * 3; i++) {
+      profiles.add(createProfileRequest("p" + i, "HP:" + i));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Thread writer = new Thread(() -> {
+      try {
+        match.getBatchMatchesAsNDJSON("foo", profiles).write(out);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (started.get() < MatchResource.PROFILES_IN_FLIGHT && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(MatchResource.PROFILES_IN_FLIGHT, started.get());
+    release.countDown();
+    writer.join(TimeUnit.SECONDS.toMillis(10));
+
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(profiles.size(), lines.length);
+    ObjectMapper mapper = new ObjectMapper();
+    for (int i = 0; i < lines.length; i++) {
+      assertEquals("p" + i, mapper.readTree(lines[i]).get("profileId").asText());
+    }
+    assertEquals(profiles.size(), started.get());
+  }
+
+  private ProfileRequest createProfileRequest(String profileId, String id) {
+    ProfileRequest p = new ProfileRequest();
+    p.profileId = profileId;
+    p.ids = newHashSet(id);
+    return p;
+  }
+
 }